@@ -1,6 +1,7 @@
 package com.generic.base;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
 
 public class Algebra {
 
@@ -635,6 +636,379 @@ public class Algebra {
                                                              0.0f, 0.0f, 0.0f, 1.0f);
    }
    
+   // -----------------------------------------------------------------------
+   // Vec3, Mat3, Mat4 -- float[] kernels and mutable scratch
+   // -----------------------------------------------------------------------
+   //
+   // Every operation on the types above returns a new object, which is what
+   // makes them safe to pass around, but a loop doing a few of them for
+   // every vertex or triangle makes a lot of garbage.  Vec3, Mat3 and Mat4
+   // do the same arithmetic with nothing allocated: as static methods on
+   // float[] storage (a mesh's positions, three floats per vertex, say),
+   // and as small mutable objects around that storage, to be made once
+   // outside a loop and reused as scratch inside it.
+   //
+   // Matrices are stored column-major, the way Matrix4x4.copyToFloatArray
+   // writes them and OpenGL reads them: element (row r, column c) of a Mat4
+   // is at [4*c + r], of a Mat3 at [3*c + r].  Outputs may be the same
+   // storage as inputs, everything is read before anything is written.
+   // -----------------------------------------------------------------------
+
+   public static final class Vec3 {
+      public float x, y, z;
+
+      public Vec3() {}
+      public Vec3(float x, float y, float z) {
+         set(x, y, z);
+      }
+
+      public Vec3 set(float x, float y, float z) {
+         this.x = x;  this.y = y;  this.z = z;
+         return this;
+      }
+      public Vec3 set(Vec3 v) {
+         return set(v.x, v.y, v.z);
+      }
+      public Vec3 set(Vector3 v) {
+         return set(v.x, v.y, v.z);
+      }
+      public Vec3 load(float[] a, int ai) {
+         return set(a[ai], a[ai+1], a[ai+2]);
+      }
+      public void store(float[] a, int ai) {
+         a[ai] = x;  a[ai+1] = y;  a[ai+2] = z;
+      }
+      public Vector3 toVector3() {
+         return new Vector3(x, y, z);
+      }
+
+      public Vec3 add(Vec3 v) {
+         return set(x + v.x, y + v.y, z + v.z);
+      }
+      public Vec3 sub(Vec3 v) {
+         return set(x - v.x, y - v.y, z - v.z);
+      }
+      public Vec3 scale(float s) {
+         return set(x * s, y * s, z * s);
+      }
+      // this += v * s
+      public Vec3 addScaled(Vec3 v, float s) {
+         return set(x + v.x * s, y + v.y * s, z + v.z * s);
+      }
+      // this = a x b
+      public Vec3 cross(Vec3 a, Vec3 b) {
+         return set(a.y * b.z - a.z * b.y,
+                    a.z * b.x - a.x * b.z,
+                    a.x * b.y - a.y * b.x);
+      }
+      public float dot(Vec3 v) {
+         return x * v.x + y * v.y + z * v.z;
+      }
+      public float lengthSq() {
+         return x * x + y * y + z * z;
+      }
+      public float length() {
+         return (float) Math.sqrt(lengthSq());
+      }
+      // Leaves a zero vector as it is
+      public Vec3 normalize() {
+         float length = length();
+         return (length > 0.0f) ? scale(1.0f / length) : this;
+      }
+      public Vec3 transform(Mat3 m) {
+         float[] a = m.m;
+         return set(a[0] * x + a[3] * y + a[6] * z,
+                    a[1] * x + a[4] * y + a[7] * z,
+                    a[2] * x + a[5] * y + a[8] * z);
+      }
+      // As a point, (x,y,z,1), dropping the w it ends up with
+      public Vec3 transformPoint(Mat4 m) {
+         float[] a = m.m;
+         return set(a[0] * x + a[4] * y + a[8]  * z + a[12],
+                    a[1] * x + a[5] * y + a[9]  * z + a[13],
+                    a[2] * x + a[6] * y + a[10] * z + a[14]);
+      }
+      // As a direction, (x,y,z,0)
+      public Vec3 transformVector(Mat4 m) {
+         float[] a = m.m;
+         return set(a[0] * x + a[4] * y + a[8]  * z,
+                    a[1] * x + a[5] * y + a[9]  * z,
+                    a[2] * x + a[6] * y + a[10] * z);
+      }
+
+      // ----- On float[] storage -----
+
+      public static void add(float[] a, int ai, float[] b, int bi, float[] out, int oi) {
+         float x = a[ai] + b[bi], y = a[ai+1] + b[bi+1], z = a[ai+2] + b[bi+2];
+         out[oi] = x;  out[oi+1] = y;  out[oi+2] = z;
+      }
+      public static void sub(float[] a, int ai, float[] b, int bi, float[] out, int oi) {
+         float x = a[ai] - b[bi], y = a[ai+1] - b[bi+1], z = a[ai+2] - b[bi+2];
+         out[oi] = x;  out[oi+1] = y;  out[oi+2] = z;
+      }
+      public static void scale(float[] a, int ai, float s, float[] out, int oi) {
+         float x = a[ai] * s, y = a[ai+1] * s, z = a[ai+2] * s;
+         out[oi] = x;  out[oi+1] = y;  out[oi+2] = z;
+      }
+      public static float dot(float[] a, int ai, float[] b, int bi) {
+         return a[ai] * b[bi] + a[ai+1] * b[bi+1] + a[ai+2] * b[bi+2];
+      }
+      public static void cross(float[] a, int ai, float[] b, int bi, float[] out, int oi) {
+         float ax = a[ai], ay = a[ai+1], az = a[ai+2];
+         float bx = b[bi], by = b[bi+1], bz = b[bi+2];
+         out[oi]   = ay * bz - az * by;
+         out[oi+1] = az * bx - ax * bz;
+         out[oi+2] = ax * by - ay * bx;
+      }
+      public static float lengthSq(float[] a, int ai) {
+         return dot(a, ai, a, ai);
+      }
+      // Returns the length "a" had, and leaves a zero vector as it is
+      public static float normalize(float[] a, int ai, float[] out, int oi) {
+         float length = (float) Math.sqrt(lengthSq(a, ai));
+         scale(a, ai, (length > 0.0f) ? (1.0f / length) : 1.0f, out, oi);
+         return length;
+      }
+      // (b - a) x (c - a) for the points at ai, bi and ci of "p", which is
+      // the normal of triangle a,b,c and twice as long as its area
+      public static void triangleNormal(float[] p, int ai, int bi, int ci, float[] out, int oi) {
+         float ux = p[bi] - p[ai], uy = p[bi+1] - p[ai+1], uz = p[bi+2] - p[ai+2];
+         float vx = p[ci] - p[ai], vy = p[ci+1] - p[ai+1], vz = p[ci+2] - p[ai+2];
+         out[oi]   = uy * vz - uz * vy;
+         out[oi+1] = uz * vx - ux * vz;
+         out[oi+2] = ux * vy - uy * vx;
+      }
+   }
+
+   public static final class Mat3 {
+      public final float[] m = new float[9];
+
+      public Mat3() {
+         identity(m);
+      }
+
+      public Mat3 set(Matrix3x3 a) {
+         set(a, m);
+         return this;
+      }
+      public Mat3 set(Mat3 a) {
+         System.arraycopy(a.m, 0, m, 0, 9);
+         return this;
+      }
+      // The upper-left 3x3 of "a"
+      public Mat3 set(Matrix4x4 a) {
+         m[0] = a.xx;  m[3] = a.xy;  m[6] = a.xz;
+         m[1] = a.yx;  m[4] = a.yy;  m[7] = a.yz;
+         m[2] = a.zx;  m[5] = a.zy;  m[8] = a.zz;
+         return this;
+      }
+      // The upper-left 3x3 of "a"
+      public Mat3 set(Mat4 a) {
+         float[] b = a.m;
+         m[0] = b[0];  m[3] = b[4];  m[6] = b[8];
+         m[1] = b[1];  m[4] = b[5];  m[7] = b[9];
+         m[2] = b[2];  m[5] = b[6];  m[8] = b[10];
+         return this;
+      }
+      public Matrix3x3 toMatrix3x3() {
+         return new Matrix3x3(m[0], m[3], m[6],
+                              m[1], m[4], m[7],
+                              m[2], m[5], m[8]);
+      }
+      // this = a * b
+      public Mat3 mul(Mat3 a, Mat3 b) {
+         mul(a.m, b.m, m);
+         return this;
+      }
+      // this = the inverse of "a", returning false (and leaving this
+      // alone) if "a" is singular
+      public boolean invert(Mat3 a) {
+         return invert(a.m, m);
+      }
+
+      // ----- On float[9] storage -----
+
+      public static void identity(float[] out) {
+         out[0] = 1.0f;  out[3] = 0.0f;  out[6] = 0.0f;
+         out[1] = 0.0f;  out[4] = 1.0f;  out[7] = 0.0f;
+         out[2] = 0.0f;  out[5] = 0.0f;  out[8] = 1.0f;
+      }
+      public static void set(Matrix3x3 a, float[] out) {
+         out[0] = a.xx;  out[3] = a.xy;  out[6] = a.xz;
+         out[1] = a.yx;  out[4] = a.yy;  out[7] = a.yz;
+         out[2] = a.zx;  out[5] = a.zy;  out[8] = a.zz;
+      }
+      public static void mul(float[] a, float[] b, float[] out) {
+         float a0 = a[0], a1 = a[1], a2 = a[2],
+               a3 = a[3], a4 = a[4], a5 = a[5],
+               a6 = a[6], a7 = a[7], a8 = a[8];
+         for (int c = 0; c < 9; c += 3) {
+            float b0 = b[c], b1 = b[c+1], b2 = b[c+2];
+            out[c]   = a0 * b0 + a3 * b1 + a6 * b2;
+            out[c+1] = a1 * b0 + a4 * b1 + a7 * b2;
+            out[c+2] = a2 * b0 + a5 * b1 + a8 * b2;
+         }
+      }
+      public static boolean invert(float[] a, float[] out) {
+         float xx = a[0], yx = a[1], zx = a[2],
+               xy = a[3], yy = a[4], zy = a[5],
+               xz = a[6], yz = a[7], zz = a[8];
+         float cxx = yy * zz - zy * yz, cyx = zx * yz - yx * zz, czx = yx * zy - zx * yy;
+         float d = xx * cxx + xy * cyx + xz * czx;
+         if (d == 0.0f) return false;
+         float s = 1.0f / d;
+         out[0] = cxx * s;  out[3] = (zy * xz - xy * zz) * s;  out[6] = (xy * yz - yy * xz) * s;
+         out[1] = cyx * s;  out[4] = (xx * zz - zx * xz) * s;  out[7] = (yx * xz - xx * yz) * s;
+         out[2] = czx * s;  out[5] = (zx * xy - xx * zy) * s;  out[8] = (xx * yy - yx * xy) * s;
+         return true;
+      }
+      // The vector at vi of "v" times "m", into oi of "out"
+      public static void transform(float[] m, float[] v, int vi, float[] out, int oi) {
+         float x = v[vi], y = v[vi+1], z = v[vi+2];
+         out[oi]   = m[0] * x + m[3] * y + m[6] * z;
+         out[oi+1] = m[1] * x + m[4] * y + m[7] * z;
+         out[oi+2] = m[2] * x + m[5] * y + m[8] * z;
+      }
+      // The first "count" vectors (three floats each) of "src" into "dst"
+      public static void transform(float[] m, float[] src, float[] dst, int count) {
+         for (int i = 0; i < 3 * count; i += 3) {
+            transform(m, src, i, dst, i);
+         }
+      }
+   }
+
+   public static final class Mat4 {
+      public final float[] m = new float[16];
+
+      public Mat4() {
+         identity(m);
+      }
+
+      public Mat4 set(Matrix4x4 a) {
+         a.copyToFloatArray(m);
+         return this;
+      }
+      public Mat4 set(Mat4 a) {
+         System.arraycopy(a.m, 0, m, 0, 16);
+         return this;
+      }
+      public Matrix4x4 toMatrix4x4() {
+         return new Matrix4x4(m[0], m[4], m[8],  m[12],
+                              m[1], m[5], m[9],  m[13],
+                              m[2], m[6], m[10], m[14],
+                              m[3], m[7], m[11], m[15]);
+      }
+      // this = a * b
+      public Mat4 mul(Mat4 a, Mat4 b) {
+         mul(a.m, b.m, m);
+         return this;
+      }
+      // this = the inverse of "a", returning false (and leaving this
+      // alone) if "a" is singular
+      public boolean invert(Mat4 a) {
+         return invert(a.m, m);
+      }
+
+      // ----- On float[16] storage -----
+
+      public static void identity(float[] out) {
+         for (int i = 0; i < 16; ++i) {
+            out[i] = ((i % 5) == 0) ? 1.0f : 0.0f;
+         }
+      }
+      public static void mul(float[] a, float[] b, float[] out) {
+         float a0 = a[0], a1 = a[1], a2  = a[2],  a3  = a[3],
+               a4 = a[4], a5 = a[5], a6  = a[6],  a7  = a[7],
+               a8 = a[8], a9 = a[9], a10 = a[10], a11 = a[11],
+               a12 = a[12], a13 = a[13], a14 = a[14], a15 = a[15];
+         for (int c = 0; c < 16; c += 4) {
+            float b0 = b[c], b1 = b[c+1], b2 = b[c+2], b3 = b[c+3];
+            out[c]   = a0 * b0 + a4 * b1 + a8  * b2 + a12 * b3;
+            out[c+1] = a1 * b0 + a5 * b1 + a9  * b2 + a13 * b3;
+            out[c+2] = a2 * b0 + a6 * b1 + a10 * b2 + a14 * b3;
+            out[c+3] = a3 * b0 + a7 * b1 + a11 * b2 + a15 * b3;
+         }
+      }
+      // By cofactors, which (being the same for a matrix and its transpose)
+      // doesn't care which way round the storage is
+      public static boolean invert(float[] a, float[] out) {
+         float a0 = a[0], a1 = a[1], a2  = a[2],  a3  = a[3],
+               a4 = a[4], a5 = a[5], a6  = a[6],  a7  = a[7],
+               a8 = a[8], a9 = a[9], a10 = a[10], a11 = a[11],
+               a12 = a[12], a13 = a[13], a14 = a[14], a15 = a[15];
+
+         float s0 = a0 * a5 - a4 * a1,   s1 = a0 * a6 - a4 * a2,   s2 = a0 * a7 - a4 * a3;
+         float s3 = a1 * a6 - a5 * a2,   s4 = a1 * a7 - a5 * a3,   s5 = a2 * a7 - a6 * a3;
+         float c5 = a10 * a15 - a14 * a11, c4 = a9 * a15 - a13 * a11, c3 = a9 * a14 - a13 * a10;
+         float c2 = a8 * a15 - a12 * a11,  c1 = a8 * a14 - a12 * a10, c0 = a8 * a13 - a12 * a9;
+
+         float d = s0 * c5 - s1 * c4 + s2 * c3 + s3 * c2 - s4 * c1 + s5 * c0;
+         if (d == 0.0f) return false;
+         float s = 1.0f / d;
+
+         out[0]  = ( a5 * c5 - a6 * c4 + a7 * c3) * s;
+         out[1]  = (-a1 * c5 + a2 * c4 - a3 * c3) * s;
+         out[2]  = ( a13 * s5 - a14 * s4 + a15 * s3) * s;
+         out[3]  = (-a9 * s5 + a10 * s4 - a11 * s3) * s;
+
+         out[4]  = (-a4 * c5 + a6 * c2 - a7 * c1) * s;
+         out[5]  = ( a0 * c5 - a2 * c2 + a3 * c1) * s;
+         out[6]  = (-a12 * s5 + a14 * s2 - a15 * s1) * s;
+         out[7]  = ( a8 * s5 - a10 * s2 + a11 * s1) * s;
+
+         out[8]  = ( a4 * c4 - a5 * c2 + a7 * c0) * s;
+         out[9]  = (-a0 * c4 + a1 * c2 - a3 * c0) * s;
+         out[10] = ( a12 * s4 - a13 * s2 + a15 * s0) * s;
+         out[11] = (-a8 * s4 + a9 * s2 - a11 * s0) * s;
+
+         out[12] = (-a4 * c3 + a5 * c1 - a6 * c0) * s;
+         out[13] = ( a0 * c3 - a1 * c1 + a2 * c0) * s;
+         out[14] = (-a12 * s3 + a13 * s1 - a14 * s0) * s;
+         out[15] = ( a8 * s3 - a9 * s1 + a10 * s0) * s;
+         return true;
+      }
+      // The point at pi of "p" (with w = 1) times "m", into oi of "out",
+      // dropping the w it ends up with
+      public static void transformPoint(float[] m, float[] p, int pi, float[] out, int oi) {
+         float x = p[pi], y = p[pi+1], z = p[pi+2];
+         out[oi]   = m[0] * x + m[4] * y + m[8]  * z + m[12];
+         out[oi+1] = m[1] * x + m[5] * y + m[9]  * z + m[13];
+         out[oi+2] = m[2] * x + m[6] * y + m[10] * z + m[14];
+      }
+      // The direction at vi of "v" (with w = 0) times "m", into oi of "out"
+      public static void transformVector(float[] m, float[] v, int vi, float[] out, int oi) {
+         float x = v[vi], y = v[vi+1], z = v[vi+2];
+         out[oi]   = m[0] * x + m[4] * y + m[8]  * z;
+         out[oi+1] = m[1] * x + m[5] * y + m[9]  * z;
+         out[oi+2] = m[2] * x + m[6] * y + m[10] * z;
+      }
+      // The first "count" points (three floats each) of "src" into "dst"
+      public static void transformPoints(float[] m, float[] src, float[] dst, int count) {
+         float m0 = m[0], m1 = m[1], m2  = m[2],
+               m4 = m[4], m5 = m[5], m6  = m[6],
+               m8 = m[8], m9 = m[9], m10 = m[10],
+               m12 = m[12], m13 = m[13], m14 = m[14];
+         for (int i = 0; i < 3 * count; i += 3) {
+            float x = src[i], y = src[i+1], z = src[i+2];
+            dst[i]   = m0 * x + m4 * y + m8  * z + m12;
+            dst[i+1] = m1 * x + m5 * y + m9  * z + m13;
+            dst[i+2] = m2 * x + m6 * y + m10 * z + m14;
+         }
+      }
+      // The first "count" directions (three floats each) of "src" into "dst"
+      public static void transformVectors(float[] m, float[] src, float[] dst, int count) {
+         float m0 = m[0], m1 = m[1], m2  = m[2],
+               m4 = m[4], m5 = m[5], m6  = m[6],
+               m8 = m[8], m9 = m[9], m10 = m[10];
+         for (int i = 0; i < 3 * count; i += 3) {
+            float x = src[i], y = src[i+1], z = src[i+2];
+            dst[i]   = m0 * x + m4 * y + m8  * z;
+            dst[i+1] = m1 * x + m5 * y + m9  * z;
+            dst[i+2] = m2 * x + m6 * y + m10 * z;
+         }
+      }
+   }
+   
    // -----------------------------------------------------------------------
    // TODO: 
    // These 3D Geometry things should be in the "Geometry" file...
@@ -798,95 +1172,341 @@ public class Algebra {
          return values.length;
       }
    }
+   // A SparseMatrix is stored in "compressed sparse row" form: the nonzero
+   // elements of row r are at positions rowStarts[r] to rowStarts[r+1]-1 of
+   // "columns" and "values", in order of column.  Multiplying a vector walks
+   // those three arrays straight through, and any row (or run of rows) is
+   // a slice of them.
+   //
+   // A SparseMatrix can't be changed once it's built, so the arrays are
+   // only read through "rowStart", "column" and "value", and whatever is
+   // worked out from them (the chunks, the factorization) stays right.
+   // To make one, add (row, col, value) triplets to a Builder in any
+   // order, and then "build" it, which sorts them once, summing any
+   // duplicates.
    public static class SparseMatrix {
-      int numRows;
-      int numCols;
-      ArrayList<NonzeroElement> nonzeroElements;
-      
-      public static class NonzeroElement {
-         double value;
-         int row;
-         int col;
-      }
-      
-      SparseMatrix(int numRows, int numCols) {
+      public final int numRows;
+      public final int numCols;
+      private final int[] rowStarts;
+      private final int[] columns;
+      private final double[] values;
+
+      private SparseMatrix(int numRows, int numCols, int[] rowStarts, int[] columns, double[] values) {
          this.numRows = numRows;
          this.numCols = numCols;
-         nonzeroElements = new ArrayList<NonzeroElement>();
+         this.rowStarts = rowStarts;
+         this.columns = columns;
+         this.values = values;
+         this.chunkRows = (numNonzeros() < PARALLEL_NONZEROS) ? null : chunkRows();
+      }
+
+      // The nonzeros of "row" are at rowStart(row) to rowStart(row+1)-1
+      public int rowStart(int row) {
+         return rowStarts[row];
+      }
+      public int column(int i) {
+         return columns[i];
       }
-      double get(int row, int col) {
-         for (NonzeroElement nonzeroElement : nonzeroElements) {
-            if ((nonzeroElement.row == row) && (nonzeroElement.col == col)) {
-               return nonzeroElement.value;
+      public double value(int i) {
+         return values[i];
+      }
+      // Where the element at (row, col) is among the nonzeros, or a
+      // negative number if it's zero
+      public int find(int row, int col) {
+         return Arrays.binarySearch(columns, rowStarts[row], rowStarts[row + 1], col);
+      }
+      // A copy of every nonzero value, in order
+      public double[] copyValues() {
+         return values.clone();
+      }
+      // Whether "a" has its nonzeros in exactly the same places
+      public boolean samePattern(SparseMatrix a) {
+         return (a == this) ||
+                ((a.numRows == numRows) && (a.numCols == numCols) &&
+                 Arrays.equals(a.rowStarts, rowStarts) &&
+                 Arrays.equals(a.columns, columns));
+      }
+
+      public static class Builder {
+         public final int numRows;
+         public final int numCols;
+
+         public Builder(int numRows, int numCols) {
+            this.numRows = numRows;
+            this.numCols = numCols;
+            rows = new int[16];
+            cols = new int[16];
+            vals = new double[16];
+         }
+
+         // Adds "value" to the element at (row, col)
+         public void add(int row, int col, double value) {
+            if ((row < 0) || (row >= numRows) || (col < 0) || (col >= numCols)) {
+               throw new RuntimeException(String.format("Element (%d,%d) outside %d x %d sparse matrix",
+                     row, col, numRows, numCols));
             }
+            if (size == rows.length) {
+               int capacity = 2 * size;
+               rows = Arrays.copyOf(rows, capacity);
+               cols = Arrays.copyOf(cols, capacity);
+               vals = Arrays.copyOf(vals, capacity);
+            }
+            rows[size] = row;
+            cols[size] = col;
+            vals[size] = value;
+            size++;
          }
-         return 0.0;
-      }
-      void set(int row, int col, double value) {
-         for (NonzeroElement nonzeroElement : nonzeroElements) {
-            if ((nonzeroElement.row == row) && (nonzeroElement.col == col)) {
-               nonzeroElement.value = value;
+         public int size() {
+            return size;
+         }
+
+         public SparseMatrix build() {
+            // A counting sort of the triplets into rows..
+            int[] rowStarts = new int[numRows + 1];
+            for (int i = 0; i < size; ++i) {
+               rowStarts[rows[i] + 1]++;
+            }
+            for (int row = 0; row < numRows; ++row) {
+               rowStarts[row + 1] += rowStarts[row];
+            }
+            int[] columns = new int[size];
+            double[] values = new double[size];
+            int[] next = Arrays.copyOf(rowStarts, numRows);
+            for (int i = 0; i < size; ++i) {
+               int j = next[rows[i]]++;
+               columns[j] = cols[i];
+               values[j] = vals[i];
+            }
+            // ..then each row into column order, squeezing out duplicates
+            int numNonzeros = 0;
+            for (int row = 0; row < numRows; ++row) {
+               int start = rowStarts[row];
+               int end = rowStarts[row + 1];
+               sortRow(columns, values, start, end);
+               rowStarts[row] = numNonzeros;
+               for (int i = start; i < end; ++i) {
+                  if ((numNonzeros > rowStarts[row]) && (columns[numNonzeros - 1] == columns[i])) {
+                     values[numNonzeros - 1] += values[i];
+                  } else {
+                     columns[numNonzeros] = columns[i];
+                     values[numNonzeros] = values[i];
+                     numNonzeros++;
+                  }
+               }
+            }
+            rowStarts[numRows] = numNonzeros;
+            if (numNonzeros < size) {
+               columns = Arrays.copyOf(columns, numNonzeros);
+               values = Arrays.copyOf(values, numNonzeros);
             }
+            return new SparseMatrix(numRows, numCols, rowStarts, columns, values);
          }
-         NonzeroElement nnz = new NonzeroElement();
-         nonzeroElements.add(nnz);
-         nnz.value = value;
-         nnz.row = row;
-         nnz.col = col;
+
+         private int size;
+         private int[] rows;
+         private int[] cols;
+         private double[] vals;
+
+         // Rows in a mesh matrix are short, insertion sort is quickest for
+         // those, but a long one mustn't go quadratic
+         private static void sortRow(int[] columns, double[] values, int start, int end) {
+            if (end - start <= 32) {
+               for (int i = start + 1; i < end; ++i) {
+                  int col = columns[i];
+                  double value = values[i];
+                  int j = i - 1;
+                  while ((j >= start) && (columns[j] > col)) {
+                     columns[j + 1] = columns[j];
+                     values[j + 1] = values[j];
+                     --j;
+                  }
+                  columns[j + 1] = col;
+                  values[j + 1] = value;
+               }
+               return;
+            }
+            long[] keys = new long[end - start];
+            for (int i = start; i < end; ++i) {
+               keys[i - start] = ((long) columns[i] << 32) | (i - start);
+            }
+            Arrays.sort(keys);
+            double[] sorted = new double[end - start];
+            for (int i = 0; i < keys.length; ++i) {
+               columns[start + i] = (int) (keys[i] >>> 32);
+               sorted[i] = values[start + (int) keys[i]];
+            }
+            System.arraycopy(sorted, 0, values, start, sorted.length);
+         }
+      }
+
+      public int numNonzeros() {
+         return rowStarts[numRows];
       }
-      Vector multiply(Vector v) {
+      public double get(int row, int col) {
+         int i = find(row, col);
+         return (i >= 0) ? values[i] : 0.0;
+      }
+
+      public Vector multiply(Vector v) {
          if (v.values.length != numCols) {
             throw new RuntimeException(String.format("%d x %d sparse matrix multiplying %d vector",
                   numRows, numCols, v.values.length));
          }
          Vector result = new Vector(numRows);
-         for (NonzeroElement nonzeroElement : nonzeroElements) {
-            result.values[nonzeroElement.row] += nonzeroElement.value * v.values[nonzeroElement.col];
-         }
+         multiply(v.values, result.values);
          return result;
       }
-      Vector solve(Vector b) {
+      // Matrices with fewer nonzeros than this are multiplied on the
+      // calling thread, bigger ones in parallel on the common fork/join
+      // pool, in runs of rows with about NONZEROS_PER_CHUNK nonzeros each
+      public static final int PARALLEL_NONZEROS = 1 << 16;
+      public static final int NONZEROS_PER_CHUNK = 1 << 14;
+
+      // result = this * x, without allocating anything
+      public void multiply(double[] x, double[] result) {
+         multiply(x, result, false);
+      }
+      // result = this * x, returning x . result, for a square matrix
+      public double multiplyDot(double[] x, double[] result) {
          if (numRows != numCols) {
-            throw new RuntimeException(String.format("%d x %d sparse matrix cant solve nonsquare",
+            throw new RuntimeException(String.format("%d x %d sparse matrix cant dot nonsquare product",
                   numRows, numCols));
          }
+         return multiply(x, result, true);
+      }
+
+      public SparseMatrix transpose() {
+         int numNonzeros = numNonzeros();
+         int[] tRowStarts = new int[numCols + 1];
+         for (int i = 0; i < numNonzeros; ++i) {
+            tRowStarts[columns[i] + 1]++;
+         }
+         for (int col = 0; col < numCols; ++col) {
+            tRowStarts[col + 1] += tRowStarts[col];
+         }
+         int[] tColumns = new int[numNonzeros];
+         double[] tValues = new double[numNonzeros];
+         int[] next = Arrays.copyOf(tRowStarts, numCols);
+         // Going through the rows in order leaves every new row in order
+         for (int row = 0; row < numRows; ++row) {
+            for (int i = rowStarts[row]; i < rowStarts[row + 1]; ++i) {
+               int j = next[columns[i]]++;
+               tColumns[j] = row;
+               tValues[j] = values[i];
+            }
+         }
+         return new SparseMatrix(numCols, numRows, tRowStarts, tColumns, tValues);
+      }
+
+      // The rows from firstRow up to (not including) lastRow, as a matrix
+      // of their own with the same columns
+      public SparseMatrix rows(int firstRow, int lastRow) {
+         if ((firstRow < 0) || (lastRow > numRows) || (firstRow > lastRow)) {
+            throw new RuntimeException(String.format("Rows %d to %d of %d x %d sparse matrix",
+                  firstRow, lastRow, numRows, numCols));
+         }
+         int first = rowStarts[firstRow];
+         int last = rowStarts[lastRow];
+         int[] sliceRowStarts = new int[lastRow - firstRow + 1];
+         for (int row = firstRow; row <= lastRow; ++row) {
+            sliceRowStarts[row - firstRow] = rowStarts[row] - first;
+         }
+         return new SparseMatrix(lastRow - firstRow, numCols, sliceRowStarts,
+               Arrays.copyOfRange(columns, first, last), Arrays.copyOfRange(values, first, last));
+      }
+
+      // Solves A x = b exactly, by the SparseLU "factorization".  Use a
+      // SparseSolver instead to iterate from a starting guess.
+      public Vector solve(Vector b) {
          if (b.values.length != numCols) {
             throw new RuntimeException(String.format("%d x %d sparse matrix solve given %d length b-vector",
                   numRows, numCols, b.values.length));
          }
-         Vector x = new Vector(numRows);
-         /*
-         for (int i = 0; i < x.values.length; ++i) {
-            x.values[i] = 0.5f;
+         return factorization().solve(b);
+      }
+
+      // The LU factors of this matrix, worked out the first time they're
+      // asked for and kept, since a SparseMatrix never changes.  Every
+      // solve after the first is just two triangular sweeps.
+      public synchronized SparseLU factorization() {
+         if (factorization == null) factorization = new SparseLU(this);
+         return factorization;
+      }
+      private SparseLU factorization;
+
+      // The first row of each chunk, and numRows at the end, or null if
+      // the matrix is small enough to multiply on the calling thread
+      private final int[] chunkRows;
+
+      // Chunk c starts at the first row starting at or after its share
+      // of the nonzeros
+      private int[] chunkRows() {
+         int numChunks = (numNonzeros() + NONZEROS_PER_CHUNK - 1) / NONZEROS_PER_CHUNK;
+         int[] rows = new int[numChunks + 1];
+         for (int c = 1; c < numChunks; ++c) {
+            long target = (long) numNonzeros() * c / numChunks;
+            int i = Arrays.binarySearch(rowStarts, 0, numRows, (int) target);
+            if (i < 0) i = -i - 1;
+            while ((i > 0) && (rowStarts[i - 1] == target)) --i;
+            rows[c] = Math.max(i, rows[c - 1]);
          }
-         */
-         System.out.format("Low Level SOLVER started on a [%d x %d] matrix with %d non-zero elements \n", 
-               numRows, numCols, nonzeroElements.size());
-         long startTime = System.currentTimeMillis();
+         rows[numChunks] = numRows;
+         return rows;
+      }
 
-         int maxIterations = 50000;
-         double eps = 0.0000003;
-         
-         int iteration = 0;
-         double diff = 1.0;
-         while ((diff > eps) && (iteration < maxIterations)) {
-           Vector Ax = multiply(x);
-           diff = Ax.dist(b);
-           //System.out.format("Iteration %d -- %g error\n", iteration++, diff);
-
-           for (int i = 0; i < x.values.length; ++i) {
-              x.values[i] += 1.0*(b.values[i] - Ax.values[i]);
-           }
-           iteration++;
+      private double multiply(double[] x, double[] result, boolean dot) {
+         if ((x.length != numCols) || (result.length != numRows)) {
+            throw new RuntimeException(String.format("%d x %d sparse matrix multiplying %d vector into %d",
+                  numRows, numCols, x.length, result.length));
          }
-         if (iteration == maxIterations) {
-            throw new RuntimeException(String.format("Didn't achieve conergence!  After %d iters diff is still %g!", iteration, diff));
+         if (chunkRows == null) {
+            return multiplyRows(0, numRows, x, result, dot);
          }
-         
-         long endTime = System.currentTimeMillis();
-         System.out.format("Low Level SOLVER done, did %d iterations in %d ms\n", iteration, endTime-startTime);
+         MultiplyTask task = new MultiplyTask(this, 0, chunkRows.length - 1, x, result, dot);
+         task.invoke();
+         return task.sum;
+      }
+      private double multiplyRows(int firstRow, int lastRow, double[] x, double[] result, boolean dot) {
+         double dotSum = 0.0;
+         for (int row = firstRow; row < lastRow; ++row) {
+            double sum = 0.0;
+            for (int i = rowStarts[row]; i < rowStarts[row + 1]; ++i) {
+               sum += values[i] * x[columns[i]];
+            }
+            result[row] = sum;
+            if (dot) dotSum += x[row] * sum;
+         }
+         return dotSum;
+      }
+      private static class MultiplyTask extends RecursiveAction {
+         private static final long serialVersionUID = 1L;
+
+         private final SparseMatrix matrix;
+         private final int firstChunk, lastChunk;
+         private final double[] x, result;
+         private final boolean dot;
+         private double sum;
 
-         return x;
+         MultiplyTask(SparseMatrix matrix, int firstChunk, int lastChunk,
+                      double[] x, double[] result, boolean dot) {
+            this.matrix = matrix;
+            this.firstChunk = firstChunk;
+            this.lastChunk = lastChunk;
+            this.x = x;
+            this.result = result;
+            this.dot = dot;
+         }
+         protected void compute() {
+            if (lastChunk - firstChunk > 1) {
+               int middle = (firstChunk + lastChunk) >>> 1;
+               MultiplyTask a = new MultiplyTask(matrix, firstChunk, middle, x, result, dot);
+               MultiplyTask b = new MultiplyTask(matrix, middle, lastChunk, x, result, dot);
+               invokeAll(a, b);
+               sum = a.sum + b.sum;
+               return;
+            }
+            sum = matrix.multiplyRows(matrix.chunkRows[firstChunk], matrix.chunkRows[lastChunk], x, result, dot);
+         }
       }
    }
    
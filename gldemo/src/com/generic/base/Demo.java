@@ -1,5 +1,6 @@
 package com.generic.base;
 
+import com.generic.base.Algebra.Vec3;
 import com.generic.base.Algebra.Vector3;
 import com.generic.base.Image.Position;
 
@@ -102,6 +103,10 @@ public class Demo {
    private int normalsId;
    private int baryCoordsId;
    
+   // The baryCoords of a triangle's 3 vertices, the same for every triangle
+   private static final float[] TRIANGLE_BARY_COORDS = { 1.0f, 0.0f, 0.0f,
+                                                         0.0f, 1.0f, 0.0f,
+                                                         0.0f, 0.0f, 1.0f };
    
    private void initGraphics3D () {
       graphics = new Graphics3D();
@@ -170,33 +175,31 @@ public class Demo {
               //     edgeT0inFace -- describes edge from vertexT to vertex0
               //   vertex0
               // -----------------------------
-              Vector3 vertex0Pos = Vector3.fromFloatArray(meshPositionsArray, 3 * vertex0);
-              Vector3 vertexSPos = Vector3.fromFloatArray(meshPositionsArray, 3 * vertexS);
-              Vector3 vertexTPos = Vector3.fromFloatArray(meshPositionsArray, 3 * vertexT);
+              // (all straight between the float arrays with the Vec3
+              // kernels, there are too many triangles to make Vector3s for)
 
-              // copy 3 vector3's into positionsArray
-              vertex0Pos.copyToFloatArray(positionsArray, 3*p++);
-              vertexSPos.copyToFloatArray(positionsArray, 3*p++);
-              vertexTPos.copyToFloatArray(positionsArray, 3*p++);
+              // copy the 3 positions into positionsArray
+              int first = 3*p;
+              System.arraycopy(meshPositionsArray, 3 * vertex0, positionsArray, 3*p++, 3);
+              System.arraycopy(meshPositionsArray, 3 * vertexS, positionsArray, 3*p++, 3);
+              System.arraycopy(meshPositionsArray, 3 * vertexT, positionsArray, 3*p++, 3);
                
               // -----------------------------
               // normal
               // -----------------------------               
-              Vector3 normal = Vector3.crossProduct(
-                    vertexSPos.minus(vertex0Pos),
-                    vertexTPos.minus(vertex0Pos)).normalized();
+              int normal = 3*n++;
+              Vec3.triangleNormal(positionsArray, first, first + 3, first + 6, normalsArray, normal);
+              Vec3.normalize(normalsArray, normal, normalsArray, normal);
                
-              // copy the same normal 3 times into normalArray
-              normal.copyToFloatArray(normalsArray, 3*n++);
-              normal.copyToFloatArray(normalsArray, 3*n++);
-              normal.copyToFloatArray(normalsArray, 3*n++);
+              // copy the same normal 2 more times into normalArray
+              System.arraycopy(normalsArray, normal, normalsArray, 3*n++, 3);
+              System.arraycopy(normalsArray, normal, normalsArray, 3*n++, 3);
                
               // -----------------------------
               // baryCoords
               // -----------------------------               
-              (Vector3.of(1.0f, 0.0f, 0.0f)).copyToFloatArray(baryCoordsArray, 3*b++);
-              (Vector3.of(0.0f, 1.0f, 0.0f)).copyToFloatArray(baryCoordsArray, 3*b++);
-              (Vector3.of(0.0f, 0.0f, 1.0f)).copyToFloatArray(baryCoordsArray, 3*b++);
+              System.arraycopy(TRIANGLE_BARY_COORDS, 0, baryCoordsArray, 3*b, 9);
+              b += 3;
                
               // -----------------------------               
               if (edgeT0inFace) break;
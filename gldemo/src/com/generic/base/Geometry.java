@@ -29,6 +29,7 @@ public class Geometry {
       public void updateMesh(Mesh mesh) {
          Mesh oldMesh = this.mesh;
          this.mesh = mesh;
+         bvh = null;
          if (oldMesh != null) {
             this.mesh.copyFrom(oldMesh);
          }
@@ -87,6 +88,28 @@ public class Geometry {
          buffers.put(key, buffer);
       }
       private HashMap<String,Shader.ManagedBuffer> buffers;
+      
+      // ------------------------------------------------------------------------
+      // Picking
+      // ------------------------------------------------------------------------
+      
+      // A MeshBVH over "mesh", built the first time it's needed and refit
+      // (lazily, at the next call) after "positionsModified"
+      public MeshBVH getBVH() {
+         if ((bvh == null) || (bvh.numTriangles() != mesh.triangles.size())) {
+            bvh = new MeshBVH(mesh);
+            bvhNeedsRefit = false;
+         } else if (bvhNeedsRefit) {
+            bvh.refit();
+            bvhNeedsRefit = false;
+         }
+         return bvh;
+      }
+      public void positionsModified() {
+         bvhNeedsRefit = true;
+      }
+      private MeshBVH bvh;
+      private boolean bvhNeedsRefit;
    }
    
 
@@ -137,9 +160,9 @@ public class Geometry {
          @Override public void fillBuffer(float[] array) {
             int pPos = 0;
             for (Mesh.Triangle t : mesh.triangles) {
-               pPos = Vector4.fromVector3f(t.vertices[0].getPosition()).copyToFloatArray(array, pPos);
-               pPos = Vector4.fromVector3f(t.vertices[1].getPosition()).copyToFloatArray(array, pPos);
-               pPos = Vector4.fromVector3f(t.vertices[2].getPosition()).copyToFloatArray(array, pPos);
+               pPos = copyPointToFloatArray(t.vertices[0].getPosition(), array, pPos);
+               pPos = copyPointToFloatArray(t.vertices[1].getPosition(), array, pPos);
+               pPos = copyPointToFloatArray(t.vertices[2].getPosition(), array, pPos);
             }
          }
       };
@@ -167,9 +190,9 @@ public class Geometry {
             int pPos = 0;
             for (Mesh.Triangle t : mesh.triangles) {
                Vector3 pos = t.vertices[index].getPosition();
-               pPos = Vector4.fromVector3f(pos).copyToFloatArray(array, pPos);
-               pPos = Vector4.fromVector3f(pos).copyToFloatArray(array, pPos);
-               pPos = Vector4.fromVector3f(pos).copyToFloatArray(array, pPos);
+               pPos = copyPointToFloatArray(pos, array, pPos);
+               pPos = copyPointToFloatArray(pos, array, pPos);
+               pPos = copyPointToFloatArray(pos, array, pPos);
             }
          }
       };
@@ -180,14 +203,26 @@ public class Geometry {
          @Override public int getNumElements() { return mesh.triangles.size() * 3; }
          @Override public void fillBuffer(float[] array) {
             int pPos = 0;
-            for (Mesh.Triangle tb : mesh.triangles) {
-               pPos = (new Vector3(1.0f, 0.0f, 0.0f)).copyToFloatArray(array, pPos);
-               pPos = (new Vector3(0.0f, 1.0f, 0.0f)).copyToFloatArray(array, pPos);
-               pPos = (new Vector3(0.0f, 0.0f, 1.0f)).copyToFloatArray(array, pPos);
+            for (int i = 0; i < mesh.triangles.size(); ++i) {
+               System.arraycopy(BARY_COORDS, 0, array, pPos, 9);
+               pPos += 9;
             }
          }
       };
    }
+   private static final float[] BARY_COORDS = { 1.0f, 0.0f, 0.0f,
+                                                0.0f, 1.0f, 0.0f,
+                                                0.0f, 0.0f, 1.0f };
+
+   // Writes (p.x, p.y, p.z, 1) at "pos", like Vector4.fromVector3f(p)
+   // .copyToFloatArray but without making a Vector4 per vertex
+   private static int copyPointToFloatArray(Vector3 p, float[] array, int pos) {
+      array[pos]   = p.x;
+      array[pos+1] = p.y;
+      array[pos+2] = p.z;
+      array[pos+3] = 1.0f;
+      return pos + 4;
+   }
    
    // TOOD:  It sure looks like no-one's using this..
    
@@ -840,6 +875,7 @@ public class Geometry {
       model.getManagedBuffer(Shader.V0POS_ARRAY).setModified(true);
       model.getManagedBuffer(Shader.V1POS_ARRAY).setModified(true);
       model.getManagedBuffer(Shader.V2POS_ARRAY).setModified(true);
+      model.positionsModified();
    }
    
 }
@@ -2,6 +2,8 @@ package com.generic.base;
 
 import com.generic.base.Algebra.Vector3;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -792,35 +794,28 @@ public class Mesh {
    // --------------------------------------------------------
 
    public void loadFromString(String serialized) {
+      loadFromObj(ObjReader.read(ByteBuffer.wrap(serialized.getBytes(StandardCharsets.US_ASCII))), 60.0f);
+   }
+   
+   // Faces with more than 3 vertices are fanned out into triangles
+   public void loadFromObj(ObjReader obj, float scale) {
       clear();
-
-      for (String line : serialized.split("\n")) {
-         if (line.charAt(0) == '#') {
-            continue;
-         }
-         if (line.charAt(0) == 'v') {
-            String restOfLine = line.substring(2);
-            String[] pieces = restOfLine.split(" ");
-            if (pieces.length == 3) {
-               Mesh.Vertex v = addVertex();
-               v.setPosition(new Vector3(Float.valueOf(pieces[0]), Float.valueOf(pieces[1]), Float.valueOf(pieces[2])).times(60.0f));
-            }            
-            continue;
-         }
-         if (line.charAt(0) == 'f') {
-            String restOfLine = line.substring(2);
-            String[] pieces = restOfLine.split(" ");
-            if (pieces.length == 3) {
-               int v0 = Integer.valueOf(pieces[0])-1;
-               int v1 = Integer.valueOf(pieces[1])-1;
-               int v2 = Integer.valueOf(pieces[2])-1;
-               //System.out.format("Triangle %d,%d,%d\n", v0,v1,v2);
-               addTriangle(vertices.get(v0),vertices.get(v1),vertices.get(v2));
-            }
-            continue;
+      
+      float[] positions = obj.positions;
+      for (int i = 0; i < obj.numVertices(); ++i) {
+         Mesh.Vertex v = addVertex();
+         v.setPosition(new Vector3(positions[3*i+0], positions[3*i+1], positions[3*i+2]).times(scale));
+      }
+      int corner = 0;
+      for (int faceSize : obj.faceSizes) {
+         Vertex v0 = vertices.get(obj.faceVertices[corner]);
+         for (int i = 1; i < faceSize - 1; ++i) {
+            addTriangle(v0, vertices.get(obj.faceVertices[corner + i]),
+                            vertices.get(obj.faceVertices[corner + i + 1]));
          }
-      }  
-   }   
+         corner += faceSize;
+      }
+   }
    
 
    // --------------------------------------------------------
@@ -1,17 +1,18 @@
 package com.generic.base;
 
-import com.generic.base.Algebra.Vector3;
-
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.PrimitiveIterator;
 import java.util.Set;
+import java.util.function.IntConsumer;
 
 
 public class Mesh2 {
@@ -195,17 +196,173 @@ public class Mesh2 {
    // a face (revealing if the face is a triangle or a quad or a pentagon, etc)
    
    public int numEdgesForVertex (int vertex) {
-      return countIterator(outgoingEdges(vertex).iterator());
+      return countLoop(Sequence.OUTGOING_EDGES, outgoingEdgeForVertex(vertex));
    }   
    public int numEdgesForFace (int face) {
-      return countIterator(directedEdgesOfFace(face).iterator());
+      return countLoop(Sequence.FACE_LOOP, directedEdgeForFace(face));
    }   
-   private int countIterator (Iterator<?> it) {
+   private int countLoop (Sequence sequence, int firstID) {
+      if (firstID < 0) return 0;
       int count = 0;
-      while (it.hasNext()) count++;
+      int id = firstID;
+      do {
+         count++;
+         id = nextInSequence(sequence, id);
+      } while (id != firstID);
       return count;
    }
 
+
+   // ==================================================================
+   // Allocation-free traversal.
+   // ==================================================================
+
+   // The Iterables above box every ID into an Integer and allocate an
+   // Iterator per loop.  These methods visit the same IDs as plain ints:
+   
+   public void forEachVertex (IntConsumer action) {
+      forEachWithGaps(Sequence.VERTICES, numVertexIDs(), action);
+   }
+   public void forEachFace (IntConsumer action) {
+      forEachWithGaps(Sequence.FACES, numFaceIDs(), action);
+   }
+   public void forEachEdge (IntConsumer action) {
+      forEachWithGaps(Sequence.EDGES, numEdgeIDs(), action);
+   }
+   public void forEachDirectedEdgeOfFace (int face, IntConsumer action) {
+      forEachInLoop(Sequence.FACE_LOOP, directedEdgeForFace(face), action);
+   }
+   public void forEachOutgoingEdge (int vertex, IntConsumer action) {
+      forEachInLoop(Sequence.OUTGOING_EDGES, outgoingEdgeForVertex(vertex), action);
+   }
+   public void forEachIncomingEdge (int vertex, IntConsumer action) {
+      forEachInLoop(Sequence.INCOMING_EDGES, opposite(outgoingEdgeForVertex(vertex)), action);
+   }
+   
+   private void forEachWithGaps (Sequence sequence, int maxID, IntConsumer action) {
+      for (int id = 0; id < maxID; ++id) {
+         if (isValidInSequence(sequence, id)) action.accept(id);
+      }
+   }
+   private void forEachInLoop (Sequence sequence, int firstID, IntConsumer action) {
+      if (firstID < 0) return;
+      int id = firstID;
+      do {
+         action.accept(id);
+         id = nextInSequence(sequence, id);
+      } while (id != firstID);
+   }
+   
+   // A Cursor is a resettable iterator over int IDs.  One Cursor can be
+   // pointed at each of the sequences above in turn, so a traversal like
+   //
+   //    Mesh2.Cursor faces = mesh.newCursor();
+   //    Mesh2.Cursor edges = mesh.newCursor();
+   //    for (faces.overFaces(); faces.hasNext(); ) {
+   //       int face = faces.nextInt();
+   //       for (edges.overDirectedEdgesOfFace(face); edges.hasNext(); ) {
+   //          int directedEdge = edges.nextInt();
+   //          ...
+   //       }
+   //    }
+   //
+   // allocates nothing once its two Cursors exist.
+   
+   public Cursor newCursor() {
+      return new Cursor();
+   }
+   
+   public final class Cursor implements PrimitiveIterator.OfInt {
+      private Sequence sequence;
+      private int maxID;
+      private int firstID;
+      private int id;
+      
+      private Cursor() {
+         id = -1;
+      }
+      
+      public Cursor overVertices() {
+         return resetWithGaps(Sequence.VERTICES, numVertexIDs());
+      }
+      public Cursor overFaces() {
+         return resetWithGaps(Sequence.FACES, numFaceIDs());
+      }
+      public Cursor overEdges() {
+         return resetWithGaps(Sequence.EDGES, numEdgeIDs());
+      }
+      public Cursor overDirectedEdgesOfFace(int face) {
+         return resetInLoop(Sequence.FACE_LOOP, directedEdgeForFace(face));
+      }
+      public Cursor overOutgoingEdges(int vertex) {
+         return resetInLoop(Sequence.OUTGOING_EDGES, outgoingEdgeForVertex(vertex));
+      }
+      public Cursor overIncomingEdges(int vertex) {
+         return resetInLoop(Sequence.INCOMING_EDGES, opposite(outgoingEdgeForVertex(vertex)));
+      }
+      
+      public boolean hasNext() {
+         return (id >= 0);
+      }
+      public int nextInt() {
+         if (id < 0) throw new NoSuchElementException();
+         int result = id;
+         if (sequence.hasGaps) {
+            id = nextValidID(id + 1);
+         } else {
+            id = nextInSequence(sequence, id);
+            if (id == firstID) id = -1;
+         }
+         return result;
+      }
+      
+      // - - - - - - - - - - - - - 
+      private Cursor resetWithGaps(Sequence sequence, int maxID) {
+         this.sequence = sequence;
+         this.maxID = maxID;
+         this.id = nextValidID(0);
+         return this;
+      }
+      private Cursor resetInLoop(Sequence sequence, int firstID) {
+         this.sequence = sequence;
+         this.firstID = firstID;
+         this.id = (firstID < 0) ? -1 : firstID;
+         return this;
+      }
+      private int nextValidID(int id) {
+         while ((id < maxID) && !isValidInSequence(sequence, id)) id++;
+         return (id < maxID) ? id : -1;
+      }
+   }
+   
+   // The six sequences a Cursor can walk.  The first three run over ID ranges,
+   // skipping unused IDs;  the last three follow a loop of directed-edges.
+   private enum Sequence {
+      VERTICES(true), FACES(true), EDGES(true),
+      FACE_LOOP(false), OUTGOING_EDGES(false), INCOMING_EDGES(false);
+      
+      final boolean hasGaps;
+      Sequence(boolean hasGaps) {
+         this.hasGaps = hasGaps;
+      }
+   }
+   private boolean isValidInSequence (Sequence sequence, int id) {
+      switch (sequence) {
+         case VERTICES: return isVertexInMesh(id);
+         case FACES:    return isFaceInMesh(id);
+         case EDGES:    return isEdgeInMesh(id);
+         default:       return true;
+      }
+   }
+   private int nextInSequence (Sequence sequence, int id) {
+      switch (sequence) {
+         case FACE_LOOP:      return nextInLoop(id);
+         case OUTGOING_EDGES: return nextAroundStart(id);
+         case INCOMING_EDGES: return nextAroundEnd(id);
+         default:             return id + 1;
+      }
+   }
+
    
    // ==================================================================
    // The Mesh keeps track of how many triangles are used by the entire mesh.
@@ -225,8 +382,20 @@ public class Mesh2 {
    // Call this to add a new vertex.
    // A new vertex-ID is returned, but it's not connected to anything,
    // (that is, "outgoingEdgeForVertex" will return -1)
+   private static final int RELEASED_VERTEX = -2;
+   
    public int newVertexID() {
-      int vertex = vertexIDManager.getNewID();
+      // "removeFace" releases the IDs of vertices it disconnects, marking
+      // them RELEASED_VERTEX.  The caller may have connected such a vertex
+      // to a new face since then (or already been handed it once before),
+      // so released IDs no longer marked that way are skipped:
+      int vertex = vertexIDManager.getReleasedID();
+      while ((vertex >= 0) && (outgoingEdgeForVertex(vertex) != RELEASED_VERTEX)) {
+         vertex = vertexIDManager.getReleasedID();
+      }
+      if (vertex < 0) {
+         vertex = vertexIDManager.getNewID();
+      }
       setOutgoingEdgeForVertex(vertex, -1);
       return vertex;
    }
@@ -259,7 +428,7 @@ public class Mesh2 {
          
          // Does "startVertex" have any edges already connected to it?
          int firstOutgoingEdgeFromStart = outgoingEdgeForVertex(startVertex);
-         if (firstOutgoingEdgeFromStart != -1) {
+         if (firstOutgoingEdgeFromStart >= 0) {
             boolean foundBoundaryEdgeFromStart = false;
              
             // Examine each pre-existing edge outgoing from start
@@ -439,6 +608,11 @@ public class Mesh2 {
       return newFaceID;
    }
 
+   private boolean survivesRemoval(int directedEdge, int face) {
+      return (faceOf(directedEdge) != face)
+          && (!isBoundary(directedEdge) || (faceOf(opposite(directedEdge)) != face));
+   }
+
    // Call this to remove a face, to undo the work of "addFace".
    // Boundary edges of this face are removed as well, along with any
    // vertices that are disconnected by the removal of this faces.
@@ -460,13 +634,14 @@ public class Mesh2 {
          faceEdges[i] = faceEdge;
          
          // We examine each vertex in turn and make sure the first outgoing edge
-         // listed for each vertex is not one of the edges of this face
+         // listed for each vertex is not one of the edges of this face,
+         // nor a boundary edge opposite one (those will be removed as well)
          int vertex = startOf(faceEdge);
-         if (outgoingEdgeForVertex(vertex) == faceEdge) {
+         if (!survivesRemoval(outgoingEdgeForVertex(vertex), face)) {
             int outgoingEdge = faceEdge;
             do {
                outgoingEdge = nextAroundStart(outgoingEdge);
-            } while (isBoundary(outgoingEdge) && (outgoingEdge != faceEdge));
+            } while (!survivesRemoval(outgoingEdge, face) && (outgoingEdge != faceEdge));
             
             setOutgoingEdgeForVertex(vertex, outgoingEdge);
          }
@@ -497,14 +672,15 @@ public class Mesh2 {
                int vertex = startOf(nextEdge);
                
                // [4] We're REMOVING a Vertex from the connected mesh
-               setOutgoingEdgeForVertex (vertex, -1);
+               setOutgoingEdgeForVertex (vertex, RELEASED_VERTEX);
+               vertexIDManager.releaseID(vertex);
                this.numVertices--;
                
             } else {
                // vertex HAS other edges -- we just have to hook up the boundary loop
                int outgoingBoundary = nextInLoop(oppositeNextEdge);
                int incomingBoundary = prevInLoop(oppositePrevEdge);
-               connectEdges (outgoingBoundary, incomingBoundary);
+               connectEdges (incomingBoundary, outgoingBoundary);
             }
          } else if (!prevEdgeFree && nextEdgeFree) {            
             // CASE 2. only prevEdge will be preserved, nextEdge is being removed.
@@ -527,6 +703,7 @@ public class Mesh2 {
       
       // [5] We're REMOVING a Face from the connected mesh
       setDirectedEdgeForFace(face, -1);
+      faceIDManager.releaseID(face);
       this.numFaces--;
       this.numTriangles -= (numVertices - 2);
       
@@ -544,15 +721,131 @@ public class Mesh2 {
             
             // [6] We're REMOVING an Edge from the connected mesh
             initEdge(oldEdgeID, -1, -1);
+            edgeIDManager.releaseID(oldEdgeID);
             this.numEdges--;
          }
       }
-      
-      // Okay.... why doesn't this function call "releaseID"?
-      // Don't we want that?
    }   
 
    
+   // ==================================================================
+   // The IDs released by "removeFace" are reused by later additions,
+   // but the ID ranges never shrink on their own.  Call "compact" to
+   // renumber the vertices, faces and edges without gaps.
+   // ==================================================================
+
+   // A Renumbering maps each old ID to its new ID, or to -1
+   // if the old ID wasn't in use and has been dropped.
+   public static class Renumbering {
+      public final int[] vertices;
+      public final int[] faces;
+      public final int[] edges;
+      
+      public Renumbering(int[] vertices, int[] faces, int[] edges) {
+         this.vertices = vertices;
+         this.faces = faces;
+         this.edges = edges;
+      }
+      public int directedEdge(int oldDirectedEdge) {
+         if (oldDirectedEdge < 0) return -1;
+         return 2 * edges[oldDirectedEdge / 2] + (oldDirectedEdge & 1);
+      }
+   }
+   
+   // Renumbers the vertices, faces and edges so their IDs run from zero
+   // to numVertices(), numFaces(), numEdges(), keeping their relative order.
+   // Every DataLayer is permuted along with the IDs.  Note that vertices
+   // not connected to any face are dropped.  The returned Renumbering
+   // lets callers update any IDs they're holding.
+   public Renumbering compact() {
+      int[] vertexMap = new int[numVertexIDs()];
+      int numNewVertexIDs = 0;
+      for (int vertex = 0; vertex < vertexMap.length; ++vertex) {
+         vertexMap[vertex] = isVertexInMesh(vertex) ? numNewVertexIDs++ : -1;
+      }
+      int[] faceMap = new int[numFaceIDs()];
+      int numNewFaceIDs = 0;
+      for (int face = 0; face < faceMap.length; ++face) {
+         faceMap[face] = isFaceInMesh(face) ? numNewFaceIDs++ : -1;
+      }
+      int[] edgeMap = new int[numEdgeIDs()];
+      int numNewEdgeIDs = 0;
+      for (int edge = 0; edge < edgeMap.length; ++edge) {
+         edgeMap[edge] = isEdgeInMesh(edge) ? numNewEdgeIDs++ : -1;
+      }
+      Renumbering renumbering = new Renumbering(vertexMap, faceMap, edgeMap);
+      renumber(renumbering, numNewVertexIDs, numNewFaceIDs, numNewEdgeIDs);
+      return renumbering;
+   }
+   
+   // Moves every vertex, face and edge to its new ID.  The connectivity
+   // arrays hold IDs themselves, so their contents are remapped as well.
+   private void renumber(Renumbering renumbering,
+                         int numNewVertexIDs, int numNewFaceIDs, int numNewEdgeIDs) {
+      
+      int[] oldEdgeData = Arrays.copyOf(directedEdgeData.array(), 8 * numEdgeIDs());
+      int[] edgeData = directedEdgeData.array();
+      for (int edge = 0; edge < renumbering.edges.length; ++edge) {
+         int newEdge = renumbering.edges[edge];
+         if (newEdge < 0) continue;
+         
+         for (int i = 0; i < 8; i += 4) {
+            int oldFace = oldEdgeData[8*edge + i + 1];
+            edgeData[8*newEdge + i + 0] = renumbering.vertices[oldEdgeData[8*edge + i + 0]];
+            edgeData[8*newEdge + i + 1] = (oldFace < 0) ? -1 : renumbering.faces[oldFace];
+            edgeData[8*newEdge + i + 2] = renumbering.directedEdge(oldEdgeData[8*edge + i + 2]);
+            edgeData[8*newEdge + i + 3] = renumbering.directedEdge(oldEdgeData[8*edge + i + 3]);
+         }
+      }
+      int[] oldVertexData = Arrays.copyOf(vertexToDirectedEdge.array(), numVertexIDs());
+      for (int vertex = 0; vertex < renumbering.vertices.length; ++vertex) {
+         int newVertex = renumbering.vertices[vertex];
+         if (newVertex < 0) continue;
+         vertexToDirectedEdge.array()[newVertex] = renumbering.directedEdge(oldVertexData[vertex]);
+      }
+      int[] oldFaceData = Arrays.copyOf(faceToDirectedEdge.array(), numFaceIDs());
+      for (int face = 0; face < renumbering.faces.length; ++face) {
+         int newFace = renumbering.faces[face];
+         if (newFace < 0) continue;
+         faceToDirectedEdge.array()[newFace] = renumbering.directedEdge(oldFaceData[face]);
+      }
+      
+      // The DataLayers just move their elements to the new positions:
+      for (DataLayer layer : dataLayers.values()) {
+         switch (layer.type.elements) {
+            case PER_VERTEX: moveElements(layer.data, renumbering.vertices); break;
+            case PER_FACE:   moveElements(layer.data, renumbering.faces);    break;
+            case PER_EDGE:   moveElements(layer.data, renumbering.edges);    break;
+         }
+      }
+      
+      vertexIDManager.reset(numNewVertexIDs);
+      faceIDManager.reset(numNewFaceIDs);
+      edgeIDManager.reset(numNewEdgeIDs);
+      
+      for (DataLayer layer : dataLayers.values()) {
+         layer.listeners.onChange();
+      }
+   }
+   private static void moveElements(Data.Array array, int[] map) {
+      int primitivesPerElement = array.type.primitivesPerElement;
+      int length = primitivesPerElement * array.numElements();
+      Object oldArray;
+      switch (array.type.primitive) {
+         case INTEGERS: oldArray = Arrays.copyOf(((Data.Array.Integers) array).array(), length); break;
+         case FLOATS:   oldArray = Arrays.copyOf(((Data.Array.Floats)   array).array(), length); break;
+         case BYTES:    oldArray = Arrays.copyOf(((Data.Array.Bytes)    array).array(), length); break;
+         default: throw new RuntimeException();
+      }
+      for (int id = 0; id < map.length; ++id) {
+         if (map[id] >= 0) {
+            System.arraycopy(oldArray, primitivesPerElement * id,
+                             array.array(), primitivesPerElement * map[id], primitivesPerElement);
+         }
+      }
+   }
+
+   
    // ==================================================================
    // These private functions are called by "addFace" and "removeFace"
    // to set connectivity array elements:
@@ -648,6 +941,7 @@ public class Mesh2 {
                public Integer next() {
                   int result = id;
                   id = support.next(id);
+                  first = false;
                   return result;
                }
             }; 
@@ -668,24 +962,26 @@ public class Mesh2 {
          arrays = new HashSet<Data.Array>();
       }
       public int getNewID() {
-         int numReleasedIDs = releasedIDs.numElements();
-         if (numReleasedIDs > 0) {
-            int newID = releasedIDs.array()[numReleasedIDs-1];
-            releasedIDs.setNumElements(numReleasedIDs-1);
-            return newID;
+         int releasedID = getReleasedID();
+         if (releasedID >= 0) {
+            return releasedID;
          } else {
             numReservedIDs = numReservedIDs + 1;
             updateArrayLengths();
             return numReservedIDs-1;
          }
       }
+      // Returns the most recently released ID, or -1 if there are none
+      public int getReleasedID() {
+         int numReleasedIDs = releasedIDs.numElements();
+         if (numReleasedIDs == 0) return -1;
+         int releasedID = releasedIDs.array()[numReleasedIDs-1];
+         releasedIDs.setNumElements(numReleasedIDs-1);
+         return releasedID;
+      }
       
-      // TODO -- note that no-one's calling releaseID.
-      // That's a concern...  
-      // How *should* it work?
-      //   NewVertexID should be paired with ReleaseVertexID, 
-      //   while "removeFace" should release Face & Edge IDs but NOT Vertex IDs?
-      // 
+      // "removeFace" releases the IDs of the faces and edges it removes,
+      // and of any vertices it leaves disconnected.
       public void releaseID(int releasedID) {
          int numReleasedIDs = releasedIDs.numElements();
          releasedIDs.setNumElements(numReleasedIDs+1);
@@ -897,69 +1193,29 @@ public class Mesh2 {
    // #############################################################################################
    // #############################################################################################
    
-   private static class SavedModel {
-      public static class Triangle {
-         public final int v0,v1,v2;
-         public Triangle(int v0, int v1, int v2) {
-            this.v0=v0;
-            this.v1=v1;
-            this.v2=v2;
-         }
+   // Loads an OBJ file from the resources next to this class, scaled up
+   // by 60 (as the bunny needs).  Faces may have any number of vertices.
+   public static Mesh2 loadMesh(String filename) {
+      InputStream stream = Mesh2.class.getResourceAsStream(filename);
+      if (stream == null) {
+         throw new RuntimeException(String.format("Failed to find resource \"%s\"", filename));
       }
-      public final ArrayList<Vector3> vertexPositions = new ArrayList<Vector3> ();
-      public final ArrayList<Triangle> faceIds = new ArrayList<Triangle>();
+      ObjReader obj = ObjReader.read(stream);
       
-      public void addVertex(Vector3 v) {
-         vertexPositions.add(v); 
-      }
-      public void addFace(int v0, int v1, int v2) { 
-         faceIds.add(new Triangle(v0,v1,v2)); 
-      }
-   }
-   private static SavedModel savedModelFromString(String serialized) {
-      SavedModel result = new SavedModel();
-
-      for (String line : serialized.split("\n")) {
-         if (line.charAt(0) == '#') {
-            continue;
-         }
-         if (line.charAt(0) == 'v') {
-            String restOfLine = line.substring(2);
-            String[] pieces = restOfLine.split(" ");
-            if (pieces.length == 3) {
-               result.addVertex(new Vector3(Float.valueOf(pieces[0]), Float.valueOf(pieces[1]), Float.valueOf(pieces[2])).times(60.0f));
-            }
-            continue;
-         }         
-         if (line.charAt(0) == 'f') {
-            String restOfLine = line.substring(2);
-            String[] pieces = restOfLine.split(" ");
-            if (pieces.length == 3) {
-               int v0 = Integer.valueOf(pieces[0])-1;
-               int v1 = Integer.valueOf(pieces[1])-1;
-               int v2 = Integer.valueOf(pieces[2])-1;
-               result.addFace(v0,v1,v2);
-            }
-            continue;
-         }
-      }
-      return result;
-   }
-   public static Mesh2 loadMesh(String filename) {
       Mesh2 mesh = new Mesh2();
       DataLayer positions = mesh.newDataLayer("positions", DataLayer.Type.THREE_FLOATS_PER_VERTEX);
-      
-      SavedModel model = savedModelFromString(Data.loadPackageResource(Mesh2.class, filename));
-      for (Vector3 position : model.vertexPositions) {
-         int v = mesh.newVertexID();
-         
-         float[] positionsArray = ((Data.Array.Floats)(positions.data)).array();
-         positionsArray[3*v + 0] = position.x;
-         positionsArray[3*v + 1] = position.y;
-         positionsArray[3*v + 2] = position.z;
+      for (int i = 0; i < obj.numVertices(); ++i) {
+         mesh.newVertexID();
+      }
+      float[] positionsArray = ((Data.Array.Floats)(positions.data)).array();
+      for (int i = 0; i < obj.positions.length; ++i) {
+         positionsArray[i] = 60.0f * obj.positions[i];
       }
-      for (SavedModel.Triangle t : model.faceIds) {
-         mesh.addFace(t.v0, t.v1, t.v2);
+      
+      int corner = 0;
+      for (int faceSize : obj.faceSizes) {
+         mesh.addFace(Arrays.copyOfRange(obj.faceVertices, corner, corner + faceSize));
+         corner += faceSize;
       }
       return mesh;
    }
@@ -0,0 +1,520 @@
+package com.generic.base;
+
+import java.util.Arrays;
+
+// ==================================================================
+// MeshBVH is a bounding volume hierarchy over the triangles of a Mesh,
+// so a ray can find the first triangle it hits (for picking under the
+// mouse) by visiting O(log n) boxes instead of testing every triangle.
+//
+// The tree is built top-down, splitting each node where the "surface
+// area heuristic" says rays will be cheapest, estimated over a fixed
+// number of bins along the longest axis of the triangle centroids.
+// Everything lives in flat arrays: six floats of bounds and two ints per
+// node, with the two children of a node next to each other, and nine
+// floats of positions per triangle in the order the leaves list them.
+//
+// When vertices move but the triangles stay the same, "refit" recomputes
+// the boxes without changing the tree, in O(n).  That's fine for small
+// motions; after big ones the tree still gives correct answers, just
+// more slowly, and building a new MeshBVH fixes that.  If triangles are
+// added or removed, a new MeshBVH has to be built.
+//
+// "closestHit" doesn't allocate anything, so it's cheap to call on every
+// mouse move, but it uses a stack owned by the MeshBVH, so only one
+// thread at a time should call it.
+// ==================================================================
+
+public class MeshBVH {
+
+   public final Mesh mesh;
+
+   public MeshBVH(Mesh mesh) {
+      this.mesh = mesh;
+      build();
+   }
+
+   public int numTriangles() {
+      return numTriangles;
+   }
+   public int numNodes() {
+      return numNodes;
+   }
+
+   // ------------------------------------------
+   // Hit
+   // ------------------------------------------
+
+   // Where a ray hit a triangle: "face" is its index in mesh.triangles,
+   // the hit point is (origin + t * direction), and (b0,b1,b2) are its
+   // barycentric coordinates relative to the triangle's vertices[0..2]
+   public static final class Hit {
+      public int face = -1;
+      public float t;
+      public float b0, b1, b2;
+   }
+
+   // Finds the first front-facing triangle hit by the ray from "origin"
+   // in "direction", with 0 <= t < tMax.  (Like Algebra.intersects, a
+   // triangle is front-facing if its vertices go counter-clockwise as the
+   // ray sees them.)  Returns false, leaving "hit" alone, if there's none.
+   public boolean closestHit(float ox, float oy, float oz,
+                             float dx, float dy, float dz,
+                             float tMax, Hit hit) {
+      if (numTriangles == 0) return false;
+      float idx = 1.0f / dx, idy = 1.0f / dy, idz = 1.0f / dz;
+
+      float best = tMax;
+      boolean found = false;
+      int sp = 0;
+      int node = 0;
+      if (boxEntry(0, ox, oy, oz, idx, idy, idz, best) == NO_HIT) return false;
+
+      while (true) {
+         int first = nodeInfo[2*node];
+         int count = nodeInfo[2*node+1];
+         if (count > 0) {
+            for (int slot = first; slot < first + count; ++slot) {
+               if (intersectTriangle(slot, ox, oy, oz, dx, dy, dz, best, hit)) {
+                  best = hit.t;
+                  found = true;
+               }
+            }
+         } else {
+            float tLeft  = boxEntry(first,     ox, oy, oz, idx, idy, idz, best);
+            float tRight = boxEntry(first + 1, ox, oy, oz, idx, idy, idz, best);
+            if (tLeft != NO_HIT) {
+               if (tRight != NO_HIT) {
+                  // Visit the nearer child first, and come back for the
+                  // other only if nothing closer than it turns up
+                  boolean leftFirst = (tLeft <= tRight);
+                  stack[sp] = leftFirst ? (first + 1) : first;
+                  stackT[sp] = leftFirst ? tRight : tLeft;
+                  ++sp;
+                  node = leftFirst ? first : (first + 1);
+               } else {
+                  node = first;
+               }
+               continue;
+            } else if (tRight != NO_HIT) {
+               node = first + 1;
+               continue;
+            }
+         }
+
+         // Pop the next node that might still hold something closer
+         do {
+            if (sp == 0) return found;
+            --sp;
+         } while (stackT[sp] >= best);
+         node = stack[sp];
+      }
+   }
+
+   // ------------------------------------------
+   // Refit
+   // ------------------------------------------
+
+   // Re-reads the vertex positions and recomputes all the boxes
+   public void refit() {
+      if (mesh.triangles.size() != numTriangles) {
+         throw new RuntimeException(String.format(
+               "Can't refit MeshBVH built for %d triangles, mesh now has %d",
+               numTriangles, mesh.triangles.size()));
+      }
+      if (numTriangles == 0) return;
+      for (int slot = 0; slot < numTriangles; ++slot) {
+         readPositions(slot);
+      }
+      // Children always come after their parent, so going backwards
+      // finishes both children of a node before the node itself
+      for (int node = numNodes - 1; node >= 0; --node) {
+         int first = nodeInfo[2*node];
+         int count = nodeInfo[2*node+1];
+         if (count > 0) {
+            setLeafBounds(node, first, count);
+         } else {
+            for (int i = 0; i < 3; ++i) {
+               nodeBounds[6*node+i]   = Math.min(nodeBounds[6*first+i],   nodeBounds[6*first+6+i]);
+               nodeBounds[6*node+3+i] = Math.max(nodeBounds[6*first+3+i], nodeBounds[6*first+9+i]);
+            }
+         }
+      }
+   }
+
+   // ------------------------------------------
+   // Private
+   // ------------------------------------------
+
+   private static final int NUM_BINS = 16;
+   private static final int MAX_LEAF_SIZE = 4;
+
+   // The cost of visiting a node, relative to testing one triangle
+   private static final float TRAVERSAL_COST = 1.0f;
+
+   private static final float NO_HIT = Float.POSITIVE_INFINITY;
+
+   private int numTriangles;
+   private int numNodes;
+
+   // For node k, nodeInfo[2k+1] is the number of triangles if it's a leaf,
+   // and those are the slots starting at nodeInfo[2k].  Otherwise it's 0
+   // and the children are nodes nodeInfo[2k] and nodeInfo[2k]+1.
+   private int[] nodeInfo;
+
+   // minX,minY,minZ, maxX,maxY,maxZ for each node
+   private float[] nodeBounds;
+
+   // The triangle index in each slot, and its nine vertex coordinates
+   private int[] faces;
+   private float[] positions;
+
+   // For closestHit, deep enough for the deepest leaf
+   private int[] stack;
+   private float[] stackT;
+
+   private void build() {
+      numTriangles = mesh.triangles.size();
+      faces = new int[numTriangles];
+      positions = new float[9 * numTriangles];
+      for (int slot = 0; slot < numTriangles; ++slot) {
+         faces[slot] = slot;
+         readPositions(slot);
+      }
+      int maxNodes = Math.max(1, 2 * numTriangles - 1);
+      nodeInfo = new int[2 * maxNodes];
+      nodeBounds = new float[6 * maxNodes];
+
+      // The box and centroid of the triangle in each slot, these move
+      // with it as the slots are partitioned, so the passes over a
+      // node's slots read them in order
+      float[] triangleBounds = new float[6 * numTriangles];
+      float[] centroids = new float[3 * numTriangles];
+      for (int slot = 0; slot < numTriangles; ++slot) {
+         for (int i = 0; i < 3; ++i) {
+            float a = positions[9*slot+i], b = positions[9*slot+3+i], c = positions[9*slot+6+i];
+            triangleBounds[6*slot+i]   = Math.min(a, Math.min(b, c));
+            triangleBounds[6*slot+3+i] = Math.max(a, Math.max(b, c));
+            centroids[3*slot+i] = (a + b + c) / 3.0f;
+         }
+      }
+
+      int[] binCounts = new int[NUM_BINS];
+      float[] binBounds = new float[6 * NUM_BINS];
+      float[] rightAreas = new float[NUM_BINS];
+      int[] rightCounts = new int[NUM_BINS];
+
+      // Nodes still to be split: node, first slot, end slot, depth
+      int[] work = new int[4 * 64];
+      int numWork = 0;
+      int maxDepth = 0;
+      numNodes = 1;
+      work[numWork++] = 0;
+      work[numWork++] = 0;
+      work[numWork++] = numTriangles;
+      work[numWork++] = 0;
+
+      while (numWork > 0) {
+         int depth = work[--numWork];
+         int end   = work[--numWork];
+         int start = work[--numWork];
+         int node  = work[--numWork];
+         maxDepth = Math.max(maxDepth, depth);
+         int count = end - start;
+
+         // The node's box, and the box around its triangles' centroids
+         float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+         float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+         float cMinX = Float.POSITIVE_INFINITY, cMinY = Float.POSITIVE_INFINITY, cMinZ = Float.POSITIVE_INFINITY;
+         float cMaxX = Float.NEGATIVE_INFINITY, cMaxY = Float.NEGATIVE_INFINITY, cMaxZ = Float.NEGATIVE_INFINITY;
+         for (int slot = start; slot < end; ++slot) {
+            minX = Math.min(minX, triangleBounds[6*slot+0]);  maxX = Math.max(maxX, triangleBounds[6*slot+3]);
+            minY = Math.min(minY, triangleBounds[6*slot+1]);  maxY = Math.max(maxY, triangleBounds[6*slot+4]);
+            minZ = Math.min(minZ, triangleBounds[6*slot+2]);  maxZ = Math.max(maxZ, triangleBounds[6*slot+5]);
+            float cx = centroids[3*slot+0], cy = centroids[3*slot+1], cz = centroids[3*slot+2];
+            cMinX = Math.min(cMinX, cx);  cMaxX = Math.max(cMaxX, cx);
+            cMinY = Math.min(cMinY, cy);  cMaxY = Math.max(cMaxY, cy);
+            cMinZ = Math.min(cMinZ, cz);  cMaxZ = Math.max(cMaxZ, cz);
+         }
+         nodeBounds[6*node+0] = minX;  nodeBounds[6*node+3] = maxX;
+         nodeBounds[6*node+1] = minY;  nodeBounds[6*node+4] = maxY;
+         nodeBounds[6*node+2] = minZ;  nodeBounds[6*node+5] = maxZ;
+
+         // Split along the longest axis of the centroids, if they're spread out at all
+         int axis = 0;
+         float cMin = cMinX, extent = cMaxX - cMinX;
+         if (cMaxY - cMinY > extent) { axis = 1; cMin = cMinY; extent = cMaxY - cMinY; }
+         if (cMaxZ - cMinZ > extent) { axis = 2; cMin = cMinZ; extent = cMaxZ - cMinZ; }
+         if ((count <= 1) || !(extent > 0.0f)) {
+            makeLeaf(node, start, count);
+            continue;
+         }
+
+         // Sort the centroids into bins
+         Arrays.fill(binCounts, 0);
+         for (int bin = 0; bin < NUM_BINS; ++bin) {
+            setEmpty(binBounds, bin);
+         }
+         float binsPerUnit = NUM_BINS / extent;
+         for (int slot = start; slot < end; ++slot) {
+            int bin = binOf(centroids[3*slot+axis], cMin, binsPerUnit);
+            ++binCounts[bin];
+            for (int i = 0; i < 3; ++i) {
+               binBounds[6*bin+i]   = Math.min(binBounds[6*bin+i],   triangleBounds[6*slot+i]);
+               binBounds[6*bin+3+i] = Math.max(binBounds[6*bin+3+i], triangleBounds[6*slot+3+i]);
+            }
+         }
+
+         // Sweep from the right for the boxes of bins [split..NUM_BINS),
+         // then from the left, costing each split between bins
+         float rMinX = Float.POSITIVE_INFINITY, rMinY = Float.POSITIVE_INFINITY, rMinZ = Float.POSITIVE_INFINITY;
+         float rMaxX = Float.NEGATIVE_INFINITY, rMaxY = Float.NEGATIVE_INFINITY, rMaxZ = Float.NEGATIVE_INFINITY;
+         int rCount = 0;
+         for (int split = NUM_BINS - 1; split > 0; --split) {
+            rMinX = Math.min(rMinX, binBounds[6*split+0]);  rMaxX = Math.max(rMaxX, binBounds[6*split+3]);
+            rMinY = Math.min(rMinY, binBounds[6*split+1]);  rMaxY = Math.max(rMaxY, binBounds[6*split+4]);
+            rMinZ = Math.min(rMinZ, binBounds[6*split+2]);  rMaxZ = Math.max(rMaxZ, binBounds[6*split+5]);
+            rCount += binCounts[split];
+            rightCounts[split] = rCount;
+            rightAreas[split] = halfArea(rMinX, rMinY, rMinZ, rMaxX, rMaxY, rMaxZ);
+         }
+         float lMinX = Float.POSITIVE_INFINITY, lMinY = Float.POSITIVE_INFINITY, lMinZ = Float.POSITIVE_INFINITY;
+         float lMaxX = Float.NEGATIVE_INFINITY, lMaxY = Float.NEGATIVE_INFINITY, lMaxZ = Float.NEGATIVE_INFINITY;
+         int lCount = 0;
+         int bestSplit = -1;
+         float bestCost = Float.POSITIVE_INFINITY;
+         for (int split = 1; split < NUM_BINS; ++split) {
+            int bin = split - 1;
+            lMinX = Math.min(lMinX, binBounds[6*bin+0]);  lMaxX = Math.max(lMaxX, binBounds[6*bin+3]);
+            lMinY = Math.min(lMinY, binBounds[6*bin+1]);  lMaxY = Math.max(lMaxY, binBounds[6*bin+4]);
+            lMinZ = Math.min(lMinZ, binBounds[6*bin+2]);  lMaxZ = Math.max(lMaxZ, binBounds[6*bin+5]);
+            lCount += binCounts[bin];
+            if ((lCount == 0) || (rightCounts[split] == 0)) continue;
+            float cost = halfArea(lMinX, lMinY, lMinZ, lMaxX, lMaxY, lMaxZ) * lCount
+                       + rightAreas[split] * rightCounts[split];
+            if (cost < bestCost) {
+               bestCost = cost;
+               bestSplit = split;
+            }
+         }
+
+         // Both costs relative to the node's own area: a leaf tests all
+         // its triangles, a split visits two children and tests theirs
+         float area = halfArea(minX, minY, minZ, maxX, maxY, maxZ);
+         boolean split = (bestSplit > 0) &&
+               ((count > MAX_LEAF_SIZE) || (TRAVERSAL_COST * area + bestCost < count * area));
+         if (!split) {
+            makeLeaf(node, start, count);
+            continue;
+         }
+
+         // Partition the slots, those in bins before "bestSplit" first,
+         // from both ends, swapping only the pairs on the wrong sides
+         int mid = start;
+         int last = end;
+         while (true) {
+            while ((mid < last) && (binOf(centroids[3*mid+axis], cMin, binsPerUnit) < bestSplit)) ++mid;
+            while ((mid < last) && (binOf(centroids[3*(last-1)+axis], cMin, binsPerUnit) >= bestSplit)) --last;
+            if (mid >= last) break;
+            swapSlots(mid, last - 1, triangleBounds, centroids);
+            ++mid;
+            --last;
+         }
+
+         int left = numNodes;
+         numNodes += 2;
+         nodeInfo[2*node]   = left;
+         nodeInfo[2*node+1] = 0;
+         if (numWork + 8 > work.length) {
+            work = Arrays.copyOf(work, 2 * work.length);
+         }
+         work[numWork++] = left + 1;
+         work[numWork++] = mid;
+         work[numWork++] = end;
+         work[numWork++] = depth + 1;
+         work[numWork++] = left;
+         work[numWork++] = start;
+         work[numWork++] = mid;
+         work[numWork++] = depth + 1;
+      }
+
+      // Now lay the positions out in slot order
+      for (int slot = 0; slot < numTriangles; ++slot) {
+         readPositions(slot);
+      }
+      stack = new int[maxDepth + 1];
+      stackT = new float[maxDepth + 1];
+   }
+
+   private static int binOf(float centroid, float min, float binsPerUnit) {
+      return Math.min(NUM_BINS - 1, (int) ((centroid - min) * binsPerUnit));
+   }
+
+   private void swapSlots(int a, int b, float[] triangleBounds, float[] centroids) {
+      if (a == b) return;
+      int face = faces[a];
+      faces[a] = faces[b];
+      faces[b] = face;
+      for (int i = 0; i < 6; ++i) {
+         float value = triangleBounds[6*a+i];
+         triangleBounds[6*a+i] = triangleBounds[6*b+i];
+         triangleBounds[6*b+i] = value;
+      }
+      for (int i = 0; i < 3; ++i) {
+         float value = centroids[3*a+i];
+         centroids[3*a+i] = centroids[3*b+i];
+         centroids[3*b+i] = value;
+      }
+   }
+
+   private void makeLeaf(int node, int start, int count) {
+      nodeInfo[2*node]   = start;
+      nodeInfo[2*node+1] = count;
+   }
+
+   private void readPositions(int slot) {
+      Mesh.Triangle triangle = mesh.triangles.get(faces[slot]);
+      for (int j = 0; j < 3; ++j) {
+         Algebra.Vector3 p = triangle.vertices[j].getPosition();
+         positions[9*slot+3*j+0] = p.x;
+         positions[9*slot+3*j+1] = p.y;
+         positions[9*slot+3*j+2] = p.z;
+      }
+   }
+
+   private void setLeafBounds(int node, int first, int count) {
+      setEmpty(nodeBounds, node);
+      for (int slot = first; slot < first + count; ++slot) {
+         for (int j = 0; j < 3; ++j) {
+            for (int i = 0; i < 3; ++i) {
+               float value = positions[9*slot+3*j+i];
+               nodeBounds[6*node+i]   = Math.min(nodeBounds[6*node+i],   value);
+               nodeBounds[6*node+3+i] = Math.max(nodeBounds[6*node+3+i], value);
+            }
+         }
+      }
+   }
+
+   private static void setEmpty(float[] bounds, int box) {
+      bounds[6*box+0] = bounds[6*box+1] = bounds[6*box+2] = Float.POSITIVE_INFINITY;
+      bounds[6*box+3] = bounds[6*box+4] = bounds[6*box+5] = Float.NEGATIVE_INFINITY;
+   }
+
+   // Half the surface area of a box, which is all the heuristic needs
+   private static float halfArea(float minX, float minY, float minZ,
+                                 float maxX, float maxY, float maxZ) {
+      float x = maxX - minX, y = maxY - minY, z = maxZ - minZ;
+      return x * y + y * z + z * x;
+   }
+
+   // The "t" at which the ray enters the box of "node", or NO_HIT if it
+   // misses it or enters no earlier than "tMax".
+   //
+   // An axis the ray doesn't move along (its inverse direction infinite)
+   // is handled on its own: the ray is between that axis's two planes for
+   // every t or for none, and with the origin ON a plane the slab formula
+   // would give 0 * Inf = NaN, which fails every comparison and loses the
+   // box.
+   private float boxEntry(int node, float ox, float oy, float oz,
+                          float idx, float idy, float idz, float tMax) {
+      int b = 6 * node;
+      float tNear = 0.0f, tFar = Float.POSITIVE_INFINITY;
+      if (Float.isInfinite(idx)) {
+         if ((ox < nodeBounds[b+0]) || (ox > nodeBounds[b+3])) return NO_HIT;
+      } else {
+         float t0 = (nodeBounds[b+0] - ox) * idx, t1 = (nodeBounds[b+3] - ox) * idx;
+         tNear = Math.max(tNear, Math.min(t0, t1));  tFar = Math.min(tFar, Math.max(t0, t1));
+      }
+      if (Float.isInfinite(idy)) {
+         if ((oy < nodeBounds[b+1]) || (oy > nodeBounds[b+4])) return NO_HIT;
+      } else {
+         float t0 = (nodeBounds[b+1] - oy) * idy, t1 = (nodeBounds[b+4] - oy) * idy;
+         tNear = Math.max(tNear, Math.min(t0, t1));  tFar = Math.min(tFar, Math.max(t0, t1));
+      }
+      if (Float.isInfinite(idz)) {
+         if ((oz < nodeBounds[b+2]) || (oz > nodeBounds[b+5])) return NO_HIT;
+      } else {
+         float t0 = (nodeBounds[b+2] - oz) * idz, t1 = (nodeBounds[b+5] - oz) * idz;
+         tNear = Math.max(tNear, Math.min(t0, t1));  tFar = Math.min(tFar, Math.max(t0, t1));
+      }
+      return ((tNear <= tFar) && (tNear < tMax)) ? tNear : NO_HIT;
+   }
+
+   // Moller-Trumbore, writing "hit" only if the ray hits the front of
+   // the triangle in "slot" with 0 <= t < tMax
+   private boolean intersectTriangle(int slot, float ox, float oy, float oz,
+                                     float dx, float dy, float dz, float tMax, Hit hit) {
+      int p = 9 * slot;
+      float v0x = positions[p+0], v0y = positions[p+1], v0z = positions[p+2];
+      float e1x = positions[p+3] - v0x, e1y = positions[p+4] - v0y, e1z = positions[p+5] - v0z;
+      float e2x = positions[p+6] - v0x, e2y = positions[p+7] - v0y, e2z = positions[p+8] - v0z;
+
+      float px = dy * e2z - dz * e2y;
+      float py = dz * e2x - dx * e2z;
+      float pz = dx * e2y - dy * e2x;
+      float det = e1x * px + e1y * py + e1z * pz;
+      if (!(det > 0.0f)) return false;
+
+      float sx = ox - v0x, sy = oy - v0y, sz = oz - v0z;
+      float u = (sx * px + sy * py + sz * pz) / det;
+      if ((u < 0.0f) || (u > 1.0f)) return false;
+
+      float qx = sy * e1z - sz * e1y;
+      float qy = sz * e1x - sx * e1z;
+      float qz = sx * e1y - sy * e1x;
+      float v = (dx * qx + dy * qy + dz * qz) / det;
+      if ((v < 0.0f) || (u + v > 1.0f)) return false;
+
+      float t = (e2x * qx + e2y * qy + e2z * qz) / det;
+      if (!(t >= 0.0f) || !(t < tMax)) return false;
+
+      hit.face = faces[slot];
+      hit.t = t;
+      hit.b0 = 1.0f - u - v;
+      hit.b1 = u;
+      hit.b2 = v;
+      return true;
+   }
+
+   // -----------------------------------------------------------------------
+   // TESTING
+   // -----------------------------------------------------------------------
+
+   // Rays straight down the z axis onto an n x n grid of triangles covering
+   // the unit square at z=0.  Rays through grid lines start ON the planes
+   // of the boxes, with zero x and y directions, the case that used to
+   // come out NaN and miss.
+   public static void testAxisAlignedRays() {
+      int n = 4;
+      Mesh mesh = new Mesh();
+      Mesh.Vertex[] vertices = new Mesh.Vertex[(n + 1) * (n + 1)];
+      for (int i = 0; i < vertices.length; ++i) {
+         vertices[i] = mesh.addVertex();
+         vertices[i].setPosition(new Algebra.Vector3((i % (n + 1)) / (float) n, (i / (n + 1)) / (float) n, 0.0f));
+      }
+      for (int y = 0; y < n; ++y) {
+         for (int x = 0; x < n; ++x) {
+            int v = y * (n + 1) + x;
+            mesh.addTriangle(vertices[v], vertices[v + 1], vertices[v + n + 2]);
+            mesh.addTriangle(vertices[v], vertices[v + n + 2], vertices[v + n + 1]);
+         }
+      }
+      MeshBVH bvh = new MeshBVH(mesh);
+      Hit hit = new Hit();
+
+      boolean ok = true;
+      for (int y = 0; y <= 2 * n; ++y) {
+         for (int x = 0; x <= 2 * n; ++x) {
+            float ox = x / (2.0f * n), oy = y / (2.0f * n);
+            ok &= bvh.closestHit(ox, oy, 3.0f, 0.0f, 0.0f, -1.0f, Float.POSITIVE_INFINITY, hit)
+                  && (hit.t == 3.0f);
+            ok &= bvh.closestHit(ox, oy, 3.0f, -0.0f, -0.0f, -1.0f, Float.POSITIVE_INFINITY, hit);
+         }
+      }
+      // Just outside the grid, parallel to it, and pointing away
+      ok &= !bvh.closestHit(1.01f, 0.5f, 3.0f, 0.0f, 0.0f, -1.0f, Float.POSITIVE_INFINITY, hit);
+      ok &= !bvh.closestHit(0.5f, 0.5f, 3.0f, 1.0f, 0.0f, 0.0f, Float.POSITIVE_INFINITY, hit);
+      ok &= !bvh.closestHit(0.5f, 0.5f, 3.0f, 0.0f, 0.0f, 1.0f, Float.POSITIVE_INFINITY, hit);
+      System.out.format("MeshBVH axis-aligned rays: %s\n", ok ? "OK" : "PROBLEM");
+   }
+}
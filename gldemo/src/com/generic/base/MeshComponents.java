@@ -0,0 +1,170 @@
+package com.generic.base;
+
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Consumer;
+
+// ==================================================================
+// MeshComponents splits the triangles of a Mesh into connected
+// components, triangles being connected when they share an Edge
+// (triangles meeting only at a vertex are in different components).
+// Anything that walks the mesh from one root triangle, like the cut
+// graph in QuadCover, needs one root per component to reach everything.
+//
+// Components are numbered 0,1,2... in order of the lowest triangle index
+// in each, and that lowest triangle is the component's "root".
+//
+// The work is a union-find over triangle indices, with the edges
+// processed in parallel over ranges of edge indices on the common
+// fork/join pool.  The parents live in an AtomicIntegerArray: a union
+// links the root with the higher index under the other with
+// compareAndSet, retrying if another thread got there first, and finds
+// halve their paths as they go.  Always linking towards the lower index
+// means there can't be a cycle, and that each root is the lowest index
+// in its component.
+//
+// It's a snapshot: build a new one after the triangles change.
+// ==================================================================
+
+public class MeshComponents {
+
+   public final Mesh mesh;
+
+   public MeshComponents(Mesh mesh) {
+      this.mesh = mesh;
+      compute();
+   }
+
+   public int numComponents() {
+      return numComponents;
+   }
+   // The number of triangles in "component"
+   public int size(int component) {
+      return offsets[component + 1] - offsets[component];
+   }
+   public int componentOf(Mesh.Triangle triangle) {
+      return componentOfTriangle[triangle.getIndex()];
+   }
+   // The triangle with the lowest index in "component"
+   public Mesh.Triangle root(int component) {
+      return mesh.triangles.get(triangles[offsets[component]]);
+   }
+   // The triangles of "component", in order of index
+   public void forEachTriangle(int component, Consumer<Mesh.Triangle> action) {
+      for (int i = offsets[component]; i < offsets[component + 1]; ++i) {
+         action.accept(mesh.triangles.get(triangles[i]));
+      }
+   }
+
+   // ------------------------------------------
+   // Private
+   // ------------------------------------------
+
+   // Ranges of fewer indices than this are done without splitting further
+   private static final int INDICES_PER_TASK = 4096;
+
+   private AtomicIntegerArray parents;
+   private int[] componentOfTriangle;
+   private int numComponents;
+   private int[] offsets;
+   private int[] triangles;
+
+   private void compute() {
+      int numTriangles = mesh.triangles.size();
+      parents = new AtomicIntegerArray(numTriangles);
+      componentOfTriangle = new int[numTriangles];
+
+      new Task(Pass.INIT, 0, numTriangles).invoke();
+      new Task(Pass.UNION, 0, mesh.edges.size()).invoke();
+
+      numComponents = 0;
+      for (int i = 0; i < numTriangles; ++i) {
+         componentOfTriangle[i] = (parents.get(i) == i) ? numComponents++ : -1;
+      }
+      new Task(Pass.LABEL, 0, numTriangles).invoke();
+      parents = null;
+
+      // A counting sort of the triangles by component
+      offsets = new int[numComponents + 1];
+      for (int i = 0; i < numTriangles; ++i) {
+         offsets[componentOfTriangle[i] + 1]++;
+      }
+      for (int component = 0; component < numComponents; ++component) {
+         offsets[component + 1] += offsets[component];
+      }
+      triangles = new int[numTriangles];
+      int[] next = offsets.clone();
+      for (int i = 0; i < numTriangles; ++i) {
+         triangles[next[componentOfTriangle[i]]++] = i;
+      }
+   }
+
+   private enum Pass { INIT, UNION, LABEL };
+
+   private class Task extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+
+      private final Pass pass;
+      private final int first, last;
+
+      Task(Pass pass, int first, int last) {
+         this.pass = pass;
+         this.first = first;
+         this.last = last;
+      }
+      protected void compute() {
+         if (last - first > INDICES_PER_TASK) {
+            int middle = (first + last) >>> 1;
+            invokeAll(new Task(pass, first, middle),
+                      new Task(pass, middle, last));
+            return;
+         }
+         switch (pass) {
+            case INIT:
+               for (int i = first; i < last; ++i) {
+                  parents.set(i, i);
+               }
+               break;
+            case UNION:
+               for (int i = first; i < last; ++i) {
+                  Mesh.Edge e = mesh.edges.get(i);
+                  if (e.isBoundary()) continue;
+                  union(e.getFirst().getTriangle().getIndex(),
+                        ((Mesh.Triangle.Edge) e.getSecond()).getTriangle().getIndex());
+               }
+               break;
+            case LABEL:
+               for (int i = first; i < last; ++i) {
+                  componentOfTriangle[i] = componentOfTriangle[find(i)];
+               }
+               break;
+         }
+      }
+   }
+
+   private int find(int x) {
+      while (true) {
+         int parent = parents.get(x);
+         if (parent == x) return x;
+         int grandparent = parents.get(parent);
+         if (grandparent != parent) parents.compareAndSet(x, parent, grandparent);
+         x = grandparent;
+      }
+   }
+
+   private void union(int a, int b) {
+      while (true) {
+         a = find(a);
+         b = find(b);
+         if (a == b) return;
+         if (a < b) {
+            int t = a;
+            a = b;
+            b = t;
+         }
+         // Only a root can be linked, if "a" stopped being one since we
+         // found it, look again
+         if (parents.compareAndSet(a, a, b)) return;
+      }
+   }
+}
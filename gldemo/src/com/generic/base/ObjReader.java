@@ -0,0 +1,531 @@
+package com.generic.base;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+// ==================================================================
+// ObjReader reads the vertex positions and faces out of a Wavefront
+// OBJ file, straight from the bytes, without building Strings.
+//
+// Faces may have any number of vertices, each given as "v", "v/vt",
+// "v//vn" or "v/vt/vn" (only the "v" part is kept), and negative
+// indices count back from the most recent vertex.  Other lines
+// (texture coordinates, normals, groups, materials) are skipped.
+//
+// Large files are split at line breaks into chunks which are parsed in
+// parallel, then joined together.
+// ==================================================================
+
+public class ObjReader {
+
+   // 3 floats per vertex
+   public final float[] positions;
+   // The vertices of each face, one face after another, with "faceSizes"
+   // giving the number of vertices in each face
+   public final int[] faceVertices;
+   public final int[] faceSizes;
+
+   public int numVertices() {
+      return positions.length / 3;
+   }
+   public int numFaces() {
+      return faceSizes.length;
+   }
+
+   // ------------------------------------------
+   // Reading
+   // ------------------------------------------
+
+   public static ObjReader read(Path path) {
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+         if (channel.size() > Integer.MAX_VALUE) {
+            // Too large to map in one piece, so it'll have to be streamed:
+            try (InputStream stream = Files.newInputStream(path)) {
+               return read(stream);
+            }
+         }
+         return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), true);
+      } catch (IOException e) {
+         throw new RuntimeException(String.format("Failed to read \"%s\"", path), e);
+      }
+   }
+
+   // Reads the stream block by block, carrying any partial line at the end
+   // of each block over to the start of the next
+   public static ObjReader read(InputStream stream) {
+      Chunk chunk = new Chunk();
+      byte[] block = new byte[STREAM_BLOCK_BYTES];
+      int numBytes = 0;
+      try {
+         while (true) {
+            int numRead = stream.read(block, numBytes, block.length - numBytes);
+            if (numRead < 0) break;
+            numBytes += numRead;
+
+            int endOfLines = numBytes;
+            while ((endOfLines > 0) && (block[endOfLines - 1] != '\n')) endOfLines--;
+            if (endOfLines == 0) {
+               if (numBytes == block.length) block = Arrays.copyOf(block, 2 * block.length);
+               continue;
+            }
+            chunk.parse(ByteBuffer.wrap(block), 0, endOfLines);
+            System.arraycopy(block, endOfLines, block, 0, numBytes - endOfLines);
+            numBytes -= endOfLines;
+         }
+      } catch (IOException e) {
+         throw new RuntimeException("Failed to read OBJ stream", e);
+      }
+      chunk.parse(ByteBuffer.wrap(block), 0, numBytes);
+      return new ObjReader(new Chunk[] { chunk });
+   }
+
+   public static ObjReader read(ByteBuffer buffer) {
+      return read(buffer, true);
+   }
+
+   // Reads the remaining bytes of the buffer, which itself is left as it was
+   public static ObjReader read(ByteBuffer buffer, boolean parallel) {
+      int start = buffer.position();
+      int end = buffer.limit();
+      int numChunks = 1;
+      if (parallel) {
+         numChunks = Math.min(4 * ForkJoinPool.getCommonPoolParallelism(),
+                              (end - start) / MIN_CHUNK_BYTES);
+         numChunks = Math.max(numChunks, 1);
+      }
+
+      // Each chunk boundary is moved forward to the start of a line:
+      Chunk[] chunks = new Chunk[numChunks];
+      int chunkStart = start;
+      for (int i = 0; i < numChunks; ++i) {
+         int chunkEnd = (i == numChunks - 1) ? end
+                      : Math.max(chunkStart, start + (int)((long)(end - start) * (i + 1) / numChunks));
+         while ((chunkEnd < end) && (chunkEnd > chunkStart) && (buffer.get(chunkEnd - 1) != '\n')) chunkEnd++;
+         chunks[i] = new Chunk(buffer, chunkStart, chunkEnd);
+         chunkStart = chunkEnd;
+      }
+      if (numChunks == 1) {
+         chunks[0].compute();
+      } else {
+         ForkJoinTask.invokeAll(chunks);
+      }
+      return new ObjReader(chunks);
+   }
+
+   // ------------------------------------------
+   // Private
+   // ------------------------------------------
+
+   private static final int STREAM_BLOCK_BYTES = 1 << 20;
+   private static final int MIN_CHUNK_BYTES = 1 << 20;
+
+   // Joins the chunks together, turning the negative indices (which each
+   // chunk could only resolve relative to its own first vertex) into
+   // vertex indices for the whole file
+   private ObjReader(Chunk[] chunks) {
+      int numFloats = 0, numCorners = 0, numFaces = 0;
+      for (Chunk chunk : chunks) {
+         numFloats += chunk.numFloats;
+         numCorners += chunk.numCorners;
+         numFaces += chunk.numFaces;
+      }
+      positions = new float[numFloats];
+      faceVertices = new int[numCorners];
+      faceSizes = new int[numFaces];
+
+      numFloats = 0; numCorners = 0; numFaces = 0;
+      for (Chunk chunk : chunks) {
+         int firstVertex = numFloats / 3;
+         System.arraycopy(chunk.positions, 0, positions, numFloats, chunk.numFloats);
+         System.arraycopy(chunk.faceVertices, 0, faceVertices, numCorners, chunk.numCorners);
+         System.arraycopy(chunk.faceSizes, 0, faceSizes, numFaces, chunk.numFaces);
+         for (int i = 0; i < chunk.numRelativeCorners; ++i) {
+            faceVertices[numCorners + chunk.relativeCorners[i]] += firstVertex;
+         }
+         numFloats += chunk.numFloats;
+         numCorners += chunk.numCorners;
+         numFaces += chunk.numFaces;
+      }
+
+      int numVertices = numVertices();
+      for (int vertex : faceVertices) {
+         if ((vertex < 0) || (vertex >= numVertices)) {
+            throw new RuntimeException(String.format(
+               "Face refers to vertex %d, but there are only %d vertices", vertex + 1, numVertices));
+         }
+      }
+   }
+
+   // ==================================================================
+   // A Chunk parses a range of lines into its own growable arrays.
+   // Positive indices are stored as 0-based vertex indices; negative ones
+   // are stored relative to the chunk's first vertex, and listed in
+   // "relativeCorners" to be fixed once the earlier chunks are counted.
+   // ==================================================================
+
+   private static class Chunk extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+
+      Chunk() {
+         this(null, 0, 0);
+      }
+      Chunk(ByteBuffer buffer, int start, int end) {
+         this.buffer = buffer;
+         this.start = start;
+         this.end = end;
+      }
+      protected void compute() {
+         parse(buffer, start, end);
+      }
+
+      float[] positions = new float[48];
+      int numFloats;
+      int[] faceVertices = new int[64];
+      int numCorners;
+      int[] faceSizes = new int[16];
+      int numFaces;
+      int[] relativeCorners = new int[4];
+      int numRelativeCorners;
+
+      // - - - - - - - - - - - - -
+      private ByteBuffer buffer;
+      private int start, end, pos;
+
+      void parse(ByteBuffer buffer, int start, int end) {
+         this.buffer = buffer;
+         this.end = end;
+         pos = start;
+         while (pos < end) {
+            byte c = buffer.get(pos);
+            if ((c == 'v') && isSpace(pos + 1)) {
+               pos += 2;
+               parseVertex();
+            } else if ((c == 'f') && isSpace(pos + 1)) {
+               pos += 2;
+               parseFace();
+            }
+            skipLine();
+         }
+      }
+
+      private void parseVertex() {
+         if (numFloats + 3 > positions.length) {
+            positions = Arrays.copyOf(positions, 2 * positions.length);
+         }
+         // Any 4th (w) or further (color) values are ignored
+         positions[numFloats + 0] = nextFloat();
+         positions[numFloats + 1] = nextFloat();
+         positions[numFloats + 2] = nextFloat();
+         numFloats += 3;
+      }
+
+      private void parseFace() {
+         int firstCorner = numCorners;
+         while (true) {
+            skipSpaces();
+            if (isEndOfLine()) break;
+            if (numCorners == faceVertices.length) {
+               faceVertices = Arrays.copyOf(faceVertices, 2 * faceVertices.length);
+            }
+            int vertex = nextIndex();
+            faceVertices[numCorners++] = vertex;
+         }
+         int faceSize = numCorners - firstCorner;
+         if (faceSize < 3) {
+            throw new RuntimeException(String.format(
+               "Face with %d vertices, before byte %d", faceSize, pos));
+         }
+         if (numFaces == faceSizes.length) {
+            faceSizes = Arrays.copyOf(faceSizes, 2 * faceSizes.length);
+         }
+         faceSizes[numFaces++] = faceSize;
+      }
+
+      // Reads "v", "v/vt", "v//vn" or "v/vt/vn", returning the vertex index
+      private int nextIndex() {
+         int tokenStart = pos;
+         boolean negative = consumeSign();
+         int value = 0;
+         int numDigits = 0;
+         byte c;
+         while ((pos < end) && isDigit(c = buffer.get(pos))) {
+            value = value * 10 + (c - '0');
+            numDigits++;
+            pos++;
+         }
+         if ((numDigits == 0) || (numDigits > 9) || (value == 0)) {
+            throw new RuntimeException(String.format(
+               "Bad vertex index \"%s\" at byte %d", token(tokenStart), tokenStart));
+         }
+         // Skip the texture-coordinate and normal indices
+         while ((pos < end) && !isSeparator(buffer.get(pos))) pos++;
+
+         if (!negative) return value - 1;
+
+         if (numRelativeCorners == relativeCorners.length) {
+            relativeCorners = Arrays.copyOf(relativeCorners, 2 * relativeCorners.length);
+         }
+         relativeCorners[numRelativeCorners++] = numCorners;
+         return numFloats / 3 - value;
+      }
+
+      // Numbers of up to 18 significant digits with a decimal exponent of
+      // at most 22 either way are converted with a single exact double
+      // multiply or divide, anything else falls back to Float.parseFloat
+      private float nextFloat() {
+         skipSpaces();
+         int tokenStart = pos;
+         boolean negative = consumeSign();
+         long mantissa = 0;
+         int exponent = 0;
+         int numDigits = 0;
+         boolean anyDigits = false;
+         boolean exact = true;
+         byte c = 0;
+
+         while ((pos < end) && isDigit(c = buffer.get(pos))) {
+            if (numDigits < 18) {
+               mantissa = mantissa * 10 + (c - '0');
+               if (mantissa != 0) numDigits++;
+            } else {
+               exponent++;
+               exact = false;
+            }
+            anyDigits = true;
+            pos++;
+         }
+         if ((pos < end) && (c == '.')) {
+            pos++;
+            while ((pos < end) && isDigit(c = buffer.get(pos))) {
+               if (numDigits < 18) {
+                  mantissa = mantissa * 10 + (c - '0');
+                  if (mantissa != 0) numDigits++;
+                  exponent--;
+               } else {
+                  exact = false;
+               }
+               anyDigits = true;
+               pos++;
+            }
+         }
+         if (anyDigits && (pos < end) && ((c == 'e') || (c == 'E'))) {
+            pos++;
+            boolean negativeExponent = consumeSign();
+            int value = 0;
+            anyDigits = false;
+            while ((pos < end) && isDigit(c = buffer.get(pos))) {
+               if (value < 10000) value = value * 10 + (c - '0');
+               anyDigits = true;
+               pos++;
+            }
+            exponent += negativeExponent ? -value : value;
+         }
+
+         if (!anyDigits || ((pos < end) && !isSeparator(buffer.get(pos)))) {
+            // Something unusual, like "nan", "inf" or hex, or just not a number
+            while ((pos < end) && !isSeparator(buffer.get(pos))) pos++;
+            String token = token(tokenStart);
+            try {
+               return Float.parseFloat(token);
+            } catch (NumberFormatException e) {
+               throw new RuntimeException(String.format(
+                  "Bad number \"%s\" at byte %d", token, tokenStart));
+            }
+         }
+         if (!exact || (mantissa >= (1L << 53)) || (exponent < -22) || (exponent > 22)) {
+            return Float.parseFloat(token(tokenStart));
+         }
+         double value = (exponent < 0) ? (mantissa / POWERS_OF_TEN[-exponent])
+                                        : (mantissa * POWERS_OF_TEN[exponent]);
+         return (float) (negative ? -value : value);
+      }
+
+      // - - - - - - - - - - - - -
+      private boolean consumeSign() {
+         if (pos >= end) return false;
+         byte c = buffer.get(pos);
+         if ((c == '-') || (c == '+')) pos++;
+         return (c == '-');
+      }
+      private void skipSpaces() {
+         while ((pos < end) && isSpace(buffer.get(pos))) pos++;
+      }
+      private void skipLine() {
+         while ((pos < end) && (buffer.get(pos++) != '\n')) {}
+      }
+      private boolean isEndOfLine() {
+         return (pos >= end) || (buffer.get(pos) == '\n') || (buffer.get(pos) == '#');
+      }
+      private boolean isSpace(int position) {
+         return (position < end) && isSpace(buffer.get(position));
+      }
+      private String token(int tokenStart) {
+         int tokenEnd = tokenStart;
+         while ((tokenEnd < end) && !isSeparator(buffer.get(tokenEnd))) tokenEnd++;
+         byte[] bytes = new byte[tokenEnd - tokenStart];
+         for (int i = 0; i < bytes.length; ++i) bytes[i] = buffer.get(tokenStart + i);
+         return new String(bytes, StandardCharsets.US_ASCII);
+      }
+      private static boolean isDigit(byte c) {
+         return (c >= '0') && (c <= '9');
+      }
+      private static boolean isSpace(byte c) {
+         return (c == ' ') || (c == '\t') || (c == '\r');
+      }
+      private static boolean isSeparator(byte c) {
+         return isSpace(c) || (c == '\n') || (c == '#');
+      }
+   }
+
+   private static final double[] POWERS_OF_TEN = {
+      1e0,  1e1,  1e2,  1e3,  1e4,  1e5,  1e6,  1e7,  1e8,  1e9,  1e10, 1e11,
+      1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+   };
+
+   // -----------------------------------------------------------------------
+   // TESTING
+   // -----------------------------------------------------------------------
+
+   // Times reading the given OBJ file contents the old way (one String,
+   // split into lines and tokens, a boxed object per vertex and face)
+   // against this reader, serial and parallel, and prints MB/s for each.
+   public static void benchmark(byte[] obj, String label) {
+      double megabytes = obj.length / (1024.0 * 1024.0);
+      long bestSplit = Long.MAX_VALUE, bestSerial = Long.MAX_VALUE, bestParallel = Long.MAX_VALUE;
+      int numRuns = Math.max(3, Math.min(20, (int)(100 / megabytes)));
+      for (int run = 0; run < numRuns; ++run) {
+         long start = System.nanoTime();
+         int numSplit = readWithSplit(new String(obj, StandardCharsets.US_ASCII));
+         long middle = System.nanoTime();
+         ObjReader serial = read(ByteBuffer.wrap(obj), false);
+         long middle2 = System.nanoTime();
+         ObjReader parallel = read(ByteBuffer.wrap(obj), true);
+         long end = System.nanoTime();
+
+         if ((numSplit != serial.numFaces()) || (parallel.numFaces() != serial.numFaces())) {
+            System.out.format("PROBLEM: %d, %d, %d faces\n", numSplit, serial.numFaces(), parallel.numFaces());
+         }
+         bestSplit = Math.min(bestSplit, middle - start);
+         bestSerial = Math.min(bestSerial, middle2 - middle);
+         bestParallel = Math.min(bestParallel, end - middle2);
+      }
+      System.out.format("%s (%.1f MB): split %.1f MB/s, serial %.1f MB/s, parallel %.1f MB/s\n", label, megabytes,
+            megabytes / (bestSplit * 1e-9), megabytes / (bestSerial * 1e-9), megabytes / (bestParallel * 1e-9));
+   }
+
+   // Reads an OBJ file of a few MB, large enough to be split into
+   // several chunks, serially, in parallel and as a stream, and checks
+   // that all three give exactly the positions and faces it was written
+   // from.  The rows of vertices are interleaved with the faces, and
+   // every other face uses negative indices with "v/vt/vn" corners, so
+   // faces in one chunk refer back to vertices in the chunks before it.
+   public static void testParallel() {
+      int n = 400;
+      float[] positions = new float[3 * (n + 1) * (n + 1)];
+      int[] faceVertices = new int[4 * n * n];
+      int[] faceSizes = new int[n * n];
+      Arrays.fill(faceSizes, 4);
+
+      StringBuilder obj = new StringBuilder("# interleaved grid\n");
+      int numFaces = 0;
+      for (int y = 0; y <= n; ++y) {
+         for (int x = 0; x <= n; ++x) {
+            int v = y * (n + 1) + x;
+            positions[3 * v]     = x * 0.01f;
+            positions[3 * v + 1] = y * 0.01f;
+            positions[3 * v + 2] = (float) Math.sin(x * 0.37) * (float) Math.cos(y * 0.23);
+            obj.append("v ").append(positions[3 * v]).append(' ').append(positions[3 * v + 1])
+               .append(' ').append(positions[3 * v + 2]).append('\n');
+         }
+         if (y == 0) continue;
+         int numVertices = (y + 1) * (n + 1);
+         for (int x = 0; x < n; ++x, ++numFaces) {
+            int v = (y - 1) * (n + 1) + x;
+            int[] corners = { v, v + 1, v + n + 2, v + n + 1 };
+            System.arraycopy(corners, 0, faceVertices, 4 * numFaces, 4);
+            obj.append('f');
+            for (int corner : corners) {
+               if ((numFaces & 1) == 0) {
+                  obj.append(' ').append(corner + 1);
+               } else {
+                  obj.append(' ').append(corner - numVertices).append("/1/").append(corner + 1);
+               }
+            }
+            obj.append('\n');
+         }
+      }
+      byte[] bytes = obj.toString().getBytes(StandardCharsets.US_ASCII);
+
+      ObjReader[] readers = {
+         read(ByteBuffer.wrap(bytes), false),
+         read(ByteBuffer.wrap(bytes), true),
+         read(new ByteArrayInputStream(bytes))
+      };
+      boolean ok = (bytes.length >= 2 * MIN_CHUNK_BYTES);
+      for (ObjReader reader : readers) {
+         ok &= Arrays.equals(reader.positions, positions)
+            && Arrays.equals(reader.faceVertices, faceVertices)
+            && Arrays.equals(reader.faceSizes, faceSizes);
+      }
+      System.out.format("ObjReader parallel: %s\n", ok ? "OK" : "PROBLEM");
+   }
+
+   // An OBJ file of an n x n grid of quads, with bumpy heights
+   public static byte[] syntheticGrid(int n) {
+      StringBuilder obj = new StringBuilder();
+      for (int y = 0; y <= n; ++y) {
+         for (int x = 0; x <= n; ++x) {
+            obj.append("v ").append(x * 0.01f).append(' ').append(y * 0.01f).append(' ')
+               .append((float) Math.sin(x * 0.37) * (float) Math.cos(y * 0.23)).append('\n');
+         }
+      }
+      for (int y = 0; y < n; ++y) {
+         for (int x = 0; x < n; ++x) {
+            int v = y * (n + 1) + x + 1;
+            obj.append("f ").append(v).append(' ').append(v + 1).append(' ')
+               .append(v + n + 2).append(' ').append(v + n + 1).append('\n');
+         }
+      }
+      return obj.toString().getBytes(StandardCharsets.US_ASCII);
+   }
+
+   // The way "Mesh.loadMesh" used to read OBJ files, except it takes
+   // faces of any size.  Returns the number of faces.
+   private static int readWithSplit(String serialized) {
+      ArrayList<float[]> vertexPositions = new ArrayList<float[]>();
+      ArrayList<int[]> faces = new ArrayList<int[]>();
+      for (String line : serialized.split("\n")) {
+         if (line.isEmpty() || (line.charAt(0) == '#')) {
+            continue;
+         }
+         if (line.startsWith("v ")) {
+            String[] pieces = line.substring(2).split(" ");
+            vertexPositions.add(new float[] {
+               Float.valueOf(pieces[0]), Float.valueOf(pieces[1]), Float.valueOf(pieces[2]) });
+            continue;
+         }
+         if (line.startsWith("f ")) {
+            String[] pieces = line.substring(2).split(" ");
+            int[] face = new int[pieces.length];
+            for (int i = 0; i < pieces.length; ++i) {
+               face[i] = Integer.valueOf(pieces[i]) - 1;
+            }
+            faces.add(face);
+            continue;
+         }
+      }
+      return faces.size();
+   }
+}
@@ -373,24 +373,30 @@ public class QuadCover {
          CutGraphInfo result = new CutGraphInfo(mesh);
          
          // 1. For each Triangle, compute its center position
-         final Vector3[] triangleCenters = new Vector3[mesh.triangles.size()];
+         // (3 floats per triangle, kept out of Vector3s with the Vec3 kernels)
+         final float[] triangleCenters = new float[3 * mesh.triangles.size()];
+         final Vec3 center = new Vec3();
          for (int i = 0; i < mesh.triangles.size(); ++i) {
             Mesh.Triangle t = mesh.triangles.get(i);
-            triangleCenters[i] = (t.vertices[0].getPosition()
-                            .plus(t.vertices[1].getPosition())
-                            .plus(t.vertices[2].getPosition())).times(1.0f/3.0f);
+            Vector3 p0 = t.vertices[0].getPosition();
+            Vector3 p1 = t.vertices[1].getPosition();
+            Vector3 p2 = t.vertices[2].getPosition();
+            center.set(p0.x + p1.x + p2.x, p0.y + p1.y + p2.y, p0.z + p1.z + p2.z)
+                  .scale(1.0f/3.0f).store(triangleCenters, 3 * i);
          }
          // 2. For each non-boundary edge compute the distance
          // between the centers of the two adjacent triangles
          final float[] dualLen = new float[mesh.edges.size()];
+         final float[] delta = new float[3];
          for (int i = 0; i < mesh.edges.size(); ++i) {
             Mesh.Edge e = mesh.edges.get(i);
             e.computeLength();
             if (!e.isBoundary()) {
                Mesh.Triangle t1 = e.getFirst().getTriangle();
                Mesh.Triangle t2 = ((Mesh.Triangle.Edge) e.getSecond()).getTriangle();
-               dualLen[i] = triangleCenters[t1.getIndex()]
-                     .minus(triangleCenters[t2.getIndex()]).length();
+               Vec3.sub(triangleCenters, 3 * t1.getIndex(),
+                        triangleCenters, 3 * t2.getIndex(), delta, 0);
+               dualLen[i] = (float) Math.sqrt(Vec3.lengthSq(delta, 0));
             }
          }
        
@@ -411,7 +417,12 @@ public class QuadCover {
                return Float.compare(shortestPathInfo[o1.getIndex()].distanceToRoot,
                                     shortestPathInfo[o2.getIndex()].distanceToRoot);
             }});
-         queue.add(mesh.triangles.get(0));  // Starting from an ARBITRARY root triangle
+         // Starting from an ARBITRARY root triangle in each connected piece
+         // of the mesh, so that every triangle is reached
+         MeshComponents components = new MeshComponents(mesh);
+         for (int i = 0; i < components.numComponents(); ++i) {
+            queue.add(components.root(i));
+         }
          
          while (!queue.isEmpty()) {
             Mesh.Triangle t = queue.remove();
@@ -419,7 +430,7 @@ public class QuadCover {
             ti.fixed = true;
             
             for (Mesh.Triangle.Edge e : t.edges) {
-               if (e.isBoundary()) continue;
+               if (e.getEdge().isBoundary()) continue;
 
                // For all the non-boundary edges of triangle t:
                float eDualLen = dualLen[e.getEdge().getIndex()];
@@ -445,9 +456,8 @@ public class QuadCover {
             }
          }
          
-         // TODO -- at this point we should CHECK that all triangles have been reached.   there's nothing
-         // in "mesh" guaranteeing that the mesh is connected, indeed someone MIGHT pass in a mesh consisting
-         // of multiple disconnected pieces .. we need a solution for that...
+         // Every triangle has now been reached: the root of each piece has no
+         // edgeIndexTowardsRoot, every other triangle has one
          
          // 4. Mark all edges that don't cross the shortest-path-tree
          final boolean[] inCutGraph = new boolean[mesh.edges.size()];
@@ -1829,8 +1839,8 @@ public class QuadCover {
          }
          
          // create two large sparse matrices
-         SparseMatrix m = new SparseMatrix(numInternalVertices,numInternalVertices);
-         SparseMatrix mb = new SparseMatrix(numInternalVertices,numBoundaryVertices);
+         SparseMatrix.Builder mBuilder = new SparseMatrix.Builder(numInternalVertices,numInternalVertices);
+         SparseMatrix.Builder mbBuilder = new SparseMatrix.Builder(numInternalVertices,numBoundaryVertices);
          
          // now compute for every INTERNAL vertex a vector of LAMBDAs
          // describing it as an affine combination of its neighbors.
@@ -1872,18 +1882,20 @@ public class QuadCover {
             // This internal vertex i is setting the nonzero elements of the i'th row of ma and mb:
             
             int vIndex = v.getIndex();
-            m.set(vIndex, vIndex, 1.0);
+            mBuilder.add(vIndex, vIndex, 1.0);
             
             for (i=0; i < lambda.length; ++i) {
                int neighborIndex = neighbors[i].getIndex();
                
                if (neighborIndex < numInternalVertices) {
-                  m.set(vIndex, neighborIndex, -lambda[i]);
+                  mBuilder.add(vIndex, neighborIndex, -lambda[i]);
                } else {
-                  mb.set(vIndex, neighborIndex-numInternalVertices, lambda[i]);
+                  mbBuilder.add(vIndex, neighborIndex-numInternalVertices, lambda[i]);
                }
             }
          }
+         SparseMatrix m = mBuilder.build();
+         SparseMatrix mb = mbBuilder.build();
          
          // --------------------------------------
          // Is this matrix symmetric?
@@ -1916,10 +1928,16 @@ public class QuadCover {
          System.out.format("CALLING withSolver on the %d x %d matrix\n", numInternalVertices, numInternalVertices);
          System.out.format("Now calling solve...\n");
          long midTime = System.currentTimeMillis();
-         Vector result_x = m.solve(b_x);  //solver.solve(b_x);
-         Vector result_y = m.solve(b_y);
+         // One factoring of m, then u and v solved together in one sweep
+         SparseLU lu = m.factorization();
+         long factorTime = System.currentTimeMillis();
+         Vector result_x = new Vector(numInternalVertices);
+         Vector result_y = new Vector(numInternalVertices);
+         lu.solve(new double[][] { b_x.values, b_y.values },
+                  new double[][] { result_x.values, result_y.values });
          long finalTime = System.currentTimeMillis();
-         System.out.format("Done -- in %d ms!\n", (finalTime-midTime));
+         System.out.format("Done -- in %d ms!  (%d ms factoring, %d nonzeros in LU, %d in m)\n",
+               (finalTime-midTime), (factorTime-midTime), lu.symbolic.numFactorNonzeros(), m.numNonzeros());
    
          for (int i = 0; i < numInternalVertices; ++i) {
             internalVertices.get(i).texCoords = new Vector2((float) result_x.values[i], (float) result_y.values[i]);
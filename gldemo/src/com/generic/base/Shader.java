@@ -319,7 +319,10 @@ public class Shader {
          } else {
             if ((array == null) || (array.length != newNumFloats)) {
                array = new float[newNumFloats];
-               
+            }
+            // The native buffer is only reallocated when it's too small,
+            // allocateDirect is far more costly than a Java array
+            if ((floatBuffer == null) || (floatBuffer.capacity() < newNumFloats)) {
                System.out.format("NATIVE-ARRAY-ALLOC ing ... %d floats ... calling allocateDirect with %d\n",
                      array.length, array.length * 4);
                
@@ -328,9 +331,9 @@ public class Shader {
                floatBuffer = byteBuffer.asFloatBuffer();
             }
             fillBuffer(array);
-            floatBuffer.position(0);
+            floatBuffer.clear();
             floatBuffer.put(array);
-            floatBuffer.position(0);
+            floatBuffer.flip();
          }
          setModified(false);
       }
@@ -356,15 +359,16 @@ public class Shader {
          } else {
             if ((array == null) || (array.length != newNumInts)) {
                array = new int[newNumInts];
-               
+            }
+            if ((intBuffer == null) || (intBuffer.capacity() < newNumInts)) {
                ByteBuffer byteBuffer = ByteBuffer.allocateDirect(array.length * 4);
                byteBuffer.order(ByteOrder.nativeOrder());
                intBuffer = byteBuffer.asIntBuffer();
             }
             fillBuffer(array);
-            intBuffer.position(0);
+            intBuffer.clear();
             intBuffer.put(array);
-            intBuffer.position(0);
+            intBuffer.flip();
             System.out.format("Actually filled int-buffer data with put call...\n");
          }
          setModified(false);
@@ -389,11 +393,14 @@ public class Shader {
       public void setup() {
          int[] pixels = ((Data.Array.Integers)(image.data)).array();
          
-         ByteBuffer byteBuffer = ByteBuffer.allocateDirect(pixels.length * 4);
-         byteBuffer.order(ByteOrder.nativeOrder());
-         intBuffer = byteBuffer.asIntBuffer();
+         if ((intBuffer == null) || (intBuffer.capacity() < pixels.length)) {
+            ByteBuffer byteBuffer = ByteBuffer.allocateDirect(pixels.length * 4);
+            byteBuffer.order(ByteOrder.nativeOrder());
+            intBuffer = byteBuffer.asIntBuffer();
+         }
+         intBuffer.clear();
          intBuffer.put(pixels);
-         intBuffer.position(0);
+         intBuffer.flip();
       }
       
       public Variable.Sampler.Type type;
@@ -417,11 +424,14 @@ public class Shader {
       public void setup() {
          float[] pixels = ((Data.Array.Floats)(image.data)).array();
          
-         ByteBuffer byteBuffer = ByteBuffer.allocateDirect(pixels.length * 4);
-         byteBuffer.order(ByteOrder.nativeOrder());
-         floatBuffer = byteBuffer.asFloatBuffer();
+         if ((floatBuffer == null) || (floatBuffer.capacity() < pixels.length)) {
+            ByteBuffer byteBuffer = ByteBuffer.allocateDirect(pixels.length * 4);
+            byteBuffer.order(ByteOrder.nativeOrder());
+            floatBuffer = byteBuffer.asFloatBuffer();
+         }
+         floatBuffer.clear();
          floatBuffer.put(pixels);
-         floatBuffer.position(0);
+         floatBuffer.flip();
       }
       
       public Variable.Sampler.Type type;
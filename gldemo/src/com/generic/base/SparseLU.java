@@ -0,0 +1,583 @@
+package com.generic.base;
+
+import java.util.Arrays;
+
+import com.generic.base.Algebra.SparseMatrix;
+import com.generic.base.Algebra.Vector;
+
+// ==================================================================
+// SparseLU factors a square SparseMatrix A into P A Pt = L U, with L
+// unit lower-triangular, U upper-triangular and P a permutation, so that
+// A x = b can be solved exactly by two triangular sweeps.  Factoring costs
+// far more than one sweep, so this pays off when the same matrix is
+// solved with several right-hand sides, like the u and v texture
+// coordinates in QuadCover, which "solve" can do together in one sweep.
+//
+// Factoring is split in two:
+//
+//    Symbolic  depends only on where A's nonzeros are.  It chooses P by
+//              "nested dissection", which keeps the fill-in (the nonzeros
+//              of L and U that aren't in A) small, and works out where
+//              every nonzero of L and U will be.
+//    SparseLU  the numbers, given a Symbolic and the values of A.
+//
+// After a mesh edit that moves vertices but doesn't change its
+// connectivity, the new matrix has the same nonzeros, so a new SparseLU
+// can reuse the old one's Symbolic and skip straight to the numbers.
+//
+// The factoring doesn't pivot: the diagonal is used as it comes, which
+// is stable for diagonally dominant matrices (like the mean-value
+// Laplacian) and for symmetric positive-definite ones, and throws if it
+// hits a zero pivot.  L and U are given the same (symmetric) pattern,
+// that of A + At, so U's row k is stored alongside L's column k.
+// ==================================================================
+
+public class SparseLU {
+
+   public static class Symbolic {
+      public final int n;
+      // Row/column k of the permuted matrix is row/column "permutation[k]"
+      // of A, and "inverse" takes it back
+      public final int[] permutation;
+      public final int[] inverse;
+
+      // Column k of L (and row k of U) has its nonzeros below (right of)
+      // the diagonal at positions colStarts[k] to colStarts[k+1]-1 of
+      // "rowIndices", in increasing order
+      final int[] colStarts;
+      final int[] rowIndices;
+
+      // Row k of L (column k of U), which the left-looking factoring
+      // reads from: the columns c < k that have a nonzero in row k, and
+      // where in column c's part of "rowIndices" that nonzero is
+      final int[] rowStarts;
+      final int[] rowColumns;
+      final int[] rowPositions;
+
+      private final SparseMatrix pattern;
+
+      public static Symbolic analyze(SparseMatrix a) {
+         if (a.numRows != a.numCols) {
+            throw new RuntimeException(String.format("%d x %d sparse matrix cant factor nonsquare",
+                  a.numRows, a.numCols));
+         }
+         return new NestedDissection(a).symbolic();
+      }
+
+      // Whether "a" has exactly the nonzeros this was analyzed for
+      public boolean matches(SparseMatrix a) {
+         return pattern.samePattern(a);
+      }
+      // The number of nonzeros in L and U together, including the diagonal
+      public int numFactorNonzeros() {
+         return n + 2 * colStarts[n];
+      }
+
+      private Symbolic(SparseMatrix pattern, int[] permutation, int[] colStarts, int[] rowIndices) {
+         this.pattern = pattern;
+         this.n = permutation.length;
+         this.permutation = permutation;
+         this.inverse = new int[n];
+         for (int k = 0; k < n; ++k) {
+            inverse[permutation[k]] = k;
+         }
+         this.colStarts = colStarts;
+         this.rowIndices = rowIndices;
+
+         // Transposing the column pattern, going through the columns in
+         // order leaves every row in order
+         int numNonzeros = colStarts[n];
+         rowStarts = new int[n + 1];
+         for (int i = 0; i < numNonzeros; ++i) {
+            rowStarts[rowIndices[i] + 1]++;
+         }
+         for (int k = 0; k < n; ++k) {
+            rowStarts[k + 1] += rowStarts[k];
+         }
+         rowColumns = new int[numNonzeros];
+         rowPositions = new int[numNonzeros];
+         int[] next = Arrays.copyOf(rowStarts, n);
+         for (int c = 0; c < n; ++c) {
+            for (int i = colStarts[c]; i < colStarts[c + 1]; ++i) {
+               int j = next[rowIndices[i]]++;
+               rowColumns[j] = c;
+               rowPositions[j] = i;
+            }
+         }
+      }
+   }
+
+   public final Symbolic symbolic;
+
+   public SparseLU(SparseMatrix matrix) {
+      this(Symbolic.analyze(matrix), matrix);
+   }
+   public SparseLU(Symbolic symbolic, SparseMatrix matrix) {
+      if (!symbolic.matches(matrix)) {
+         throw new RuntimeException(String.format(
+               "%d x %d sparse matrix doesn't have the nonzeros its Symbolic was analyzed for",
+               matrix.numRows, matrix.numCols));
+      }
+      this.symbolic = symbolic;
+      int numNonzeros = symbolic.colStarts[symbolic.n];
+      lValues = new double[numNonzeros];
+      uValues = new double[numNonzeros];
+      diagonal = new double[symbolic.n];
+      factor(matrix);
+   }
+
+   public Vector solve(Vector b) {
+      Vector x = new Vector(symbolic.n);
+      solve(b.values, x.values);
+      return x;
+   }
+   // Solves A x = b.  "b" and "x" may be the same array.
+   public void solve(double[] b, double[] x) {
+      int n = symbolic.n;
+      if ((b.length != n) || (x.length != n)) {
+         throw new RuntimeException(String.format("%d x %d sparse LU solve given %d length b, %d length x",
+               n, n, b.length, x.length));
+      }
+      int[] permutation = symbolic.permutation;
+      int[] colStarts = symbolic.colStarts;
+      int[] rowIndices = symbolic.rowIndices;
+      double[] y = new double[n];
+      for (int k = 0; k < n; ++k) {
+         y[k] = b[permutation[k]];
+      }
+      for (int k = 0; k < n; ++k) {
+         double yk = y[k];
+         for (int i = colStarts[k]; i < colStarts[k + 1]; ++i) {
+            y[rowIndices[i]] -= lValues[i] * yk;
+         }
+      }
+      for (int k = n - 1; k >= 0; --k) {
+         double sum = y[k];
+         for (int i = colStarts[k]; i < colStarts[k + 1]; ++i) {
+            sum -= uValues[i] * y[rowIndices[i]];
+         }
+         y[k] = sum / diagonal[k];
+      }
+      for (int k = 0; k < n; ++k) {
+         x[permutation[k]] = y[k];
+      }
+   }
+   // Solves A x[r] = b[r] for every r together, reading each nonzero of L
+   // and U once for all of them
+   public void solve(double[][] b, double[][] x) {
+      int n = symbolic.n;
+      int numRhs = b.length;
+      if (x.length != numRhs) {
+         throw new RuntimeException(String.format("Sparse LU solve given %d b's but %d x's",
+               numRhs, x.length));
+      }
+      for (int r = 0; r < numRhs; ++r) {
+         if ((b[r].length != n) || (x[r].length != n)) {
+            throw new RuntimeException(String.format("%d x %d sparse LU solve given %d length b, %d length x",
+                  n, n, b[r].length, x[r].length));
+         }
+      }
+      int[] permutation = symbolic.permutation;
+      int[] colStarts = symbolic.colStarts;
+      int[] rowIndices = symbolic.rowIndices;
+
+      // The right-hand sides interleaved, y[numRhs*k + r]
+      double[] y = new double[n * numRhs];
+      for (int k = 0; k < n; ++k) {
+         for (int r = 0; r < numRhs; ++r) {
+            y[numRhs * k + r] = b[r][permutation[k]];
+         }
+      }
+      for (int k = 0; k < n; ++k) {
+         int yk = numRhs * k;
+         for (int i = colStarts[k]; i < colStarts[k + 1]; ++i) {
+            double l = lValues[i];
+            int yi = numRhs * rowIndices[i];
+            for (int r = 0; r < numRhs; ++r) {
+               y[yi + r] -= l * y[yk + r];
+            }
+         }
+      }
+      for (int k = n - 1; k >= 0; --k) {
+         int yk = numRhs * k;
+         for (int i = colStarts[k]; i < colStarts[k + 1]; ++i) {
+            double u = uValues[i];
+            int yi = numRhs * rowIndices[i];
+            for (int r = 0; r < numRhs; ++r) {
+               y[yk + r] -= u * y[yi + r];
+            }
+         }
+         double inverseDiagonal = 1.0 / diagonal[k];
+         for (int r = 0; r < numRhs; ++r) {
+            y[yk + r] *= inverseDiagonal;
+         }
+      }
+      for (int k = 0; k < n; ++k) {
+         for (int r = 0; r < numRhs; ++r) {
+            x[r][permutation[k]] = y[numRhs * k + r];
+         }
+      }
+   }
+
+   // ------------------------------------------
+   // Private
+   // ------------------------------------------
+
+   private final double[] lValues;
+   private final double[] uValues;
+   private final double[] diagonal;
+
+   // Left-looking: column k of L and row k of U are scattered from A into
+   // dense work vectors, every earlier column with a nonzero in row k is
+   // subtracted from them, and they're gathered back
+   private void factor(SparseMatrix a) {
+      int n = symbolic.n;
+      int[] permutation = symbolic.permutation;
+      int[] inverse = symbolic.inverse;
+      int[] colStarts = symbolic.colStarts;
+      int[] rowIndices = symbolic.rowIndices;
+      int[] rowStarts = symbolic.rowStarts;
+      int[] rowColumns = symbolic.rowColumns;
+      int[] rowPositions = symbolic.rowPositions;
+      SparseMatrix aT = a.transpose();
+
+      double[] column = new double[n];
+      double[] row = new double[n];
+      for (int k = 0; k < n; ++k) {
+         int original = permutation[k];
+         for (int i = colStarts[k]; i < colStarts[k + 1]; ++i) {
+            column[rowIndices[i]] = 0.0;
+            row[rowIndices[i]] = 0.0;
+         }
+         double pivot = 0.0;
+         for (int i = a.rowStart(original); i < a.rowStart(original + 1); ++i) {
+            int j = inverse[a.column(i)];
+            if (j > k) {
+               row[j] = a.value(i);
+            } else if (j == k) {
+               pivot = a.value(i);
+            }
+         }
+         for (int i = aT.rowStart(original); i < aT.rowStart(original + 1); ++i) {
+            int j = inverse[aT.column(i)];
+            if (j > k) column[j] = aT.value(i);
+         }
+
+         for (int e = rowStarts[k]; e < rowStarts[k + 1]; ++e) {
+            int c = rowColumns[e];
+            int position = rowPositions[e];
+            double lkc = lValues[position];
+            double uck = uValues[position];
+            pivot -= lkc * uck;
+            for (int i = position + 1; i < colStarts[c + 1]; ++i) {
+               int j = rowIndices[i];
+               column[j] -= lValues[i] * uck;
+               row[j] -= lkc * uValues[i];
+            }
+         }
+
+         if ((pivot == 0.0) || Double.isNaN(pivot)) {
+            throw new RuntimeException(String.format("Sparse LU hit a zero pivot in row %d", original));
+         }
+         diagonal[k] = pivot;
+         double inversePivot = 1.0 / pivot;
+         for (int i = colStarts[k]; i < colStarts[k + 1]; ++i) {
+            int j = rowIndices[i];
+            lValues[i] = column[j] * inversePivot;
+            uValues[i] = row[j];
+         }
+      }
+   }
+
+   // ------------------------------------------
+   // Nested dissection ordering
+   // ------------------------------------------
+
+   // Orders the rows by splitting the graph of A + At in two with a small
+   // "separator" of rows, ordering the separator after both halves, and
+   // doing the same to each half, until the pieces are small.  A row of
+   // one half never fills in against a row of the other, so fill-in stays
+   // close to the minimum for mesh-like graphs, and the ordering takes
+   // about n log n time.
+   //
+   // Each separator is one level of a breadth-first search from a row
+   // near one "end" of the piece, the level that splits the piece most
+   // evenly, less any of its rows with no neighbors in the level after.
+   private static class NestedDissection {
+      private static final int MIN_PIECE_SIZE = 16;
+
+      private final SparseMatrix a;
+      private final int n;
+      private final int[] adjacencyStarts;
+      private final int[] adjacency;
+
+      private final int[] order;
+      private final int[] pieces;   // which piece each row is in, by its first position
+      private final int[] levels;
+      private final int[] queue;
+
+      NestedDissection(SparseMatrix a) {
+         this.a = a;
+         this.n = a.numRows;
+         SparseMatrix aT = a.transpose();
+
+         // The graph of A + At, without the diagonal
+         int[] marks = new int[n];
+         Arrays.fill(marks, -1);
+         adjacencyStarts = new int[n + 1];
+         int[] list = new int[a.numNonzeros() + aT.numNonzeros()];
+         int size = 0;
+         for (int row = 0; row < n; ++row) {
+            marks[row] = row;
+            for (int i = a.rowStart(row); i < a.rowStart(row + 1); ++i) {
+               int j = a.column(i);
+               if (marks[j] != row) { marks[j] = row; list[size++] = j; }
+            }
+            for (int i = aT.rowStart(row); i < aT.rowStart(row + 1); ++i) {
+               int j = aT.column(i);
+               if (marks[j] != row) { marks[j] = row; list[size++] = j; }
+            }
+            adjacencyStarts[row + 1] = size;
+         }
+         adjacency = Arrays.copyOf(list, size);
+
+         order = new int[n];
+         pieces = new int[n];
+         levels = new int[n];
+         queue = new int[n];
+         for (int row = 0; row < n; ++row) {
+            order[row] = row;
+         }
+      }
+
+      Symbolic symbolic() {
+         dissect(0, n);
+         return symbolicFactor(order);
+      }
+
+      // Reorders order[first..last), which are exactly the rows with
+      // pieces[row] == first, into elimination order
+      private void dissect(int first, int last) {
+         while (last - first > MIN_PIECE_SIZE) {
+            // A breadth-first search from a row far from the first one
+            // reached, which tends to give longer, thinner levels
+            int start = farthest(order[first], first);
+            start = farthest(start, first);
+            int reached = search(start, first);
+            if (reached < last - first) {
+               // The piece isn't connected, split off what was reached
+               int middle = partition(first, last, 0, Integer.MAX_VALUE);
+               renumber(middle, last, middle);
+               dissect(middle, last);
+               renumber(first, middle, first);
+               last = middle;
+               continue;
+            }
+            int numLevels = levels[queue[reached - 1]] + 1;
+            int separator = -1;
+            for (int i = 0, count = 0; i < reached; ++i) {
+               int level = levels[queue[i]];
+               if ((level != levels[queue[Math.max(i - 1, 0)]]) && (count >= (last - first) / 2)) {
+                  separator = level - 1;
+                  break;
+               }
+               ++count;
+            }
+            if ((separator <= 0) || (separator >= numLevels - 1)) break;
+
+            // Rows of the separator level that don't touch the level after
+            // it can go with the rows before it
+            for (int i = first; i < last; ++i) {
+               int row = order[i];
+               if (levels[row] != separator) continue;
+               boolean touchesAfter = false;
+               for (int j = adjacencyStarts[row]; j < adjacencyStarts[row + 1]; ++j) {
+                  int neighbor = adjacency[j];
+                  if ((pieces[neighbor] == first) && (levels[neighbor] == separator + 1)) {
+                     touchesAfter = true;
+                     break;
+                  }
+               }
+               if (!touchesAfter) levels[row] = separator - 1;
+            }
+            // Before the separator, after it, then the separator itself
+            int middle = partition(first, last, 0, separator - 1);
+            int end = partition(middle, last, separator + 1, Integer.MAX_VALUE);
+            renumber(middle, end, middle);
+            renumber(end, last, end);
+            dissect(middle, end);
+            renumber(first, middle, first);
+            last = middle;
+         }
+      }
+
+      // The last row reached by a breadth-first search from "start"
+      private int farthest(int start, int piece) {
+         int reached = search(start, piece);
+         return queue[reached - 1];
+      }
+      // A breadth-first search over the rows of "piece" from "start",
+      // filling "queue" in the order it reaches them and "levels" with
+      // their distances, and returning how many it reached
+      private int search(int start, int piece) {
+         int head = 0, tail = 0;
+         for (int i = piece; (i < n) && (pieces[order[i]] == piece); ++i) {
+            levels[order[i]] = -1;
+         }
+         levels[start] = 0;
+         queue[tail++] = start;
+         while (head < tail) {
+            int row = queue[head++];
+            for (int j = adjacencyStarts[row]; j < adjacencyStarts[row + 1]; ++j) {
+               int neighbor = adjacency[j];
+               if ((pieces[neighbor] == piece) && (levels[neighbor] < 0)) {
+                  levels[neighbor] = levels[row] + 1;
+                  queue[tail++] = neighbor;
+               }
+            }
+         }
+         return tail;
+      }
+      // Moves the rows of order[first..last) with levels in [low, high]
+      // to the front of that range, keeping their order, and returns
+      // where the rest start
+      private int partition(int first, int last, int low, int high) {
+         int size = 0;
+         int middle = first;
+         for (int i = first; i < last; ++i) {
+            int row = order[i];
+            int level = levels[row];
+            if ((level >= low) && (level <= high)) {
+               order[middle++] = row;
+            } else {
+               queue[size++] = row;
+            }
+         }
+         System.arraycopy(queue, 0, order, middle, size);
+         return middle;
+      }
+      private void renumber(int first, int last, int piece) {
+         for (int i = first; i < last; ++i) {
+            pieces[order[i]] = piece;
+         }
+      }
+
+      // The pattern of each column of L follows from the elimination
+      // tree: it's the column's own nonzeros below the diagonal, plus the
+      // patterns of its children in the tree, less itself.  The parent of
+      // a column is the first row in its pattern.
+      private Symbolic symbolicFactor(int[] permutation) {
+         int[] inverse = new int[n];
+         for (int k = 0; k < n; ++k) {
+            inverse[permutation[k]] = k;
+         }
+         int[] colStarts = new int[n + 1];
+         int[] rowIndices = new int[Math.max(16, adjacency.length)];
+         int numNonzeros = 0;
+
+         int[] firstChild = new int[n];
+         int[] nextSibling = new int[n];
+         Arrays.fill(firstChild, -1);
+         int[] marks = new int[n];
+         Arrays.fill(marks, -1);
+
+         for (int k = 0; k < n; ++k) {
+            int original = permutation[k];
+            int start = numNonzeros;
+            marks[k] = k;
+            int maxNew = adjacencyStarts[original + 1] - adjacencyStarts[original];
+            for (int c = firstChild[k]; c >= 0; c = nextSibling[c]) {
+               maxNew += colStarts[c + 1] - colStarts[c];
+            }
+            if (numNonzeros + maxNew > rowIndices.length) {
+               rowIndices = Arrays.copyOf(rowIndices, Math.max(2 * rowIndices.length, numNonzeros + maxNew));
+            }
+            for (int j = adjacencyStarts[original]; j < adjacencyStarts[original + 1]; ++j) {
+               int row = inverse[adjacency[j]];
+               if ((row > k) && (marks[row] != k)) { marks[row] = k; rowIndices[numNonzeros++] = row; }
+            }
+            for (int c = firstChild[k]; c >= 0; c = nextSibling[c]) {
+               for (int i = colStarts[c]; i < colStarts[c + 1]; ++i) {
+                  int row = rowIndices[i];
+                  if ((row > k) && (marks[row] != k)) { marks[row] = k; rowIndices[numNonzeros++] = row; }
+               }
+            }
+            Arrays.sort(rowIndices, start, numNonzeros);
+            colStarts[k + 1] = numNonzeros;
+            if (numNonzeros > start) {
+               int parent = rowIndices[start];
+               nextSibling[k] = firstChild[parent];
+               firstChild[parent] = k;
+            }
+         }
+         return new Symbolic(a, permutation, colStarts, Arrays.copyOf(rowIndices, numNonzeros));
+      }
+   }
+
+   // -----------------------------------------------------------------------
+   // TESTING
+   // -----------------------------------------------------------------------
+
+   // A small SPD matrix (the 5-point Laplacian of a 6 x 6 grid, plus a
+   // little on the diagonal), a nonsymmetric one with a scattered pattern
+   // that fills in, and the latter again with new values through its
+   // Symbolic.  Each is solved for one right-hand side and for three at
+   // once, and the answers multiplied out again.
+   public static void testResiduals() {
+      int side = 6, n = side * side;
+      SparseMatrix.Builder spd = new SparseMatrix.Builder(n, n);
+      for (int y = 0; y < side; ++y) {
+         for (int x = 0; x < side; ++x) {
+            int i = y * side + x;
+            spd.add(i, i, 4.1);
+            if (x > 0)        spd.add(i, i - 1, -1.0);
+            if (x < side - 1) spd.add(i, i + 1, -1.0);
+            if (y > 0)        spd.add(i, i - side, -1.0);
+            if (y < side - 1) spd.add(i, i + side, -1.0);
+         }
+      }
+      SparseMatrix.Builder scattered = new SparseMatrix.Builder(n, n);
+      SparseMatrix.Builder rescaled = new SparseMatrix.Builder(n, n);
+      for (int i = 0; i < n; ++i) {
+         scattered.add(i, i, 5.0);
+         rescaled.add(i, i, 7.0);
+         for (int j : new int[] { (7 * i + 3) % n, (11 * i + 5) % n, (i + 1) % n }) {
+            if (j == i) continue;
+            scattered.add(i, j, -1.0 - 0.1 * (j % 3));
+            rescaled.add(i, j, 0.5 + 0.2 * (i % 4));
+         }
+      }
+      SparseMatrix[] matrices = { spd.build(), scattered.build(), rescaled.build() };
+      Symbolic symbolic = Symbolic.analyze(matrices[1]);
+
+      boolean ok = symbolic.matches(matrices[2]);
+      SparseLU[] factors = { new SparseLU(matrices[0]), new SparseLU(symbolic, matrices[1]),
+                             new SparseLU(symbolic, matrices[2]) };
+      for (int m = 0; m < factors.length; ++m) {
+         double[][] b = new double[3][n];
+         double[][] x = new double[3][n];
+         for (int r = 0; r < 3; ++r) {
+            for (int i = 0; i < n; ++i) b[r][i] = Math.sin((r + 1) * (i + 1.0));
+         }
+         factors[m].solve(b, x);
+         double[] single = new double[n];
+         factors[m].solve(b[0], single);
+         for (int r = 0; r < 3; ++r) {
+            ok &= residual(matrices[m], b[r], x[r]) < 1.0e-10;
+         }
+         ok &= residual(matrices[m], b[0], single) < 1.0e-10;
+      }
+      System.out.format("SparseLU residuals: %s\n", ok ? "OK" : "PROBLEM");
+   }
+   // |b - A x| / |b|
+   private static double residual(SparseMatrix a, double[] b, double[] x) {
+      double[] ax = new double[b.length];
+      a.multiply(x, ax);
+      double sum = 0.0, bSum = 0.0;
+      for (int i = 0; i < b.length; ++i) {
+         sum += (b[i] - ax[i]) * (b[i] - ax[i]);
+         bSum += b[i] * b[i];
+      }
+      return Math.sqrt(sum / bSum);
+   }
+}
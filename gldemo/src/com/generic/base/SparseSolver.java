@@ -0,0 +1,440 @@
+package com.generic.base;
+
+import java.util.Arrays;
+
+import com.generic.base.Algebra.SparseMatrix;
+
+// ==================================================================
+// SparseSolver solves A x = b for a square SparseMatrix A by a Krylov
+// method, each iteration costing one or two matrix-vector products:
+//
+//    CG        conjugate gradients, for symmetric positive-definite A
+//    BICGSTAB  for any A, the usual choice for an unsymmetric one like
+//              the mean-value Laplacian in QuadCover
+//    GMRES     restarted every "restart" iterations, for any A, slower
+//              per iteration but never breaks down
+//
+// with a preconditioner M (roughly A, but cheap to invert) applied on the
+// right, so the residual it watches is the true b - A x:
+//
+//    NONE
+//    JACOBI         the diagonal of A
+//    INCOMPLETE_LU  LU factors of A with no fill outside its nonzeros,
+//                   "ILU(0)".  For a symmetric A that is incomplete
+//                   Cholesky (as L D Lt), so it suits CG too.
+//
+// The preconditioner is factored and the work vectors allocated once, in
+// the constructor, so a SparseSolver can solve for many right-hand sides
+// (and for a matrix with the same nonzeros but new values, by building a
+// new one).  "solve" starts from whatever is in x, so a previous answer
+// can be used as a warm start, and returns Statistics rather than
+// printing or throwing, so the caller decides what not converging means.
+//
+// For big systems the matrix products (SparseMatrix.multiply) and the
+// vector operations (VectorKernels) each run in parallel on the common
+// fork/join pool; the triangular solves of INCOMPLETE_LU don't.  Only
+// one thread at a time should call "solve" on a given SparseSolver.
+// ==================================================================
+
+public class SparseSolver {
+
+   public enum Method { CG, BICGSTAB, GMRES };
+   public enum Preconditioner { NONE, JACOBI, INCOMPLETE_LU };
+
+   public final SparseMatrix matrix;
+   public final Method method;
+   public final Preconditioner preconditioner;
+
+   // Solving stops once |b - A x| is at most "tolerance" times |b|..
+   public double tolerance = 1.0e-8;
+   // ..or after this many iterations
+   public int maxIterations = 10000;
+   // GMRES starts over from its current x after this many iterations
+   public int restart = 30;
+
+   public static class Statistics {
+      public final boolean converged;
+      public final int iterations;
+      public final double residualNorm;      // |b - A x| for the returned x
+      public final double relativeResidual;  // residualNorm / |b|
+      public final long nanos;
+
+      public Statistics(boolean converged, int iterations, double residualNorm,
+                        double relativeResidual, long nanos) {
+         this.converged = converged;
+         this.iterations = iterations;
+         this.residualNorm = residualNorm;
+         this.relativeResidual = relativeResidual;
+         this.nanos = nanos;
+      }
+      public String toString() {
+         return String.format("%s after %d iterations, residual %g (relative %g), %.1f ms",
+               converged ? "Converged" : "NOT converged", iterations,
+               residualNorm, relativeResidual, nanos / 1.0e6);
+      }
+   }
+
+   public SparseSolver(SparseMatrix matrix, Method method, Preconditioner preconditioner) {
+      if (matrix.numRows != matrix.numCols) {
+         throw new RuntimeException(String.format("%d x %d sparse matrix cant solve nonsquare",
+               matrix.numRows, matrix.numCols));
+      }
+      this.matrix = matrix;
+      this.method = method;
+      this.preconditioner = preconditioner;
+      this.n = matrix.numRows;
+
+      r = new double[n];
+      p = new double[n];
+      v = new double[n];
+      z = new double[n];
+      if (method == Method.BICGSTAB) {
+         rHat = new double[n];
+         s = new double[n];
+         t = new double[n];
+      }
+      if (preconditioner != Preconditioner.NONE) findDiagonal();
+      if (preconditioner == Preconditioner.INCOMPLETE_LU) factor();
+   }
+
+   // Solves A x = b, starting from the x passed in
+   public Statistics solve(double[] b, double[] x) {
+      if ((b.length != n) || (x.length != n)) {
+         throw new RuntimeException(String.format("%d x %d sparse matrix solve given %d length b, %d length x",
+               n, n, b.length, x.length));
+      }
+      long startTime = System.nanoTime();
+      double bNorm = norm(b);
+      if (bNorm == 0.0) {
+         Arrays.fill(x, 0.0);
+         return new Statistics(true, 0, 0.0, 0.0, System.nanoTime() - startTime);
+      }
+      double target = tolerance * bNorm;
+      int iterations;
+      switch (method) {
+         case CG:       iterations = cg(b, x, target);       break;
+         case BICGSTAB: iterations = biCgStab(b, x, target); break;
+         default:       iterations = gmres(b, x, target);    break;
+      }
+      // The residual the methods update as they go drifts from the true one
+      double residualNorm = residual(b, x, r);
+      return new Statistics(residualNorm <= target, iterations, residualNorm,
+            residualNorm / bNorm, System.nanoTime() - startTime);
+   }
+
+   // ------------------------------------------
+   // Private
+   // ------------------------------------------
+
+   private final int n;
+   private final double[] r, p, v, z;
+   private double[] rHat, s, t;
+   private final double[] ts = new double[2];
+   private double[][] basis;
+   private double[][] hessenberg;
+   private double[] cosines, sines, g, y;
+
+   private int[] diagonal;
+   private double[] inverseDiagonal;
+   private double[] factors;
+
+   // ----- Conjugate gradients -----
+
+   private int cg(double[] b, double[] x, double target) {
+      if (residual(b, x, r) <= target) return 0;
+      precondition(r, z);
+      System.arraycopy(z, 0, p, 0, n);
+      double rz = VectorKernels.dot(r, z);
+      int iteration = 0;
+      while (iteration < maxIterations) {
+         double pv = matrix.multiplyDot(p, v);
+         if (!(pv > 0.0)) break;  // A isn't positive-definite
+         double alpha = rz / pv;
+         VectorKernels.axpy(alpha, p, x);
+         double rr = VectorKernels.axpyNorm2(-alpha, v, r);
+         ++iteration;
+         if (Math.sqrt(rr) <= target) break;
+         precondition(r, z);
+         double rzNext = VectorKernels.dot(r, z);
+         double beta = rzNext / rz;
+         rz = rzNext;
+         VectorKernels.xpby(z, beta, p);
+      }
+      return iteration;
+   }
+
+   // ----- BiCGSTAB -----
+
+   private int biCgStab(double[] b, double[] x, double target) {
+      if (residual(b, x, r) <= target) return 0;
+      System.arraycopy(r, 0, rHat, 0, n);
+      Arrays.fill(p, 0.0);
+      Arrays.fill(v, 0.0);
+      double rho = 1.0, alpha = 1.0, omega = 1.0;
+      int iteration = 0;
+      while (iteration < maxIterations) {
+         double rhoNext = VectorKernels.dot(rHat, r);
+         if (rhoNext == 0.0) {
+            // Breakdown, start again from where we've got to
+            residual(b, x, r);
+            System.arraycopy(r, 0, rHat, 0, n);
+            Arrays.fill(p, 0.0);
+            Arrays.fill(v, 0.0);
+            rho = alpha = omega = 1.0;
+            rhoNext = VectorKernels.dot(rHat, r);
+            if (rhoNext == 0.0) break;
+         }
+         double beta = (rhoNext / rho) * (alpha / omega);
+         rho = rhoNext;
+         VectorKernels.axpy(-omega, v, p);
+         VectorKernels.xpby(r, beta, p);
+         precondition(p, z);
+         matrix.multiply(z, v);
+         double rHatV = VectorKernels.dot(rHat, v);
+         if (rHatV == 0.0) break;
+         alpha = rho / rHatV;
+         VectorKernels.axpy(alpha, z, x);
+         double ss = VectorKernels.waxpyNorm2(-alpha, v, r, s);
+         ++iteration;
+         if (Math.sqrt(ss) <= target) {
+            System.arraycopy(s, 0, r, 0, n);
+            break;
+         }
+         precondition(s, z);
+         matrix.multiply(z, t);
+         VectorKernels.dotAndNorm2(t, s, ts);
+         omega = (ts[1] > 0.0) ? (ts[0] / ts[1]) : 0.0;
+         VectorKernels.axpy(omega, z, x);
+         double rr = VectorKernels.waxpyNorm2(-omega, t, s, r);
+         if ((Math.sqrt(rr) <= target) || (omega == 0.0)) break;
+      }
+      return iteration;
+   }
+
+   // ----- Restarted GMRES -----
+
+   private int gmres(double[] b, double[] x, double target) {
+      int m = Math.max(1, restart);
+      if ((basis == null) || (basis.length != m + 1)) {
+         basis = new double[m + 1][n];
+         hessenberg = new double[m + 1][m];
+         cosines = new double[m];
+         sines = new double[m];
+         g = new double[m + 1];
+         y = new double[m];
+      }
+      int iteration = 0;
+      while (iteration < maxIterations) {
+         double beta = residual(b, x, r);
+         if (beta <= target) break;
+         System.arraycopy(r, 0, basis[0], 0, n);
+         VectorKernels.scale(1.0 / beta, basis[0]);
+         Arrays.fill(g, 0.0);
+         g[0] = beta;
+
+         int k = 0;
+         double residualNorm = beta;
+         while ((k < m) && (iteration < maxIterations) && (residualNorm > target)) {
+            // The next basis vector, A M^-1 basis[k], made orthogonal to
+            // the others by modified Gram-Schmidt
+            double[] w = basis[k + 1];
+            precondition(basis[k], z);
+            matrix.multiply(z, w);
+            double ww = 0.0;
+            for (int j = 0; j <= k; ++j) {
+               double h = VectorKernels.dot(w, basis[j]);
+               hessenberg[j][k] = h;
+               ww = VectorKernels.axpyNorm2(-h, basis[j], w);
+            }
+            double wNorm = Math.sqrt(ww);
+            hessenberg[k + 1][k] = wNorm;
+            if (wNorm > 0.0) {
+               VectorKernels.scale(1.0 / wNorm, w);
+            }
+            // Givens rotations keep the Hessenberg matrix upper-triangular,
+            // and leave the residual norm in g[k+1]
+            for (int j = 0; j < k; ++j) {
+               double a = hessenberg[j][k], c = hessenberg[j + 1][k];
+               hessenberg[j][k]     =  cosines[j] * a + sines[j] * c;
+               hessenberg[j + 1][k] = -sines[j] * a + cosines[j] * c;
+            }
+            double a = hessenberg[k][k], c = hessenberg[k + 1][k];
+            double length = Math.hypot(a, c);
+            cosines[k] = (length > 0.0) ? (a / length) : 1.0;
+            sines[k] = (length > 0.0) ? (c / length) : 0.0;
+            hessenberg[k][k] = length;
+            hessenberg[k + 1][k] = 0.0;
+            g[k + 1] = -sines[k] * g[k];
+            g[k] = cosines[k] * g[k];
+            residualNorm = Math.abs(g[k + 1]);
+            ++k;
+            ++iteration;
+            if (wNorm == 0.0) break;  // The exact answer is in the basis
+         }
+         // x += M^-1 (basis * y), where H y = g
+         for (int j = k - 1; j >= 0; --j) {
+            double sum = g[j];
+            for (int l = j + 1; l < k; ++l) {
+               sum -= hessenberg[j][l] * y[l];
+            }
+            y[j] = (hessenberg[j][j] != 0.0) ? (sum / hessenberg[j][j]) : 0.0;
+         }
+         Arrays.fill(p, 0.0);
+         for (int j = 0; j < k; ++j) {
+            VectorKernels.axpy(y[j], basis[j], p);
+         }
+         precondition(p, z);
+         VectorKernels.axpy(1.0, z, x);
+         if (residualNorm <= target) break;
+      }
+      return iteration;
+   }
+
+   // ----- Preconditioners -----
+
+   private void findDiagonal() {
+      diagonal = new int[n];
+      inverseDiagonal = new double[n];
+      for (int row = 0; row < n; ++row) {
+         int i = matrix.find(row, row);
+         if ((i < 0) || (matrix.value(i) == 0.0)) {
+            throw new RuntimeException(String.format("Can't precondition, row %d has no diagonal element", row));
+         }
+         diagonal[row] = i;
+         inverseDiagonal[row] = 1.0 / matrix.value(i);
+      }
+   }
+
+   // ILU(0): Gaussian elimination, row by row, that only ever updates
+   // elements that are nonzero in A.  L (below the diagonal, with ones
+   // on it) and U (the diagonal and above) share the nonzeros of A.
+   private void factor() {
+      SparseMatrix a = matrix;
+      factors = a.copyValues();
+      for (int row = 0; row < n; ++row) {
+         int rowEnd = a.rowStart(row + 1);
+         for (int ik = a.rowStart(row); ik < diagonal[row]; ++ik) {
+            int k = a.column(ik);
+            double multiplier = factors[ik] / factors[diagonal[k]];
+            factors[ik] = multiplier;
+            // Subtract multiplier * (row k of U) from the rest of this
+            // row, where they have nonzeros in common
+            int ij = ik + 1;
+            int kj = diagonal[k] + 1;
+            int kEnd = a.rowStart(k + 1);
+            while ((ij < rowEnd) && (kj < kEnd)) {
+               if (a.column(ij) < a.column(kj)) {
+                  ++ij;
+               } else if (a.column(ij) > a.column(kj)) {
+                  ++kj;
+               } else {
+                  factors[ij] -= multiplier * factors[kj];
+                  ++ij;
+                  ++kj;
+               }
+            }
+         }
+         if (factors[diagonal[row]] == 0.0) {
+            throw new RuntimeException(String.format("Incomplete LU broke down, zero pivot in row %d", row));
+         }
+      }
+   }
+
+   // z = M^-1 r
+   private void precondition(double[] r, double[] z) {
+      switch (preconditioner) {
+         case NONE:
+            System.arraycopy(r, 0, z, 0, n);
+            break;
+         case JACOBI:
+            for (int i = 0; i < n; ++i) {
+               z[i] = r[i] * inverseDiagonal[i];
+            }
+            break;
+         case INCOMPLETE_LU:
+            SparseMatrix a = matrix;
+            for (int row = 0; row < n; ++row) {
+               double sum = r[row];
+               for (int i = a.rowStart(row); i < diagonal[row]; ++i) {
+                  sum -= factors[i] * z[a.column(i)];
+               }
+               z[row] = sum;
+            }
+            for (int row = n - 1; row >= 0; --row) {
+               double sum = z[row];
+               for (int i = diagonal[row] + 1; i < a.rowStart(row + 1); ++i) {
+                  sum -= factors[i] * z[a.column(i)];
+               }
+               z[row] = sum / factors[diagonal[row]];
+            }
+            break;
+      }
+   }
+
+   // ----- Vector operations -----
+
+   // result = b - A x, returning its length
+   private double residual(double[] b, double[] x, double[] result) {
+      matrix.multiply(x, result);
+      return Math.sqrt(VectorKernels.waxpyNorm2(-1.0, result, b, result));
+   }
+   private static double norm(double[] a) {
+      return Math.sqrt(VectorKernels.dot(a, a));
+   }
+
+   // -----------------------------------------------------------------------
+   // TESTING
+   // -----------------------------------------------------------------------
+
+   // A small SPD matrix (the 5-point Laplacian of a 6 x 6 grid, plus a
+   // little on the diagonal) and a small nonsymmetric one (a convection-
+   // diffusion tridiagonal), solved by every method that applies with
+   // every preconditioner.  The residual of each answer is checked by
+   // multiplying it out again, not taken from the solver.
+   public static void testResiduals() {
+      int side = 6, n = side * side;
+      SparseMatrix.Builder spd = new SparseMatrix.Builder(n, n);
+      for (int y = 0; y < side; ++y) {
+         for (int x = 0; x < side; ++x) {
+            int i = y * side + x;
+            spd.add(i, i, 4.1);
+            if (x > 0)        spd.add(i, i - 1, -1.0);
+            if (x < side - 1) spd.add(i, i + 1, -1.0);
+            if (y > 0)        spd.add(i, i - side, -1.0);
+            if (y < side - 1) spd.add(i, i + side, -1.0);
+         }
+      }
+      SparseMatrix.Builder nonsymmetric = new SparseMatrix.Builder(n, n);
+      for (int i = 0; i < n; ++i) {
+         nonsymmetric.add(i, i, 3.0);
+         if (i > 0)     nonsymmetric.add(i, i - 1, -1.6);
+         if (i < n - 1) nonsymmetric.add(i, i + 1, -0.4);
+      }
+      double[] b = new double[n];
+      for (int i = 0; i < n; ++i) b[i] = Math.sin(i + 1.0);
+
+      boolean ok = true;
+      for (SparseMatrix matrix : new SparseMatrix[] { spd.build(), nonsymmetric.build() }) {
+         boolean symmetric = (matrix.get(1, 0) == matrix.get(0, 1));
+         for (Method method : Method.values()) {
+            if ((method == Method.CG) && !symmetric) continue;
+            for (Preconditioner preconditioner : Preconditioner.values()) {
+               SparseSolver solver = new SparseSolver(matrix, method, preconditioner);
+               double[] x = new double[n];
+               Statistics statistics = solver.solve(b, x);
+
+               double[] ax = new double[n];
+               matrix.multiply(x, ax);
+               double residual = 0.0;
+               for (int i = 0; i < n; ++i) residual += (b[i] - ax[i]) * (b[i] - ax[i]);
+               if (!statistics.converged || (Math.sqrt(residual) > 1.0e-6 * norm(b))) {
+                  System.out.format("PROBLEM: %s %s on the %s matrix: %s\n", method, preconditioner,
+                        symmetric ? "SPD" : "nonsymmetric", statistics);
+                  ok = false;
+               }
+            }
+         }
+      }
+      System.out.format("SparseSolver residuals: %s\n", ok ? "OK" : "PROBLEM");
+   }
+}
@@ -0,0 +1,157 @@
+package com.generic.base;
+
+import java.util.concurrent.RecursiveAction;
+
+// ==================================================================
+// VectorKernels are the double[] vector operations an iterative solver
+// spends its time in besides multiplying by the matrix: dot products,
+// "axpy" (y += alpha x) and friends.  Several are fused, updating a
+// vector and returning its squared length in the same pass, since for
+// vectors this long the time goes on reading memory, not on arithmetic.
+//
+// Vectors of PARALLEL_LENGTH elements or more are split into ranges of
+// CHUNK_LENGTH done in parallel on the common fork/join pool, shorter
+// ones are done on the calling thread.  The split depends only on the
+// length, so a sum comes out the same however many threads there are.
+// ==================================================================
+
+public class VectorKernels {
+
+   public static final int PARALLEL_LENGTH = 1 << 15;
+   public static final int CHUNK_LENGTH = 1 << 13;
+
+   // x . y
+   public static double dot(double[] x, double[] y) {
+      return run(Op.DOT, 0.0, x, y, null);
+   }
+   // y += alpha x
+   public static void axpy(double alpha, double[] x, double[] y) {
+      run(Op.AXPY, alpha, x, y, null);
+   }
+   // y += alpha x, returning y . y
+   public static double axpyNorm2(double alpha, double[] x, double[] y) {
+      return run(Op.AXPY_NORM2, alpha, x, y, null);
+   }
+   // w = y + alpha x, returning w . w
+   public static double waxpyNorm2(double alpha, double[] x, double[] y, double[] w) {
+      return run(Op.WAXPY_NORM2, alpha, x, y, w);
+   }
+   // y = x + beta y
+   public static void xpby(double[] x, double beta, double[] y) {
+      run(Op.XPBY, beta, x, y, null);
+   }
+   // x *= alpha
+   public static void scale(double alpha, double[] x) {
+      run(Op.SCALE, alpha, x, x, null);
+   }
+   // result[0] = x . y, result[1] = x . x
+   public static void dotAndNorm2(double[] x, double[] y, double[] result) {
+      Kernel kernel = kernel(Op.DOT_AND_NORM2, 0.0, x, y, null);
+      result[0] = kernel.sum;
+      result[1] = kernel.sum2;
+   }
+
+   // ------------------------------------------
+   // Private
+   // ------------------------------------------
+
+   private enum Op { DOT, AXPY, AXPY_NORM2, WAXPY_NORM2, XPBY, SCALE, DOT_AND_NORM2 };
+
+   private static double run(Op op, double alpha, double[] x, double[] y, double[] w) {
+      return kernel(op, alpha, x, y, w).sum;
+   }
+   private static Kernel kernel(Op op, double alpha, double[] x, double[] y, double[] w) {
+      if ((x.length != y.length) || ((w != null) && (w.length != x.length))) {
+         throw new RuntimeException(String.format("Vector lengths %d and %d differ",
+               x.length, (x.length != y.length) ? y.length : w.length));
+      }
+      Kernel kernel = new Kernel(op, alpha, x, y, w, 0, x.length);
+      if (x.length >= PARALLEL_LENGTH) {
+         kernel.invoke();
+      } else {
+         kernel.range(0, x.length);
+      }
+      return kernel;
+   }
+
+   private static class Kernel extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+
+      private final Op op;
+      private final double alpha;
+      private final double[] x, y, w;
+      private final int first, last;
+      private double sum, sum2;
+
+      Kernel(Op op, double alpha, double[] x, double[] y, double[] w, int first, int last) {
+         this.op = op;
+         this.alpha = alpha;
+         this.x = x;
+         this.y = y;
+         this.w = w;
+         this.first = first;
+         this.last = last;
+      }
+      protected void compute() {
+         if (last - first > CHUNK_LENGTH) {
+            int middle = (first + last) >>> 1;
+            Kernel a = new Kernel(op, alpha, x, y, w, first, middle);
+            Kernel b = new Kernel(op, alpha, x, y, w, middle, last);
+            invokeAll(a, b);
+            sum = a.sum + b.sum;
+            sum2 = a.sum2 + b.sum2;
+            return;
+         }
+         range(first, last);
+      }
+
+      void range(int first, int last) {
+         double s = 0.0, s2 = 0.0;
+         switch (op) {
+            case DOT:
+               for (int i = first; i < last; ++i) {
+                  s += x[i] * y[i];
+               }
+               break;
+            case AXPY:
+               for (int i = first; i < last; ++i) {
+                  y[i] += alpha * x[i];
+               }
+               break;
+            case AXPY_NORM2:
+               for (int i = first; i < last; ++i) {
+                  double yi = y[i] + alpha * x[i];
+                  y[i] = yi;
+                  s += yi * yi;
+               }
+               break;
+            case WAXPY_NORM2:
+               for (int i = first; i < last; ++i) {
+                  double wi = y[i] + alpha * x[i];
+                  w[i] = wi;
+                  s += wi * wi;
+               }
+               break;
+            case XPBY:
+               for (int i = first; i < last; ++i) {
+                  y[i] = x[i] + alpha * y[i];
+               }
+               break;
+            case SCALE:
+               for (int i = first; i < last; ++i) {
+                  x[i] *= alpha;
+               }
+               break;
+            case DOT_AND_NORM2:
+               for (int i = first; i < last; ++i) {
+                  double xi = x[i];
+                  s += xi * y[i];
+                  s2 += xi * xi;
+               }
+               break;
+         }
+         sum = s;
+         sum2 = s2;
+      }
+   }
+}
@@ -32,6 +32,8 @@ import com.generic.base.Demo;
 import com.generic.base.Shader;
 import com.generic.base.Geometry;
 import com.generic.base.Mesh;
+import com.generic.base.MeshBVH;
+import com.generic.base.ObjReader;
 import com.generic.base.Platform;
 import com.generic.base.World;
 import com.generic.base.Algebra.*;
@@ -941,7 +943,7 @@ public class GLSample implements GLEventListener, MouseListener, MouseMotionList
    
    private Mesh loadBunny() {
       Mesh mesh = new Mesh();
-      mesh.loadFromString(Data.loadPackageResource(GLSample.class, "bunny.obj"));
+      mesh.loadFromObj(ObjReader.read(GLSample.class.getResourceAsStream("bunny.obj")), 60.0f);
       
       System.out.format("Loaded bunny %d vertices, %d edges, %d triangles, %d boundary-edges\n",
             mesh.vertices.size(),
@@ -1223,6 +1225,11 @@ public class GLSample implements GLEventListener, MouseListener, MouseMotionList
 
    // --------------------------------------------------------------
    // PICKING VERSION 0 -- let's just answer the question here...
+   
+   private final MeshBVH.Hit pickHit = new MeshBVH.Hit();
+   private final Mat3 pickCameraToModel = new Mat3();
+   private final Vec3 pickRayOrigin = new Vec3();
+   private final Vec3 pickRayDirection = new Vec3();
 
    private boolean intersects(MeshModel geometry,  // does this geometry...
                                Matrix4x4 modelToCamera,   // transformed by this matrix into camera space...
@@ -1250,57 +1257,32 @@ public class GLSample implements GLEventListener, MouseListener, MouseMotionList
       float xPos = -fWidth + pixelWidth*x    + pixelWidth  * 0.5f;
       float yPos = fHeight - pixelHeight*y   + pixelHeight * 0.5f;
 
-      Vector3 camPos = new Vector3(xPos,yPos,-1.0f);
-      Segment3 s = new Segment3(Vector3.ORIGIN, camPos);
       // --------------------
+      
+      // Rather than take every triangle into camera space, take the ray
+      // from the camera through (xPos,yPos,-1) back into model space,
+      // (modelToCamera is affine, so the inverse of its 3x3 part will do)
+      pickCameraToModel.set(modelToCamera);
+      if (!pickCameraToModel.invert(pickCameraToModel)) return false;
+      Vec3 rayOrigin = pickRayOrigin.set(-modelToCamera.xw, -modelToCamera.yw, -modelToCamera.zw)
+            .transform(pickCameraToModel);
+      Vec3 rayDirection = pickRayDirection.set(xPos, yPos, -1.0f).transform(pickCameraToModel);
   
       Vector2 intersection = null;
-      boolean intersectionOccurred = false;
-      float sParam = 0;
+      boolean intersectionOccurred = geometry.getBVH().closestHit(
+            rayOrigin.x, rayOrigin.y, rayOrigin.z,
+            rayDirection.x, rayDirection.y, rayDirection.z,
+            Float.POSITIVE_INFINITY, pickHit);
       
-         //System.out.format("Intersection test begin:\n");
-      
-         for (Mesh.Triangle t : geometry.mesh.triangles) {
-            Vector3 v0Pos = t.vertices[0].getPosition();
-            Vector3 v1Pos = t.vertices[1].getPosition();
-            Vector3 v2Pos = t.vertices[2].getPosition();
-   
-            Vector3 camV0 = Matrix4x4.product(modelToCamera, Vector4.fromVector3f(v0Pos)).toVector3f();
-            Vector3 camV1 = Matrix4x4.product(modelToCamera, Vector4.fromVector3f(v1Pos)).toVector3f();
-            Vector3 camV2 = Matrix4x4.product(modelToCamera, Vector4.fromVector3f(v2Pos)).toVector3f();
-   
-            //System.out.format("Triangle is\n%s---\n%s---\n%s---\n", camV0.toString(), camV1.toString(), camV2.toString());
-   
-            Triangle3 t2 = new Triangle3(camV0, camV1, camV2);
-            Vector4 intersectionLambdas = Algebra.intersects(t2,s, false);
-            
-            if (intersectionLambdas != null) {
-               intersectionOccurred = true;
-               if ((geometry == demoWorld.mappingModel1) || (geometry == demoWorld.mappingModel2) || (geometry == demoWorld.mappingModel3)) {
-                  if (geometry == demoWorld.mappingModel1) {
-                     /*
-                     System.out.format("Intersected triangle %d at -- (%g,%g,%g,%g)\n",
-                           t.getIndex(), 
-                           intersectionLambdas.x,
-                           intersectionLambdas.y,
-                           intersectionLambdas.z,
-                           intersectionLambdas.w);
-                     */
-                  }
-   
-                  
-                  if ((intersection == null) || (intersectionLambdas.w < sParam)) {
-                     Triangle2 texCoords = ((TextureCoordProvider) t).getTextureCoords();
-                     intersection = texCoords.v0.times(intersectionLambdas.x).plus(
-                                    texCoords.v1.times(intersectionLambdas.y).plus(
-                                    texCoords.v2.times(intersectionLambdas.z)));
-                     sParam = intersectionLambdas.w;
-                  }
-               }
-            }
+      if (intersectionOccurred) {
+         if ((geometry == demoWorld.mappingModel1) || (geometry == demoWorld.mappingModel2) || (geometry == demoWorld.mappingModel3)) {
+            Mesh.Triangle t = geometry.mesh.triangles.get(pickHit.face);
+            Triangle2 texCoords = ((TextureCoordProvider) t).getTextureCoords();
+            intersection = texCoords.v0.times(pickHit.b0).plus(
+                           texCoords.v1.times(pickHit.b1).plus(
+                           texCoords.v2.times(pickHit.b2)));
          }
-         
-         //System.out.format("Intersection test DONE:\n");
+      }
       
       if ((geometry == demoWorld.mappingModel1) || (geometry == demoWorld.mappingModel2) || (geometry == demoWorld.mappingModel3)) {
          if (intersection != null) {
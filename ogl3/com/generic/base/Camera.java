@@ -208,6 +208,24 @@ public class Camera {
    public final float distanceToTarget;
    public final float fHeight, fWidth;
 
+   // How many pixels tall a length of 1 in CAMERA-SPACE looks, when it's
+   // "depth" in front of the camera (that is, at z = -depth)
+   public float pixelsPerUnit(float depth) {
+      return 0.5f * size.height * cameraToClipSpace.yy / depth;
+   }
+
+   // Whether a sphere in CAMERA-SPACE is entirely outside the left, right,
+   // top or bottom of the window, or entirely behind the camera
+   public boolean isOffScreen(Vector3 center, float radius) {
+      if (center.z > radius) return true;
+      float w = (float) Math.sqrt(1.0f + fWidth * fWidth);
+      float h = (float) Math.sqrt(1.0f + fHeight * fHeight);
+      return ( center.x + fWidth  * center.z > radius * w)
+          || (-center.x + fWidth  * center.z > radius * w)
+          || ( center.y + fHeight * center.z > radius * h)
+          || (-center.y + fHeight * center.z > radius * h);
+   }
+
    // -------------------------------------------------------------------
    // Controller
    // -------------------------------------------------------------------
@@ -4,6 +4,10 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.Objects;
 
@@ -14,7 +18,29 @@ public class Data {
    // ----------------------------------------
    public static abstract class Array {
       
-      public enum Primitive { INTEGERS, FLOATS, BYTES };
+      // Besides INTEGERS, FLOATS and BYTES, there are compact primitives
+      // for vertex attributes that don't need 32 bits:
+      //   SHORTS and HALF_FLOATS are held in a short[],
+      //   NORMALIZED_BYTES stand for [-1,1] and NORMALIZED_UNSIGNED_BYTES
+      //      for [0,1], both held in a byte[],
+      //   each PACKED_2_10_10_10 int holds a normalized x,y,z in 10 bits
+      //      each from the bottom up, and w in the top 2 bits (GL's
+      //      INT_2_10_10_10_REV), so it's one primitive for four values.
+      // The static functions further down convert floats to these.
+      public enum Primitive { 
+         INTEGERS(4, false), FLOATS(4, false), BYTES(1, false),
+         SHORTS(2, false), HALF_FLOATS(2, false), 
+         NORMALIZED_BYTES(1, true), NORMALIZED_UNSIGNED_BYTES(1, true),
+         PACKED_2_10_10_10(4, true);
+         
+         public final int bytes;
+         public final boolean normalized;
+         
+         private Primitive(int bytes, boolean normalized) {
+            this.bytes = bytes;
+            this.normalized = normalized;
+         }
+      };
 
       // --------------------------------
       // Type
@@ -56,97 +82,966 @@ public class Data {
          public static final Type SIXTEEN_FLOATS = Type.of(16, Primitive.FLOATS);
 
          public static final Type THREE_BYTES = Type.of(3, Primitive.BYTES);
+         
+         public static final Type FOUR_SHORTS                    = Type.of(4, Primitive.SHORTS);
+         public static final Type FOUR_HALF_FLOATS               = Type.of(4, Primitive.HALF_FLOATS);
+         public static final Type FOUR_NORMALIZED_BYTES          = Type.of(4, Primitive.NORMALIZED_BYTES);
+         public static final Type FOUR_NORMALIZED_UNSIGNED_BYTES = Type.of(4, Primitive.NORMALIZED_UNSIGNED_BYTES);
+         public static final Type ONE_PACKED_2_10_10_10          = Type.of(1, Primitive.PACKED_2_10_10_10);
       }
       
       public static Array create(Type type) {
          switch (type.primitive) {
-           case INTEGERS: return new Array.Integers(type.primitivesPerElement);
-           case FLOATS:   return new Array.Floats(type.primitivesPerElement);
-           case BYTES:    return new Array.Bytes(type.primitivesPerElement);
+           case INTEGERS: 
+           case PACKED_2_10_10_10:         return new Array.Integers(type);
+           case FLOATS:                    return new Array.Floats(type);
+           case SHORTS:
+           case HALF_FLOATS:               return new Array.Shorts(type);
+           case BYTES: 
+           case NORMALIZED_BYTES: 
+           case NORMALIZED_UNSIGNED_BYTES: return new Array.Bytes(type);
          };
          throw new RuntimeException();
       }
+      
+      // HEAP Arrays are Integers, Floats, Shorts or Bytes, holding their
+      // chunks (see below) in Java arrays.  DIRECT Arrays hold them in
+      // direct ByteBuffers off the Java heap instead.
+      public enum Storage { HEAP, DIRECT };
+      
+      public static Array create(Type type, Storage storage) {
+         return (storage == Storage.DIRECT) ? new Array.Direct(type) : create(type);
+      }
+
+      // --------------------------------
+      // Growth
+      // --------------------------------
+      // When "setNumElements" needs more room than an Array has, its
+      // GrowthPolicy picks the new capacity (in elements).  Growing by a
+      // factor keeps appending amortized O(1); a smaller factor wastes less
+      // memory on large arrays, at the cost of copying them more often.
+      public interface GrowthPolicy {
+         public int newCapacity(int capacity, int minCapacity);
+         
+         public static GrowthPolicy byFactor(final float factor) {
+            if (factor <= 1.0f) {
+               throw new RuntimeException(String.format(
+                     "Growth factor %g would never grow the array", factor));
+            }
+            return new GrowthPolicy() {
+               public int newCapacity(int capacity, int minCapacity) {
+                  long grown = (long) Math.ceil(capacity * (double) factor);
+                  return (int) Math.max(minCapacity, Math.min(grown, Integer.MAX_VALUE - 8));
+               }
+            };
+         }
+         public static final GrowthPolicy DOUBLING = byFactor(2.0f);
+      }
 
       // --------------------------------
       // Array
       // --------------------------------
+      // The storage is split into chunks of CHUNK_SIZE primitives (the last
+      // one may be shorter).  A snapshot shares the chunks, and each chunk
+      // is copied only when it's first written to after that, so changing
+      // a few elements of a big Array copies a few chunks, not the whole
+      // storage.  Growing an Array keeps its full chunks where they are.
+      //
+      // The storage itself is never handed out.  Single primitives are
+      // read and written through "getInt", "setFloat" and so on, and runs
+      // of them through "copyTo" and "copyFrom".
+      public static final int CHUNK_SHIFT = 12;
+      public static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+      protected static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
       protected Array (Type type) {
          this.type = type;
          this.numElements = 0;
+         this.growthPolicy = GrowthPolicy.DOUBLING;
       }
       public final Type type;
-      public abstract Object array();
-      
+
       protected int numElements;
       public int numElements() { return numElements; }
-      public abstract void setNumElements(int newNumElements);
-      
+
+      public void setNumElements(int newNumElements) {
+         if (readOnly && (newNumElements != numElements)) {
+            throw new RuntimeException("Cannot resize a read-only snapshot");
+         }
+         int capacity = capacity();
+         if (capacity < newNumElements) {
+            reallocate(growthPolicy.newCapacity(capacity, newNumElements));
+         }
+         numElements = newNumElements;
+      }
+
+      // --------------------------------
+      // Capacity
+      // --------------------------------
+      // The number of elements there's room for without reallocating
+      public int capacity() {
+         return primitiveCapacity / type.primitivesPerElement;
+      }
+
+      // Makes room for "minCapacity" elements, exactly that many if the
+      // Array has to grow, so a build that knows its final size (such as
+      // a mesh import) allocates each array once.
+      public void ensureCapacity(int minCapacity) {
+         if (capacity() < minCapacity) {
+            checkNotReadOnly();
+            reallocate(minCapacity);
+         }
+      }
+      // Gives back any room beyond numElements, once an Array is finished
+      public void trimToSize() {
+         if (capacity() > numElements) {
+            checkNotReadOnly();
+            reallocate(numElements);
+         }
+      }
+      public void setGrowthPolicy(GrowthPolicy growthPolicy) {
+         this.growthPolicy = growthPolicy;
+      }
+      protected GrowthPolicy growthPolicy;
+
+      // Makes room for "newCapacity" elements.  Chunks that keep their
+      // length stay (shared or not), and only a last chunk that changes
+      // length is copied.
+      protected void reallocate(int newCapacity) {
+         int newPrimitiveCapacity = type.primitivesPerElement * newCapacity;
+         int numChunks = (newPrimitiveCapacity + CHUNK_MASK) >>> CHUNK_SHIFT;
+         Object[] newChunks = newTable(numChunks);
+         boolean[] newOwnChunks = new boolean[numChunks];
+         for (int c = 0; c < numChunks; ++c) {
+            int length = Math.min(CHUNK_SIZE, newPrimitiveCapacity - (c << CHUNK_SHIFT));
+            if ((c < chunks.length) && (lengthOf(chunks[c]) == length)) {
+               newChunks[c] = chunks[c];
+               newOwnChunks[c] = ownChunks[c];
+            } else {
+               newChunks[c] = (c < chunks.length) ? copyOf(chunks[c], length) : newChunk(length);
+               newOwnChunks[c] = true;
+            }
+         }
+         setChunks(newChunks, newOwnChunks, newPrimitiveCapacity);
+      }
+
+      // --------------------------------
+      // Chunks
+      // --------------------------------
+      private Object[] chunks;
+      protected boolean[] ownChunks;      // false where a snapshot may share the chunk
+      private int primitiveCapacity;
+
+      // Subclasses keep a typed alias of the table, so they override this
+      // to update it
+      protected void setChunks(Object[] chunks, boolean[] ownChunks, int primitiveCapacity) {
+         this.chunks = chunks;
+         this.ownChunks = ownChunks;
+         this.primitiveCapacity = primitiveCapacity;
+      }
+      // For the subclass constructors
+      protected void allocate(int capacity) {
+         setChunks(newTable(0), new boolean[0], 0);
+         reallocate(capacity);
+      }
+      protected void shareChunksOf(Array source) {
+         numElements = source.numElements;
+         readOnly = true;
+         setChunks(source.chunks.clone(), new boolean[source.chunks.length], source.primitiveCapacity);
+      }
+
+      protected abstract Object[] newTable(int numChunks);
+      protected abstract Object newChunk(int length);
+      protected abstract int lengthOf(Object chunk);
+      // A new chunk of "length" primitives, starting with those of "chunk"
+      protected abstract Object copyOf(Object chunk, int length);
+
+      // Copy "length" primitives from "chunk", starting at "index" within
+      // it, into a Java array holding this Array's primitive type or a
+      // ByteBuffer (at its position, in its byte order), and back again.
+      protected abstract void get(Object chunk, int index, Object target, int offset, int length);
+      protected abstract void put(Object source, int offset, Object chunk, int index, int length);
+
+      // Gives this Array its own copy of chunk "c" if a snapshot may share it
+      protected void ownChunk(int c) {
+         checkNotReadOnly();
+         chunks[c] = copyOf(chunks[c], lengthOf(chunks[c]));
+         ownChunks[c] = true;
+      }
+      protected Object writableChunk(int c) {
+         if (!ownChunks[c]) ownChunk(c);
+         return chunks[c];
+      }
+
+      // --------------------------------
+      // Bulk operations
+      // --------------------------------
+      // Copies "length" primitives, starting at primitive "index", to the
+      // Java array "target" starting at "offset".  The target has to hold
+      // this Array's primitive type (int[] for INTEGERS, say).
+      public void copyTo(int index, Object target, int offset, int length) {
+         checkHeapArray(target);
+         checkPrimitives(index, length);
+         while (length > 0) {
+            int c = index >>> CHUNK_SHIFT, i = index & CHUNK_MASK;
+            int n = Math.min(length, CHUNK_SIZE - i);
+            get(chunks[c], i, target, offset, n);
+            index += n;  offset += n;  length -= n;
+         }
+      }
+      // ... or to "target" at its position, in its byte order, moving
+      // the position past them
+      public void copyTo(int index, ByteBuffer target, int length) {
+         checkPrimitives(index, length);
+         int bytesPerPrimitive = type.primitive.bytes;
+         while (length > 0) {
+            int c = index >>> CHUNK_SHIFT, i = index & CHUNK_MASK;
+            int n = Math.min(length, CHUNK_SIZE - i);
+            ByteBuffer part = target.duplicate().order(target.order());
+            part.limit(part.position() + n * bytesPerPrimitive);
+            get(chunks[c], i, part, 0, n);
+            target.position(target.position() + n * bytesPerPrimitive);
+            index += n;  length -= n;
+         }
+      }
+      // Copies "length" primitives of the Java array "source", starting at
+      // "offset", over the primitives starting at "index"
+      public void copyFrom(int index, Object source, int offset, int length) {
+         checkHeapArray(source);
+         checkPrimitives(index, length);
+         if (recordingDirty) recordDirty(index, length);
+         while (length > 0) {
+            int c = index >>> CHUNK_SHIFT, i = index & CHUNK_MASK;
+            int n = Math.min(length, CHUNK_SIZE - i);
+            put(source, offset, writableChunk(c), i, n);
+            index += n;  offset += n;  length -= n;
+         }
+      }
+      // ... or from "source" at its position, in its byte order, moving
+      // the position past them
+      public void copyFrom(int index, ByteBuffer source, int length) {
+         checkPrimitives(index, length);
+         if (recordingDirty) recordDirty(index, length);
+         int bytesPerPrimitive = type.primitive.bytes;
+         while (length > 0) {
+            int c = index >>> CHUNK_SHIFT, i = index & CHUNK_MASK;
+            int n = Math.min(length, CHUNK_SIZE - i);
+            ByteBuffer part = source.duplicate().order(source.order());
+            part.limit(part.position() + n * bytesPerPrimitive);
+            put(part, 0, writableChunk(c), i, n);
+            source.position(source.position() + n * bytesPerPrimitive);
+            index += n;  length -= n;
+         }
+      }
+
+      // Copies "count" elements of "source", which must have the same Type,
+      // starting at "sourceElement", over the elements starting at "element".
+      // The source may be this Array, and the ranges may overlap.
+      public void copyRange(Array source, int sourceElement, int element, int count) {
+         if (!type.equals(source.type)) {
+            throw new RuntimeException("Cannot copy elements between arrays of different types");
+         }
+         checkRange(source, sourceElement, count);
+         checkRange(this, element, count);
+         checkNotReadOnly();
+
+         int primitivesPerElement = type.primitivesPerElement;
+         int sourceIndex = primitivesPerElement * sourceElement;
+         int index = primitivesPerElement * element;
+         int length = primitivesPerElement * count;
+         if (source == this) {
+            // The ranges may overlap, so copy through a temporary array
+            Object temporary = java.lang.reflect.Array.newInstance(
+                  heapArrayClass(type.primitive).getComponentType(), length);
+            copyTo(sourceIndex, temporary, 0, length);
+            copyFrom(index, temporary, 0, length);
+            return;
+         }
+         int bytesPerPrimitive = type.primitive.bytes;
+         while (length > 0) {
+            int c = sourceIndex >>> CHUNK_SHIFT, i = sourceIndex & CHUNK_MASK;
+            int n = Math.min(length, CHUNK_SIZE - i);
+            Object chunk = source.chunks[c];
+            if (chunk instanceof ByteBuffer) {
+               ByteBuffer part = ((ByteBuffer) chunk).duplicate().order(ByteOrder.nativeOrder());
+               part.limit((i + n) * bytesPerPrimitive).position(i * bytesPerPrimitive);
+               copyFrom(index, part, n);
+            } else {
+               copyFrom(index, chunk, i, n);
+            }
+            sourceIndex += n;  index += n;  length -= n;
+         }
+      }
+
+      // The "append" methods take "length" primitives starting at "offset",
+      // which must make a whole number of elements.
+      protected void appendPrimitives(Object source, int offset, int length) {
+         int firstElement = numElements;
+         setNumElements(firstElement + elementsIn(length));
+         copyFrom(type.primitivesPerElement * firstElement, source, offset, length);
+      }
+      protected int elementsIn(int length) {
+         if ((length < 0) || (length % type.primitivesPerElement != 0)) {
+            throw new RuntimeException(String.format(
+                  "%d primitives isn't a whole number of %d-primitive elements",
+                  length, type.primitivesPerElement));
+         }
+         return length / type.primitivesPerElement;
+      }
+
+      private static void checkRange(Array array, int element, int count) {
+         if ((element < 0) || (count < 0) || (element + count > array.numElements)) {
+            throw new RuntimeException(String.format(
+                  "Range [%d,%d) is outside an array of %d elements",
+                  element, element + count, array.numElements));
+         }
+      }
+      private void checkPrimitives(int index, int length) {
+         int numPrimitives = type.primitivesPerElement * numElements;
+         if ((index < 0) || (length < 0) || (index + length > numPrimitives)) {
+            throw new RuntimeException(String.format(
+                  "Primitives [%d,%d) are outside an array of %d",
+                  index, index + length, numPrimitives));
+         }
+      }
+      private void checkHeapArray(Object array) {
+         if (array.getClass() != heapArrayClass(type.primitive)) {
+            throw new RuntimeException(String.format(
+                  "Cannot copy between %s and an array of %s", array.getClass().getSimpleName(), type.primitive));
+         }
+      }
+      // The Java array type holding each primitive on the heap
+      protected static Class<?> heapArrayClass(Primitive primitive) {
+         switch (primitive) {
+            case INTEGERS:
+            case PACKED_2_10_10_10: return int[].class;
+            case FLOATS:            return float[].class;
+            case SHORTS:
+            case HALF_FLOATS:       return short[].class;
+            default:                return byte[].class;
+         }
+      }
+      protected void checkNotReadOnly() {
+         if (readOnly) {
+            throw new RuntimeException("Cannot change a read-only snapshot");
+         }
+      }
+
+      // --------------------------------
+      // Single primitives
+      // --------------------------------
+      // Read or write the primitive at "index" (counted in primitives, not
+      // elements) whatever the Array's storage, so code that takes either a
+      // HEAP or a DIRECT Array needn't cast it.  Each Array has the pair for
+      // the Java type of its primitive: ints for INTEGERS and
+      // PACKED_2_10_10_10, floats for FLOATS, shorts for SHORTS and
+      // HALF_FLOATS, and bytes for the rest.  The setters copy a chunk that
+      // a snapshot still shares, and throw on a read-only snapshot.
+      public int getInt(int index)                 { throw notHolding("int"); }
+      public void setInt(int index, int value)     { throw notHolding("int"); }
+      public float getFloat(int index)             { throw notHolding("float"); }
+      public void setFloat(int index, float value) { throw notHolding("float"); }
+      public short getShort(int index)             { throw notHolding("short"); }
+      public void setShort(int index, short value) { throw notHolding("short"); }
+      public byte getByte(int index)               { throw notHolding("byte"); }
+      public void setByte(int index, byte value)   { throw notHolding("byte"); }
+
+      protected RuntimeException notHolding(String javaType) {
+         return new RuntimeException(String.format(
+               "An array of %s does not hold %ss", type.primitive, javaType));
+      }
+
+      // --------------------------------
+      // Snapshots
+      // --------------------------------
+      // "snapshot" returns a read-only Array sharing this Array's chunks,
+      // in time proportional to the number of chunks.  Afterwards this
+      // Array copies each chunk the first time it writes to it, so the
+      // snapshot never sees later changes.  Call it on the thread writing
+      // to this Array, then hand the snapshot to readers.
+      public abstract Array snapshot();
+      public boolean isReadOnly() { return readOnly; }
+
+      protected boolean readOnly = false;
+
+      // Called by "snapshot" on the Array being snapshotted
+      protected void shareChunks() {
+         Arrays.fill(ownChunks, false);
+      }
+
+      // Copies every chunk a snapshot still shares now, rather than on
+      // each chunk's first write, so several threads can then write to
+      // the Array at once
+      public void unshare() {
+         checkNotReadOnly();
+         for (int c = 0; c < ownChunks.length; ++c) {
+            if (!ownChunks[c]) ownChunk(c);
+         }
+      }
+
+      // --------------------------------
+      // Dirty elements
+      // --------------------------------
+      // After "trackDirtyElements", the setters, "copyFrom" and everything
+      // built on them (copyRange, append) record the elements they change,
+      // so a consumer (like MeshFlattener) can update just those, then
+      // call "clearDirty" once it has caught up.  Nothing is recorded while
+      // the whole Array is marked dirty, so code about to rewrite all of it
+      // (perhaps from several threads) calls "markAllDirty" first.
+      public void trackDirtyElements() {
+         if (dirtyElements == null) {
+            dirtyElements = new BitSet();
+            allDirty = true;
+         }
+      }
+      public void markAllDirty() {
+         allDirty = true;
+         recordingDirty = false;
+      }
+      public boolean isAllDirty() {
+         return allDirty;
+      }
+      // The elements changed since "clearDirty", unless "isAllDirty"
+      public BitSet dirtyElements() {
+         return dirtyElements;
+      }
+      public void clearDirty() {
+         if (dirtyElements != null) {
+            dirtyElements.clear();
+            allDirty = false;
+            recordingDirty = true;
+         }
+      }
+
+      private BitSet dirtyElements;
+      private boolean allDirty;
+      protected boolean recordingDirty;     // tracking, and not all dirty
+
+      // "index" and "length" count primitives
+      protected void recordDirty(int index) {
+         dirtyElements.set(index / type.primitivesPerElement);
+      }
+      protected void recordDirty(int index, int length) {
+         if (length > 0) {
+            int primitivesPerElement = type.primitivesPerElement;
+            dirtyElements.set(index / primitivesPerElement, 
+                              (index + length - 1) / primitivesPerElement + 1);
+         }
+      }
+
       // -----------------------------------------------------------------
       public static class Integers extends Array {
          public Integers (int primitivesPerElement) {
-            super(new Type(primitivesPerElement, Primitive.INTEGERS));
-            array = new int[type.primitivesPerElement * INITIAL_CAPACITY];
+            this(new Type(primitivesPerElement, Primitive.INTEGERS));
          }
-         private int[] array = null;
-         public int[] array() { return array; }
-         
-         // - - - - - - - - - - - - - 
-         public void setNumElements(int newNumElements) {
-            int lengthNeeded = type.primitivesPerElement * newNumElements;
-            if (array.length < lengthNeeded) {
-               int newLength = array.length;
-               while (newLength < lengthNeeded) newLength *= 2;
-               int[] newArray = new int [newLength];
-               System.arraycopy(array, 0, newArray, 0, type.primitivesPerElement * numElements);
-               array = newArray;
+         private Integers (Type type) {
+            super(type);
+            allocate(INITIAL_CAPACITY);
+         }
+         private Integers (Integers source) {
+            super(source.type);
+            shareChunksOf(source);
+         }
+         private int[][] ints;
+
+         public int getInt(int index) {
+            return ints[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+         }
+         public void setInt(int index, int value) {
+            int c = index >>> CHUNK_SHIFT;
+            if (!ownChunks[c]) ownChunk(c);
+            ints[c][index & CHUNK_MASK] = value;
+            if (recordingDirty) recordDirty(index);
+         }
+         public Integers snapshot() {
+            shareChunks();
+            return new Integers(this);
+         }
+         public void append(int[] source, int offset, int length) {
+            appendPrimitives(source, offset, length);
+         }
+
+         // - - - - - - - - - - - - -
+         protected void setChunks(Object[] chunks, boolean[] ownChunks, int primitiveCapacity) {
+            super.setChunks(chunks, ownChunks, primitiveCapacity);
+            ints = (int[][]) chunks;
+         }
+         protected Object[] newTable(int numChunks)          { return new int[numChunks][]; }
+         protected Object newChunk(int length)                { return new int[length]; }
+         protected int lengthOf(Object chunk)                 { return ((int[]) chunk).length; }
+         protected Object copyOf(Object chunk, int length)    { return Arrays.copyOf((int[]) chunk, length); }
+
+         protected void get(Object chunk, int index, Object target, int offset, int length) {
+            if (target instanceof ByteBuffer) {
+               ((ByteBuffer) target).asIntBuffer().put((int[]) chunk, index, length);
+            } else {
+               System.arraycopy(chunk, index, target, offset, length);
+            }
+         }
+         protected void put(Object source, int offset, Object chunk, int index, int length) {
+            if (source instanceof ByteBuffer) {
+               ((ByteBuffer) source).asIntBuffer().get((int[]) chunk, index, length);
+            } else {
+               System.arraycopy(source, offset, chunk, index, length);
             }
-            numElements = newNumElements;
          }
       }
       // -----------------------------------------------------------------
       public static class Floats extends Array {
          public Floats (int primitivesPerElement) {
-            super(new Type(primitivesPerElement, Primitive.FLOATS));
-            array = new float[type.primitivesPerElement * INITIAL_CAPACITY];
+            this(new Type(primitivesPerElement, Primitive.FLOATS));
          }
-         private float[] array = null;
-         public float[] array() { return array; }
-         
-         // - - - - - - - - - - - - - 
-         public void setNumElements(int newNumElements) {
-            int lengthNeeded = type.primitivesPerElement * newNumElements;
-            if (array.length < lengthNeeded) {
-               int newLength = array.length;
-               while (newLength < lengthNeeded) newLength *= 2;
-               float[] newArray = new float [newLength];
-               System.arraycopy(array, 0, newArray, 0, type.primitivesPerElement * numElements);
-               array = newArray;
+         private Floats (Type type) {
+            super(type);
+            allocate(INITIAL_CAPACITY);
+         }
+         private Floats (Floats source) {
+            super(source.type);
+            shareChunksOf(source);
+         }
+         private float[][] floats;
+
+         public float getFloat(int index) {
+            return floats[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+         }
+         public void setFloat(int index, float value) {
+            int c = index >>> CHUNK_SHIFT;
+            if (!ownChunks[c]) ownChunk(c);
+            floats[c][index & CHUNK_MASK] = value;
+            if (recordingDirty) recordDirty(index);
+         }
+         public Floats snapshot() {
+            shareChunks();
+            return new Floats(this);
+         }
+         public void append(float[] source, int offset, int length) {
+            appendPrimitives(source, offset, length);
+         }
+
+         // - - - - - - - - - - - - -
+         protected void setChunks(Object[] chunks, boolean[] ownChunks, int primitiveCapacity) {
+            super.setChunks(chunks, ownChunks, primitiveCapacity);
+            floats = (float[][]) chunks;
+         }
+         protected Object[] newTable(int numChunks)          { return new float[numChunks][]; }
+         protected Object newChunk(int length)                { return new float[length]; }
+         protected int lengthOf(Object chunk)                 { return ((float[]) chunk).length; }
+         protected Object copyOf(Object chunk, int length)    { return Arrays.copyOf((float[]) chunk, length); }
+
+         protected void get(Object chunk, int index, Object target, int offset, int length) {
+            if (target instanceof ByteBuffer) {
+               ((ByteBuffer) target).asFloatBuffer().put((float[]) chunk, index, length);
+            } else {
+               System.arraycopy(chunk, index, target, offset, length);
+            }
+         }
+         protected void put(Object source, int offset, Object chunk, int index, int length) {
+            if (source instanceof ByteBuffer) {
+               ((ByteBuffer) source).asFloatBuffer().get((float[]) chunk, index, length);
+            } else {
+               System.arraycopy(source, offset, chunk, index, length);
             }
-            numElements = newNumElements;
          }
       }
       // -----------------------------------------------------------------
       public static class Bytes extends Array {
          public Bytes (int primitivesPerElement) {
-            super(new Type(primitivesPerElement, Primitive.BYTES));
-            array = new byte[type.primitivesPerElement * INITIAL_CAPACITY];
+            this(new Type(primitivesPerElement, Primitive.BYTES));
          }
-         private byte[] array = null;
-         public byte[] array() { return array; }
-         
-         // - - - - - - - - - - - - - 
-         public void setNumElements(int newNumElements) {
-            int lengthNeeded = type.primitivesPerElement * newNumElements;
-            if (array.length < lengthNeeded) {
-               int newLength = array.length;
-               while (newLength < lengthNeeded) newLength *= 2;
-               byte[] newArray = new byte [newLength];
-               System.arraycopy(array, 0, newArray, 0, type.primitivesPerElement * numElements);
-               array = newArray;
+         private Bytes (Type type) {
+            super(type);
+            allocate(INITIAL_CAPACITY);
+         }
+         private Bytes (Bytes source) {
+            super(source.type);
+            shareChunksOf(source);
+         }
+         private byte[][] bytes;
+
+         public byte getByte(int index) {
+            return bytes[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+         }
+         public void setByte(int index, byte value) {
+            int c = index >>> CHUNK_SHIFT;
+            if (!ownChunks[c]) ownChunk(c);
+            bytes[c][index & CHUNK_MASK] = value;
+            if (recordingDirty) recordDirty(index);
+         }
+         public Bytes snapshot() {
+            shareChunks();
+            return new Bytes(this);
+         }
+         public void append(byte[] source, int offset, int length) {
+            appendPrimitives(source, offset, length);
+         }
+
+         // - - - - - - - - - - - - -
+         protected void setChunks(Object[] chunks, boolean[] ownChunks, int primitiveCapacity) {
+            super.setChunks(chunks, ownChunks, primitiveCapacity);
+            bytes = (byte[][]) chunks;
+         }
+         protected Object[] newTable(int numChunks)          { return new byte[numChunks][]; }
+         protected Object newChunk(int length)                { return new byte[length]; }
+         protected int lengthOf(Object chunk)                 { return ((byte[]) chunk).length; }
+         protected Object copyOf(Object chunk, int length)    { return Arrays.copyOf((byte[]) chunk, length); }
+
+         protected void get(Object chunk, int index, Object target, int offset, int length) {
+            if (target instanceof ByteBuffer) {
+               ((ByteBuffer) target).put((byte[]) chunk, index, length);
+            } else {
+               System.arraycopy(chunk, index, target, offset, length);
+            }
+         }
+         protected void put(Object source, int offset, Object chunk, int index, int length) {
+            if (source instanceof ByteBuffer) {
+               ((ByteBuffer) source).get((byte[]) chunk, index, length);
+            } else {
+               System.arraycopy(source, offset, chunk, index, length);
             }
-            numElements = newNumElements;
          }
       }
+      // -----------------------------------------------------------------
+      public static class Shorts extends Array {
+         public Shorts (int primitivesPerElement) {
+            this(new Type(primitivesPerElement, Primitive.SHORTS));
+         }
+         private Shorts (Type type) {
+            super(type);
+            allocate(INITIAL_CAPACITY);
+         }
+         private Shorts (Shorts source) {
+            super(source.type);
+            shareChunksOf(source);
+         }
+         private short[][] shorts;
+
+         public short getShort(int index) {
+            return shorts[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+         }
+         public void setShort(int index, short value) {
+            int c = index >>> CHUNK_SHIFT;
+            if (!ownChunks[c]) ownChunk(c);
+            shorts[c][index & CHUNK_MASK] = value;
+            if (recordingDirty) recordDirty(index);
+         }
+         public Shorts snapshot() {
+            shareChunks();
+            return new Shorts(this);
+         }
+         public void append(short[] source, int offset, int length) {
+            appendPrimitives(source, offset, length);
+         }
+
+         // - - - - - - - - - - - - -
+         protected void setChunks(Object[] chunks, boolean[] ownChunks, int primitiveCapacity) {
+            super.setChunks(chunks, ownChunks, primitiveCapacity);
+            shorts = (short[][]) chunks;
+         }
+         protected Object[] newTable(int numChunks)          { return new short[numChunks][]; }
+         protected Object newChunk(int length)                { return new short[length]; }
+         protected int lengthOf(Object chunk)                 { return ((short[]) chunk).length; }
+         protected Object copyOf(Object chunk, int length)    { return Arrays.copyOf((short[]) chunk, length); }
+
+         protected void get(Object chunk, int index, Object target, int offset, int length) {
+            if (target instanceof ByteBuffer) {
+               ((ByteBuffer) target).asShortBuffer().put((short[]) chunk, index, length);
+            } else {
+               System.arraycopy(chunk, index, target, offset, length);
+            }
+         }
+         protected void put(Object source, int offset, Object chunk, int index, int length) {
+            if (source instanceof ByteBuffer) {
+               ((ByteBuffer) source).asShortBuffer().get((short[]) chunk, index, length);
+            } else {
+               System.arraycopy(source, offset, chunk, index, length);
+            }
+         }
+      }
+      // -----------------------------------------------------------------
+      // A Direct Array keeps each chunk in a direct ByteBuffer in native
+      // byte order, which backends can upload to the GPU without copying
+      // (see "chunkBytes").
+      // -----------------------------------------------------------------
+      public static class Direct extends Array {
+         public Direct (Type type) {
+            super(type);
+            bytesPerElement = type.primitivesPerElement * type.primitive.bytes;
+            holds = heapArrayClass(type.primitive);
+            allocate(INITIAL_CAPACITY);
+         }
+         private Direct (Direct source) {
+            super(source.type);
+            bytesPerElement = source.bytesPerElement;
+            holds = source.holds;
+            shareChunksOf(source);
+         }
+         private Direct (Type type, ByteBuffer elements) {
+            super(type);
+            bytesPerElement = type.primitivesPerElement * type.primitive.bytes;
+            holds = heapArrayClass(type.primitive);
+
+            int bytesPerPrimitive = type.primitive.bytes;
+            int numPrimitives = elements.remaining() / bytesPerPrimitive;
+            int numChunks = (numPrimitives + CHUNK_MASK) >>> CHUNK_SHIFT;
+            ByteBuffer[] chunks = new ByteBuffer[numChunks];
+            for (int c = 0; c < numChunks; ++c) {
+               int length = Math.min(CHUNK_SIZE, numPrimitives - (c << CHUNK_SHIFT));
+               ByteBuffer chunk = elements.duplicate();
+               chunk.position(elements.position() + (c << CHUNK_SHIFT) * bytesPerPrimitive);
+               chunk.limit(chunk.position() + length * bytesPerPrimitive);
+               chunks[c] = chunk.slice().order(ByteOrder.nativeOrder());
+            }
+            setChunks(chunks, new boolean[numChunks], numPrimitives);
+            numElements = capacity();
+         }
+         // A Direct Array over the bytes between the position and limit of
+         // "elements", without copying them (as "Mesh.loadBinary" does with
+         // a mapped file).  The bytes aren't this Array's to change, so it
+         // treats each chunk of them like one a snapshot shares, copying it
+         // the first time it's written to.
+         public static Direct wrap(Type type, ByteBuffer elements) {
+            if (!elements.isDirect() || (elements.order() != ByteOrder.nativeOrder())) {
+               throw new RuntimeException("Can only wrap a direct buffer in native byte order");
+            }
+            if ((elements.remaining() % (type.primitivesPerElement * type.primitive.bytes)) != 0) {
+               throw new RuntimeException(String.format(
+                     "%d bytes is not a whole number of elements", elements.remaining()));
+            }
+            return new Direct(type, elements);
+         }
+         public final int bytesPerElement;
+         private final Class<?> holds;
+         private ByteBuffer[] buffers;
+
+         public int getInt(int index) {
+            checkHolds(int[].class, "int");
+            return buffers[index >>> CHUNK_SHIFT].getInt((index & CHUNK_MASK) << 2);
+         }
+         public void setInt(int index, int value) {
+            checkHolds(int[].class, "int");
+            ((ByteBuffer) writableChunk(index >>> CHUNK_SHIFT)).putInt((index & CHUNK_MASK) << 2, value);
+            if (recordingDirty) recordDirty(index);
+         }
+         public float getFloat(int index) {
+            checkHolds(float[].class, "float");
+            return buffers[index >>> CHUNK_SHIFT].getFloat((index & CHUNK_MASK) << 2);
+         }
+         public void setFloat(int index, float value) {
+            checkHolds(float[].class, "float");
+            ((ByteBuffer) writableChunk(index >>> CHUNK_SHIFT)).putFloat((index & CHUNK_MASK) << 2, value);
+            if (recordingDirty) recordDirty(index);
+         }
+         public short getShort(int index) {
+            checkHolds(short[].class, "short");
+            return buffers[index >>> CHUNK_SHIFT].getShort((index & CHUNK_MASK) << 1);
+         }
+         public void setShort(int index, short value) {
+            checkHolds(short[].class, "short");
+            ((ByteBuffer) writableChunk(index >>> CHUNK_SHIFT)).putShort((index & CHUNK_MASK) << 1, value);
+            if (recordingDirty) recordDirty(index);
+         }
+         public byte getByte(int index) {
+            checkHolds(byte[].class, "byte");
+            return buffers[index >>> CHUNK_SHIFT].get(index & CHUNK_MASK);
+         }
+         public void setByte(int index, byte value) {
+            checkHolds(byte[].class, "byte");
+            ((ByteBuffer) writableChunk(index >>> CHUNK_SHIFT)).put(index & CHUNK_MASK, value);
+            if (recordingDirty) recordDirty(index);
+         }
+         private void checkHolds(Class<?> heapArrayClass, String javaType) {
+            if (holds != heapArrayClass) {
+               throw notHolding(javaType);
+            }
+         }
+
+         // The bytes from "firstByte" to "endByte", or to the end of the
+         // chunk holding "firstByte" if that comes first, for a backend to
+         // upload.  Going through a range a chunk at a time:
+         //
+         //    for (int b = first; b < end; ) {
+         //       ByteBuffer bytes = array.chunkBytes(b, end);
+         //       ... upload "bytes" to offset b ...
+         //       b += bytes.remaining();
+         //    }
+         public ByteBuffer chunkBytes(int firstByte, int endByte) {
+            int bytesPerChunk = CHUNK_SIZE * type.primitive.bytes;
+            int c = firstByte / bytesPerChunk;
+            int chunkStart = c * bytesPerChunk;
+            ByteBuffer bytes = buffers[c].asReadOnlyBuffer();
+            bytes.limit(Math.min(endByte - chunkStart, bytes.capacity()));
+            bytes.position(firstByte - chunkStart);
+            return bytes;
+         }
+
+         public Direct snapshot() {
+            shareChunks();
+            return new Direct(this);
+         }
+         public void append(int[] source, int offset, int length) {
+            appendPrimitives(source, offset, length);
+         }
+         public void append(float[] source, int offset, int length) {
+            appendPrimitives(source, offset, length);
+         }
+         public void append(short[] source, int offset, int length) {
+            appendPrimitives(source, offset, length);
+         }
+         public void append(byte[] source, int offset, int length) {
+            appendPrimitives(source, offset, length);
+         }
+
+         // - - - - - - - - - - - - -
+         protected void setChunks(Object[] chunks, boolean[] ownChunks, int primitiveCapacity) {
+            super.setChunks(chunks, ownChunks, primitiveCapacity);
+            buffers = (ByteBuffer[]) chunks;
+         }
+         protected Object[] newTable(int numChunks) {
+            return new ByteBuffer[numChunks];
+         }
+         protected Object newChunk(int length) {
+            return ByteBuffer.allocateDirect(length * type.primitive.bytes).order(ByteOrder.nativeOrder());
+         }
+         protected int lengthOf(Object chunk) {
+            return ((ByteBuffer) chunk).capacity() / type.primitive.bytes;
+         }
+         protected Object copyOf(Object chunk, int length) {
+            ByteBuffer from = ((ByteBuffer) chunk).duplicate();
+            from.clear();
+            from.limit(Math.min(from.capacity(), length * type.primitive.bytes));
+            ByteBuffer to = (ByteBuffer) newChunk(length);
+            to.put(from);
+            to.clear();
+            return to;
+         }
+
+         protected void get(Object chunk, int index, Object target, int offset, int length) {
+            ByteBuffer from = bytesOf(chunk, index, length);
+            if (target instanceof ByteBuffer) {
+               transfer(from, (ByteBuffer) target);
+            } else if (target instanceof int[]) {
+               from.asIntBuffer().get((int[]) target, offset, length);
+            } else if (target instanceof float[]) {
+               from.asFloatBuffer().get((float[]) target, offset, length);
+            } else if (target instanceof short[]) {
+               from.asShortBuffer().get((short[]) target, offset, length);
+            } else {
+               from.get((byte[]) target, offset, length);
+            }
+         }
+         protected void put(Object source, int offset, Object chunk, int index, int length) {
+            ByteBuffer to = bytesOf(chunk, index, length);
+            if (source instanceof ByteBuffer) {
+               transfer((ByteBuffer) source, to);
+            } else if (source instanceof int[]) {
+               to.asIntBuffer().put((int[]) source, offset, length);
+            } else if (source instanceof float[]) {
+               to.asFloatBuffer().put((float[]) source, offset, length);
+            } else if (source instanceof short[]) {
+               to.asShortBuffer().put((short[]) source, offset, length);
+            } else {
+               to.put((byte[]) source, offset, length);
+            }
+         }
+         // The "length" primitives from "index" in a chunk
+         private ByteBuffer bytesOf(Object chunk, int index, int length) {
+            int bytesPerPrimitive = type.primitive.bytes;
+            ByteBuffer bytes = ((ByteBuffer) chunk).duplicate().order(ByteOrder.nativeOrder());
+            bytes.limit((index + length) * bytesPerPrimitive);
+            bytes.position(index * bytesPerPrimitive);
+            return bytes;
+         }
+         // Copies the remaining bytes of "from" to "to", switching the byte
+         // order of each primitive if they differ
+         private void transfer(ByteBuffer from, ByteBuffer to) {
+            int bytesPerPrimitive = type.primitive.bytes;
+            if ((from.order() == to.order()) || (bytesPerPrimitive == 1)) {
+               to.put(from);
+            } else if (bytesPerPrimitive == 4) {
+               to.asIntBuffer().put(from.asIntBuffer());
+            } else {
+               to.asShortBuffer().put(from.asShortBuffer());
+            }
+         }
+      }
+      // -----------------------------------------------------------------
+      // Conversions between floats and the compact primitives.
+      // Normalized values are clamped to their range and rounded to nearest.
+      // -----------------------------------------------------------------
+      public static byte toNormalizedByte(float value) {
+         return (byte) Math.round(Math.max(-1.0f, Math.min(1.0f, value)) * 127.0f);
+      }
+      public static float fromNormalizedByte(byte value) {
+         return Math.max(-1.0f, value / 127.0f);
+      }
+      public static byte toNormalizedUnsignedByte(float value) {
+         return (byte) Math.round(Math.max(0.0f, Math.min(1.0f, value)) * 255.0f);
+      }
+      public static float fromNormalizedUnsignedByte(byte value) {
+         return (value & 0xff) / 255.0f;
+      }
+      
+      public static int toPacked2_10_10_10(float x, float y, float z, float w) {
+         return  (Math.round(Math.max(-1.0f, Math.min(1.0f, x)) * 511.0f) & 0x3ff)
+              | ((Math.round(Math.max(-1.0f, Math.min(1.0f, y)) * 511.0f) & 0x3ff) << 10)
+              | ((Math.round(Math.max(-1.0f, Math.min(1.0f, z)) * 511.0f) & 0x3ff) << 20)
+              |  (Math.round(Math.max(-1.0f, Math.min(1.0f, w))) << 30);
+      }
+      // Component 0, 1, 2 or 3 (x, y, z or w) of a PACKED_2_10_10_10 int
+      public static float fromPacked2_10_10_10(int packed, int component) {
+         if (component == 3) {
+            return Math.max(-1.0f, packed >> 30);
+         }
+         int value = (packed << (22 - 10 * component)) >> 22;
+         return Math.max(-1.0f, value / 511.0f);
+      }
+      
+      // IEEE half-precision, rounding to nearest even.  Values too large
+      // for a half become infinity, and values too small become zero.
+      public static short toHalfFloat(float value) {
+         int bits = Float.floatToRawIntBits(value);
+         int sign = (bits >>> 16) & 0x8000;
+         int floatExponent = (bits >>> 23) & 0xff;
+         int mantissa = bits & 0x7fffff;
+         if (floatExponent == 0xff) {
+            return (short) (sign | 0x7c00 | ((mantissa != 0) ? 0x200 : 0));
+         }
+         int exponent = floatExponent - 127 + 15;
+         if (exponent >= 0x1f) {
+            return (short) (sign | 0x7c00);
+         }
+         int half, shift;
+         if (exponent <= 0) {
+            // A subnormal half, counting in units of 2^-24
+            if (exponent < -10) return (short) sign;
+            mantissa |= 0x800000;
+            shift = 14 - exponent;
+            half = mantissa >> shift;
+         } else {
+            shift = 13;
+            half = (exponent << 10) | (mantissa >> shift);
+         }
+         int remainder = mantissa & ((1 << shift) - 1);
+         int halfway = 1 << (shift - 1);
+         if ((remainder > halfway) || ((remainder == halfway) && ((half & 1) != 0))) {
+            half++;   // which may carry into the exponent, as it should
+         }
+         return (short) (sign | half);
+      }
+      public static float fromHalfFloat(short value) {
+         int sign = (value & 0x8000) << 16;
+         int exponent = (value >>> 10) & 0x1f;
+         int mantissa = value & 0x3ff;
+         if (exponent == 0x1f) {
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+         }
+         if (exponent == 0) {
+            float magnitude = mantissa * (1.0f / (1 << 24));
+            return (sign != 0) ? -magnitude : magnitude;
+         }
+         return Float.intBitsToFloat(sign | ((exponent - 15 + 127) << 23) | (mantissa << 13));
+      }
+      
       // -----------------------------------------------------------------
       private static int INITIAL_CAPACITY = 4;
    }
@@ -52,10 +52,6 @@ public class Image {
          public Bytes (int width, int height) {
             super (width, height, Data.Array.Type.THREE_BYTES);
          }
-         public byte[] array() {
-            return ((Data.Array.Bytes) data).array();
-         }
-         
          public Cursor newCursor() {
             return new Cursor(this);
          }
@@ -70,12 +66,12 @@ public class Image {
             };
          }
          private static class Cursor implements Image.RGB.Cursor {
-            private final byte[] arr;
+            private final Data.Array arr;
             private int width;
             private int loc;
             
             public Cursor(Image.RGB.Bytes image) {
-               arr = image.array();
+               arr = image.data;
                width = image.width;
                loc = 0;
             }
@@ -84,13 +80,13 @@ public class Image {
                return this;
             }
             public Color getColor() {
-               return Color.rgbBytes(arr[loc], arr[loc+1], arr[loc+2]);
+               return Color.rgbBytes(arr.getByte(loc), arr.getByte(loc+1), arr.getByte(loc+2));
             }
             public void setColor(Color color) {
                Color.RGB.Bytes rgb = color.rgbBytes();
-               arr[loc] = rgb.r;
-               arr[loc] = rgb.g;
-               arr[loc] = rgb.b;
+               arr.setByte(loc,   rgb.r);
+               arr.setByte(loc+1, rgb.g);
+               arr.setByte(loc+2, rgb.b);
             }
          }
       }
@@ -103,17 +99,14 @@ public class Image {
          public Integers (int width, int height) {
             super (width, height, Data.Array.Type.ONE_INTEGER);
          }
-         public int[] array() {
-            return ((Data.Array.Integers) data).array();
-         }
 
          private static class Cursor implements Image.RGB.Cursor {
-            private final int[] arr;
+            private final Data.Array arr;
             private int width;
             private int loc;
             
             public Cursor(Image.RGB.Integers image) {
-               arr = image.array();
+               arr = image.data;
                width = image.width;
                loc = 0;
             }
@@ -122,13 +115,13 @@ public class Image {
                return this;
             }
             public Color getColor() {
-               return Color.RGB.Bytes.fromInteger(arr[loc]);
+               return Color.RGB.Bytes.fromInteger(arr.getInt(loc));
             }
             public void setColor(Color color) {
-               arr[loc] = color.rgbBytes().toInteger();
+               arr.setInt(loc, color.rgbBytes().toInteger());
             }
             public void setValue(int val) {
-               arr[loc] = val;
+               arr.setInt(loc, val);
             }
          }
          public Cursor newCursor() {
@@ -184,17 +177,14 @@ public class Image {
          public Floats (int width, int height) {
             super (width, height, Data.Array.Type.ONE_FLOAT);
          }
-         public float[] array() {
-            return ((Data.Array.Floats) data).array();
-         }
 
          private static class Cursor implements Image.Grayscale.Cursor {
-            private final float[] arr;
+            private final Data.Array arr;
             private int width;
             private int loc;
             
             public Cursor(Image.Grayscale.Floats image) {
-               arr = image.array();
+               arr = image.data;
                width = image.width;
                loc = 0;
             }
@@ -203,10 +193,10 @@ public class Image {
                return this;
             }
             public float getValue() {
-               return arr[loc];
+               return arr.getFloat(loc);
             }
             public void setValue(float val) {
-               arr[loc] = val;
+               arr.setFloat(loc, val);
             }
          }
          public Cursor newCursor() {
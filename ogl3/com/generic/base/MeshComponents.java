@@ -0,0 +1,244 @@
+package com.generic.base;
+
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntConsumer;
+
+// ==================================================================
+// MeshComponents splits the faces of a Mesh into connected components,
+// faces being connected when they share an edge (faces meeting only at
+// a vertex are in different components).  Algorithms that assume a
+// connected mesh can then be run on each component in turn, or on all
+// of them in parallel, rather than silently missing pieces.
+//
+// The result is a ONE_INTEGER_PER_FACE DataLayer ("components" unless
+// told otherwise) holding each face's component, numbered 0,1,2...
+// in order of the lowest face-ID in each, plus the number of faces in
+// each component and a list of the faces in each.
+//
+// The work is a union-find over face-IDs, with the edges processed in
+// parallel over ranges of edge-IDs on the common fork/join pool.  The
+// parents live in an AtomicIntegerArray: a union links the root with
+// the higher ID under the other with compareAndSet, retrying if another
+// thread got there first, and finds halve their paths as they go.
+// Always linking towards the lower ID means there can't be a cycle, and
+// that each root is the lowest face-ID in its component.
+//
+// Like the other passes over a Mesh, it's a snapshot: "compute" again
+// after the faces change.
+// ==================================================================
+
+public class MeshComponents {
+
+   public final Mesh mesh;
+   public final Mesh.DataLayer components;
+
+   public MeshComponents(Mesh mesh) {
+      this(mesh, "components");
+   }
+   // Uses the layer called "name" if the mesh has one, otherwise adds it
+   public MeshComponents(Mesh mesh, String name) {
+      this.mesh = mesh;
+      Mesh.DataLayer existing = mesh.dataLayer(name, Mesh.DataLayer.Type.ONE_INTEGER_PER_FACE);
+      this.components = (existing != null) ? existing
+                      : mesh.newDataLayer(name, Mesh.DataLayer.Type.ONE_INTEGER_PER_FACE);
+   }
+
+   public void compute() {
+      int numFaceIDs = mesh.numFaceIDs();
+      parents = new AtomicIntegerArray(numFaceIDs);
+      Data.Array componentOfFace = components.data;
+      // The LABEL tasks write to it in parallel, rewriting all of it
+      componentOfFace.unshare();
+      components.markAllDirty();
+
+      new Task(Pass.INIT, 0, numFaceIDs).invoke();
+      new Task(Pass.UNION, 0, mesh.numEdgeIDs()).invoke();
+
+      // Every root is the lowest face-ID of its component, so numbering
+      // them in order numbers the components by their lowest face
+      numComponents = 0;
+      for (int face = 0; face < numFaceIDs; ++face) {
+         componentOfFace.setInt(face, (mesh.isFaceInMesh(face) && (parents.get(face) == face))
+                                      ? numComponents++ : -1);
+      }
+      new Task(Pass.LABEL, 0, numFaceIDs).invoke();
+      parents = null;
+
+      // A counting sort of the faces by component
+      componentOffsets = new int[numComponents + 1];
+      for (int face = 0; face < numFaceIDs; ++face) {
+         int component = componentOfFace.getInt(face);
+         if (component >= 0) componentOffsets[component + 1]++;
+      }
+      for (int component = 0; component < numComponents; ++component) {
+         componentOffsets[component + 1] += componentOffsets[component];
+      }
+      componentFaces = new int[componentOffsets[numComponents]];
+      int[] next = componentOffsets.clone();
+      for (int face = 0; face < numFaceIDs; ++face) {
+         int component = componentOfFace.getInt(face);
+         if (component >= 0) componentFaces[next[component]++] = face;
+      }
+   }
+
+   public int numComponents() {
+      return numComponents;
+   }
+   // The number of faces in "component"
+   public int size(int component) {
+      return componentOffsets[component + 1] - componentOffsets[component];
+   }
+   public int componentOf(int face) {
+      return components.data.getInt(face);
+   }
+   // The faces of "component", in order of face-ID
+   public void forEachFace(int component, IntConsumer action) {
+      for (int i = componentOffsets[component]; i < componentOffsets[component + 1]; ++i) {
+         action.accept(componentFaces[i]);
+      }
+   }
+   // The component with the most faces, or -1 if there are no faces
+   public int largestComponent() {
+      int largest = -1;
+      for (int component = 0; component < numComponents; ++component) {
+         if ((largest < 0) || (size(component) > size(largest))) largest = component;
+      }
+      return largest;
+   }
+
+   // ------------------------------------------
+   // Private
+   // ------------------------------------------
+
+   // Ranges of fewer IDs than this are done without splitting further
+   private static final int IDS_PER_TASK = 4096;
+
+   private AtomicIntegerArray parents;
+   private int numComponents;
+   private int[] componentOffsets = new int[1];
+   private int[] componentFaces = new int[0];
+
+   private enum Pass { INIT, UNION, LABEL };
+
+   private class Task extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+
+      private final Pass pass;
+      private final int first, last;
+
+      Task(Pass pass, int first, int last) {
+         this.pass = pass;
+         this.first = first;
+         this.last = last;
+      }
+      protected void compute() {
+         if (last - first > IDS_PER_TASK) {
+            int middle = (first + last) >>> 1;
+            invokeAll(new Task(pass, first, middle),
+                      new Task(pass, middle, last));
+            return;
+         }
+         switch (pass) {
+            case INIT:
+               for (int face = first; face < last; ++face) {
+                  parents.set(face, face);
+               }
+               break;
+            case UNION:
+               for (int edge = first; edge < last; ++edge) {
+                  if (!mesh.isEdgeInMesh(edge)) continue;
+                  int faceA = mesh.faceOf(2 * edge);
+                  int faceB = mesh.faceOf(2 * edge + 1);
+                  if ((faceA >= 0) && (faceB >= 0)) union(faceA, faceB);
+               }
+               break;
+            case LABEL:
+               for (int face = first; face < last; ++face) {
+                  if (mesh.isFaceInMesh(face)) components.data.setInt(face, components.data.getInt(find(face)));
+               }
+               break;
+         }
+      }
+   }
+
+   private int find(int x) {
+      while (true) {
+         int parent = parents.get(x);
+         if (parent == x) return x;
+         int grandparent = parents.get(parent);
+         if (grandparent != parent) parents.compareAndSet(x, parent, grandparent);
+         x = grandparent;
+      }
+   }
+
+   private void union(int a, int b) {
+      while (true) {
+         a = find(a);
+         b = find(b);
+         if (a == b) return;
+         if (a < b) {
+            int t = a;
+            a = b;
+            b = t;
+         }
+         // Only a root can be linked, if "a" stopped being one since we
+         // found it, look again
+         if (parents.compareAndSet(a, a, b)) return;
+      }
+   }
+
+   // -----------------------------------------------------------------------
+   // TESTING
+   // -----------------------------------------------------------------------
+
+   // A grid of quads big enough to be split over several tasks, then
+   // lots of lone triangles, then a bowtie (two triangles meeting only at
+   // a vertex, which makes two components).  Then a row across the middle
+   // of the grid is removed, which splits it in two and leaves a gap in
+   // the face-IDs.
+   public static void testDisconnected() {
+      int side = 70, numLoose = 2000;
+      Mesh mesh = new Mesh();
+      for (int i = 0; i < (side + 1) * (side + 1); ++i) mesh.newVertexID();
+      int[] gridFaces = new int[side * side];
+      for (int y = 0; y < side; ++y) {
+         for (int x = 0; x < side; ++x) {
+            int v = y * (side + 1) + x;
+            gridFaces[y * side + x] = mesh.addFace(v, v + 1, v + side + 2, v + side + 1);
+         }
+      }
+      for (int i = 0; i < numLoose; ++i) {
+         int v = mesh.newVertexID();
+         mesh.newVertexID();
+         mesh.newVertexID();
+         mesh.addFace(v, v + 1, v + 2);
+      }
+      int hub = mesh.newVertexID();
+      for (int i = 0; i < 4; ++i) mesh.newVertexID();
+      mesh.addFace(hub, hub + 1, hub + 2);
+      mesh.addFace(hub, hub + 3, hub + 4);
+
+      MeshComponents components = new MeshComponents(mesh);
+      components.compute();
+      boolean ok = (components.numComponents() == 1 + numLoose + 2)
+                && (components.largestComponent() == 0)
+                && (components.size(0) == side * side)
+                && (components.size(1) == 1)
+                && (components.componentOf(gridFaces[gridFaces.length - 1]) == 0);
+
+      for (int x = 0; x < side; ++x) {
+         mesh.removeFace(gridFaces[(side / 2) * side + x]);
+      }
+      components.compute();
+      ok &= (components.numComponents() == 2 + numLoose + 2)
+         && (components.size(0) == (side / 2) * side)
+         && (components.size(1) == (side - side / 2 - 1) * side)
+         && (components.componentOf(gridFaces[(side / 2) * side]) == -1)
+         && (components.componentOf(gridFaces[gridFaces.length - 1]) == 1);
+      int[] count = new int[1];
+      components.forEachFace(components.numComponents() - 1, face -> count[0]++);
+      ok &= (count[0] == 1);
+      System.out.format("MeshComponents disconnected: %s\n", ok ? "OK" : "PROBLEM");
+   }
+}
@@ -0,0 +1,643 @@
+package com.generic.base;
+
+import java.util.BitSet;
+import java.util.concurrent.RecursiveAction;
+
+// ==================================================================
+// A MeshFlattener turns the faces of a Mesh into a "triangle soup":
+// "positions", "normals" and "baryCoords" for three corners of every
+// triangle, ready to hand to a Rendering.  These go either into three
+// separate vertexBuffers, or INTERLEAVED into a single vertexBuffer with
+// all nine floats of each corner side by side.
+//
+// Each face is fanned out into (numEdgesForFace - 2) triangles.  A prefix
+// sum over the faces tells us where each face's triangles start, so the
+// faces can then be filled in independently, in parallel over ranges of
+// face-IDs using the common fork/join pool.
+//
+// After that, moving vertices doesn't need a full rebuild.  Mark the
+// moved vertices dirty in the mesh "positions" DataLayer and call
+// "update": only the triangle corners using those vertices are rewritten,
+// and the Rendering is told which byte ranges of which vertexBuffers
+// changed.
+//
+// The vertexBuffers can be DIRECT Data.Arrays, which a backend can upload
+// without first copying them off the Java heap.
+//
+// In the COMPACT format, each normal is packed into one PACKED_2_10_10_10
+// int and the baryCoords (which are all -1, 0 or 1) into four
+// NORMALIZED_BYTES, so a corner takes 20 bytes rather than 36.
+//
+// Given a MeshNormals ("setSmoothNormals"), every corner gets the smooth
+// normal of its vertex rather than the flat normal of its triangle, and
+// "flatten" and "update" keep the MeshNormals up to date as they go.
+//
+// A MeshFlattener made from QuantizedPositions copies their SHORTS into
+// SEPARATE FOUR_SHORTS positions (the fourth is padding), 8 bytes a
+// corner rather than 12.  Bind them with "positionsDequantization()".
+// ==================================================================
+
+public class MeshFlattener {
+
+   public enum Layout { SEPARATE, INTERLEAVED };
+   public enum Format { FULL, COMPACT };
+
+   // Where each value sits in the nine floats of an INTERLEAVED corner
+   public static final int POSITIONS_OFFSET  = 0;
+   public static final int NORMALS_OFFSET    = 3;
+   public static final int BARYCOORDS_OFFSET = 6;
+   public static final int FLOATS_PER_CORNER = 9;
+
+   public final Mesh mesh;
+   public final Mesh.DataLayer meshPositions;
+   public final QuantizedPositions quantizedPositions;
+   public final Layout layout;
+   public final Format format;
+   public final Data.Array.Storage storage;
+
+   // With the SEPARATE layout:
+   public final Data.Array positions;
+   public final Data.Array normals;
+   public final Data.Array baryCoords;
+   // With the INTERLEAVED layout:
+   public final Data.Array corners;
+
+   public MeshFlattener(Mesh mesh) {
+      this(mesh, Layout.SEPARATE);
+   }
+   public MeshFlattener(Mesh mesh, Layout layout) {
+      this(mesh, layout, Data.Array.Storage.HEAP);
+   }
+   public MeshFlattener(Mesh mesh, Layout layout, Data.Array.Storage storage) {
+      this(mesh, layout, Format.FULL, storage);
+   }
+   // The COMPACT format mixes primitive types, so it needs the SEPARATE layout
+   public MeshFlattener(Mesh mesh, Layout layout, Format format, Data.Array.Storage storage) {
+      this(mesh, null, layout, format, storage);
+   }
+   // Quantized positions always go in a SEPARATE vertexBuffer
+   public MeshFlattener(QuantizedPositions quantizedPositions, Format format, Data.Array.Storage storage) {
+      this(quantizedPositions.layer.mesh, quantizedPositions, Layout.SEPARATE, format, storage);
+   }
+   private MeshFlattener(Mesh mesh, QuantizedPositions quantizedPositions,
+                         Layout layout, Format format, Data.Array.Storage storage) {
+      if ((format == Format.COMPACT) && (layout != Layout.SEPARATE)) {
+         throw new RuntimeException("The COMPACT format needs the SEPARATE layout");
+      }
+      this.mesh = mesh;
+      this.quantizedPositions = quantizedPositions;
+      this.meshPositions = (quantizedPositions != null) ? quantizedPositions.layer
+            : mesh.dataLayer("positions", Mesh.DataLayer.Type.THREE_FLOATS_PER_VERTEX);
+      if (meshPositions == null) {
+         throw new RuntimeException("Failed to find position dataLayer");
+      }
+      this.layout = layout;
+      this.format = format;
+      this.storage = storage;
+      Data.Array.Type positionsType = (quantizedPositions != null) ? Data.Array.Type.FOUR_SHORTS
+                                                                   : Data.Array.Type.THREE_FLOATS;
+      if (format == Format.COMPACT) {
+         positions  = Data.Array.create(positionsType, storage);
+         normals    = Data.Array.create(Data.Array.Type.ONE_PACKED_2_10_10_10, storage);
+         baryCoords = Data.Array.create(Data.Array.Type.FOUR_NORMALIZED_BYTES, storage);
+         corners    = null;
+         stride = 3;
+         positionsOffset = normalsOffset = baryCoordsOffset = 0;
+      } else if (layout == Layout.SEPARATE) {
+         positions  = Data.Array.create(positionsType, storage);
+         normals    = Data.Array.create(Data.Array.Type.THREE_FLOATS, storage);
+         baryCoords = Data.Array.create(Data.Array.Type.THREE_FLOATS, storage);
+         corners    = null;
+         stride = 3;
+         positionsOffset = normalsOffset = baryCoordsOffset = 0;
+      } else {
+         positions = normals = baryCoords = null;
+         corners   = Data.Array.create(Data.Array.Type.NINE_FLOATS, storage);
+         stride = FLOATS_PER_CORNER;
+         positionsOffset  = POSITIONS_OFFSET;
+         normalsOffset    = NORMALS_OFFSET;
+         baryCoordsOffset = BARYCOORDS_OFFSET;
+      }
+      triangleOffsets = new int[1];
+      cornerVertices = new int[0];
+      dirtyTriangles = new BitSet();
+   }
+
+   // Registers the three SEPARATE vertexBuffers with a Rendering under the
+   // given IDs, so that "flatten" and "update" can report their changes to it
+   public void addTo(Rendering rendering, int positionsId, int normalsId, int baryCoordsId) {
+      if (layout != Layout.SEPARATE) {
+         throw new RuntimeException("INTERLEAVED MeshFlattener has only one vertexBuffer");
+      }
+      this.rendering = rendering;
+      this.positionsId = positionsId;
+      this.normalsId = normalsId;
+      this.baryCoordsId = baryCoordsId;
+      rendering.vertexBuffers.put(positionsId,  positions);
+      rendering.vertexBuffers.put(normalsId,    normals);
+      rendering.vertexBuffers.put(baryCoordsId, baryCoords);
+   }
+   // Registers the one INTERLEAVED vertexBuffer with a Rendering
+   public void addTo(Rendering rendering, int cornersId) {
+      if (layout != Layout.INTERLEAVED) {
+         throw new RuntimeException("SEPARATE MeshFlattener has three vertexBuffers");
+      }
+      this.rendering = rendering;
+      this.cornersId = cornersId;
+      rendering.vertexBuffers.put(cornersId, corners);
+   }
+
+   // Shades with the vertex normals of "smoothNormals" (which must use the
+   // same positions), or with flat triangle normals again if it's null.
+   // Call "flatten" afterwards.
+   public void setSmoothNormals(MeshNormals smoothNormals) {
+      if ((smoothNormals != null) && (smoothNormals.meshPositions != meshPositions)) {
+         throw new RuntimeException("MeshNormals uses different positions");
+      }
+      if ((smoothNormals != null) && (smoothNormals.normals == null)) {
+         throw new RuntimeException("MeshNormals has only face normals");
+      }
+      this.smoothNormals = smoothNormals;
+   }
+
+   // Rebuilds the vertexBuffers from the current state of the mesh
+   public void flatten() {
+      int numFaceIDs = mesh.numFaceIDs();
+      if (triangleOffsets.length < numFaceIDs + 1) {
+         triangleOffsets = new int[numFaceIDs + 1];
+      }
+
+      // triangleOffsets[face+1] first gets the number of triangles in
+      // the face, which we then turn into a running total:
+      new Task(Pass.COUNT, 0, numFaceIDs).invoke();
+      triangleOffsets[0] = 0;
+      for (int face = 0; face < numFaceIDs; ++face) {
+         triangleOffsets[face + 1] += triangleOffsets[face];
+      }
+      numTriangles = triangleOffsets[numFaceIDs];
+
+      if (layout == Layout.SEPARATE) {
+         positions.setNumElements(3 * numTriangles);
+         normals.setNumElements(3 * numTriangles);
+         baryCoords.setNumElements(3 * numTriangles);
+      } else {
+         corners.setNumElements(3 * numTriangles);
+      }
+      if (cornerVertices.length < 3 * numTriangles) {
+         cornerVertices = new int[3 * numTriangles];
+      }
+      bindOutputs();
+      // The FILL tasks write to the vertexBuffers in parallel, so they need
+      // every chunk of their own first, in case something snapshotted them
+      for (Data.Array array : new Data.Array[] { positions, normals, baryCoords, corners }) {
+         if (array != null) array.unshare();
+      }
+      if (smoothNormals != null) {
+         smoothNormals.compute();
+      }
+      new Task(Pass.FILL, 0, numFaceIDs).invoke();
+      
+      // We've caught up with every change, and the vertex-to-corner
+      // mapping will have to be rebuilt if "update" is called:
+      meshPositions.clearDirty();
+      if (smoothNormals != null) {
+         smoothNormals.normals.clearDirty();
+      }
+      vertexCornerOffsets = null;
+      
+      if (rendering != null) {
+         if (layout == Layout.SEPARATE) {
+            rendering.vertexBufferChanged(positionsId);
+            rendering.vertexBufferChanged(normalsId);
+            rendering.vertexBufferChanged(baryCoordsId);
+         } else {
+            rendering.vertexBufferChanged(cornersId);
+         }
+      }
+   }
+   
+   // Rewrites the corners of the triangles using vertices marked dirty in
+   // the mesh "positions" DataLayer, and recomputes their normals.
+   // This assumes the faces haven't changed since "flatten" was called.
+   public void update() {
+      if (meshPositions.isAllDirty()) {
+         flatten();
+         return;
+      }
+      BitSet dirtyVertices = meshPositions.dirtyElements();
+      if (dirtyVertices.isEmpty()) return;
+      if (vertexCornerOffsets == null) {
+         buildVertexCorners();
+      }
+      
+      bindOutputs();
+      int numMappedVertices = vertexCornerOffsets.length - 1;
+      
+      dirtyTriangles.clear();
+      for (int vertex = dirtyVertices.nextSetBit(0);
+           (vertex >= 0) && (vertex < numMappedVertices);
+           vertex = dirtyVertices.nextSetBit(vertex + 1)) {
+         
+         for (int i = vertexCornerOffsets[vertex]; i < vertexCornerOffsets[vertex + 1]; ++i) {
+            int corner = vertexCorners[i];
+            putPosition(corner, vertex);
+            dirtyTriangles.set(corner / 3);
+         }
+      }
+      if (smoothNormals != null) {
+         // Moving a vertex changes the smooth normals of its neighbours too,
+         // which the MeshNormals records as it writes them
+         smoothNormals.update();
+         Mesh.DataLayer smoothLayer = smoothNormals.normals;
+         if (smoothLayer.isAllDirty()) {
+            dirtyTriangles.set(0, numTriangles);
+         } else {
+            BitSet dirtyNormals = smoothLayer.dirtyElements();
+            for (int vertex = dirtyNormals.nextSetBit(0);
+                 (vertex >= 0) && (vertex < numMappedVertices);
+                 vertex = dirtyNormals.nextSetBit(vertex + 1)) {
+               for (int i = vertexCornerOffsets[vertex]; i < vertexCornerOffsets[vertex + 1]; ++i) {
+                  dirtyTriangles.set(vertexCorners[i] / 3);
+               }
+            }
+         }
+         smoothLayer.clearDirty();
+      }
+      meshPositions.clearDirty();
+      
+      for (int triangle = dirtyTriangles.nextSetBit(0);
+           triangle >= 0;
+           triangle = dirtyTriangles.nextSetBit(triangle + 1)) {
+         computeNormal(triangle);
+      }
+      
+      // Report the changes as runs of triangles, joining runs separated by
+      // only a few unchanged triangles to save on the number of uploads:
+      if (rendering != null) {
+         int bytesPerTriangle = 3 * stride * 4;
+         int positionBytesPerTriangle = (quantizedPositions != null) ? (3 * 8) : bytesPerTriangle;
+         int normalBytesPerTriangle = (format == Format.COMPACT) ? (3 * 4) : bytesPerTriangle;
+         int first = dirtyTriangles.nextSetBit(0);
+         while (first >= 0) {
+            int end = dirtyTriangles.nextClearBit(first);
+            int next = dirtyTriangles.nextSetBit(end);
+            while ((next >= 0) && (next - end <= MAX_TRIANGLES_BETWEEN_CHANGES)) {
+               end = dirtyTriangles.nextClearBit(next);
+               next = dirtyTriangles.nextSetBit(end);
+            }
+            if (layout == Layout.SEPARATE) {
+               rendering.vertexBufferChanged(positionsId, positionBytesPerTriangle * first,
+                                                          positionBytesPerTriangle * (end - first));
+               rendering.vertexBufferChanged(normalsId,   normalBytesPerTriangle * first,
+                                                          normalBytesPerTriangle * (end - first));
+            } else {
+               rendering.vertexBufferChanged(cornersId, bytesPerTriangle * first,
+                                                        bytesPerTriangle * (end - first));
+            }
+            first = next;
+         }
+      }
+   }
+
+   public int numTriangles() {
+      return numTriangles;
+   }
+   // What the POSITIONS Binding of the "positions" vertexBuffer should
+   // carry: null, unless they're quantized
+   public Algebra.Matrix4x4 positionsDequantization() {
+      return (quantizedPositions != null) ? quantizedPositions.dequantization() : null;
+   }
+   // The index of the first triangle that "face" was flattened into
+   public int firstTriangleOfFace(int face) {
+      return triangleOffsets[face];
+   }
+
+   // ------------------------------------------
+   // Private
+   // ------------------------------------------
+
+   // Ranges of fewer faces than this are done without splitting further
+   private static final int FACES_PER_TASK = 4096;
+   
+   private static final int MAX_TRIANGLES_BETWEEN_CHANGES = 8;
+
+   // Each corner's positions, normals and baryCoords are found at
+   // (stride * corner + offset) in their arrays, for either layout
+   private final int stride;
+   private final int positionsOffset, normalsOffset, baryCoordsOffset;
+
+   // The vertexBuffers written by "flatten" and "update", set by "bindOutputs"
+   private Data.Array positionsOut, normalsOut, baryCoordsOut;
+   // ... or for the COMPACT format
+   private Data.Array packedNormalsOut;
+   private Data.Array compactBaryCoordsOut;
+   // ... or for quantized positions
+   private Data.Array quantizedPositionsOut;
+
+   private void bindOutputs() {
+      if (quantizedPositions != null) {
+         quantizedPositionsOut = positions;
+      } else if (layout == Layout.SEPARATE) {
+         positionsOut = positions;
+      }
+      if (format == Format.COMPACT) {
+         packedNormalsOut = normals;
+         compactBaryCoordsOut = baryCoords;
+      } else if (layout == Layout.SEPARATE) {
+         normalsOut    = normals;
+         baryCoordsOut = baryCoords;
+      } else {
+         positionsOut = normalsOut = baryCoordsOut = corners;
+      }
+   }
+   // Copies the position of a mesh vertex to a triangle corner.  The
+   // mesh positions may be HEAP or DIRECT, floats or quantized.
+   private void putPosition(int corner, int vertex) {
+      Data.Array xyz = meshPositions.data;
+      int j = 3 * vertex;
+      if (quantizedPositions == null) {
+         Data.Array out = positionsOut;
+         int i = stride * corner + positionsOffset;
+         out.setFloat(i+0, xyz.getFloat(j+0));  out.setFloat(i+1, xyz.getFloat(j+1));  out.setFloat(i+2, xyz.getFloat(j+2));
+      } else {
+         Data.Array out = quantizedPositionsOut;
+         int i = 4 * corner;
+         out.setShort(i+0, xyz.getShort(j+0));  out.setShort(i+1, xyz.getShort(j+1));  out.setShort(i+2, xyz.getShort(j+2));  out.setShort(i+3, (short) 0);
+      }
+   }
+
+   private int[] triangleOffsets;
+   private int numTriangles;
+   
+   // The mesh vertex each triangle corner was copied from, and the reverse
+   // mapping (built only when needed) listing the corners of each vertex
+   // from vertexCorners[vertexCornerOffsets[v]] to [vertexCornerOffsets[v+1]]
+   private int[] cornerVertices;
+   private int[] vertexCornerOffsets;
+   private int[] vertexCorners;
+   private final BitSet dirtyTriangles;
+   
+   private Rendering rendering;
+   private int positionsId, normalsId, baryCoordsId, cornersId;
+   
+   private MeshNormals smoothNormals;
+   
+   private void buildVertexCorners() {
+      int numCorners = 3 * numTriangles;
+      vertexCornerOffsets = new int[mesh.numVertexIDs() + 1];
+      vertexCorners = new int[numCorners];
+      for (int corner = 0; corner < numCorners; ++corner) {
+         vertexCornerOffsets[cornerVertices[corner] + 1]++;
+      }
+      for (int vertex = 0; vertex < mesh.numVertexIDs(); ++vertex) {
+         vertexCornerOffsets[vertex + 1] += vertexCornerOffsets[vertex];
+      }
+      int[] next = vertexCornerOffsets.clone();
+      for (int corner = 0; corner < numCorners; ++corner) {
+         vertexCorners[next[cornerVertices[corner]]++] = corner;
+      }
+   }
+
+   private enum Pass { COUNT, FILL };
+
+   private class Task extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+
+      private final Pass pass;
+      private final int firstFace, lastFace;
+
+      Task(Pass pass, int firstFace, int lastFace) {
+         this.pass = pass;
+         this.firstFace = firstFace;
+         this.lastFace = lastFace;
+      }
+      protected void compute() {
+         if (lastFace - firstFace > FACES_PER_TASK) {
+            int middleFace = (firstFace + lastFace) >>> 1;
+            invokeAll(new Task(pass, firstFace, middleFace),
+                      new Task(pass, middleFace, lastFace));
+            return;
+         }
+         switch (pass) {
+            case COUNT:
+               for (int face = firstFace; face < lastFace; ++face) {
+                  triangleOffsets[face + 1] = mesh.isFaceInMesh(face) ? (mesh.numEdgesForFace(face) - 2) : 0;
+               }
+               break;
+            case FILL:
+               for (int face = firstFace; face < lastFace; ++face) {
+                  if (mesh.isFaceInMesh(face)) flattenFace(face);
+               }
+               break;
+         }
+      }
+   }
+
+   private void flattenFace(int face) {
+      int firstEdge = mesh.directedEdgeForFace(face);
+      int lastEdge = mesh.prevInLoop(firstEdge);
+      int vertex0 = mesh.startOf(firstEdge);
+
+      int edge = mesh.nextInLoop(firstEdge);
+      int vertexS = mesh.startOf(edge);
+      boolean edge0SinFace = true;
+
+      int triangle = triangleOffsets[face];
+      while (true) {
+         int c0 = stride * (3 * triangle);
+         int cS = c0 + stride;
+         int cT = cS + stride;
+         int nextEdge = mesh.nextInLoop(edge);
+         int vertexT = mesh.startOf(nextEdge);
+         boolean edgeT0inFace = (nextEdge == lastEdge);
+
+         // -----------------------------
+         // positions, and normal
+         // -----------------------------
+         putPosition(3*triangle + 0, vertex0);
+         putPosition(3*triangle + 1, vertexS);
+         putPosition(3*triangle + 2, vertexT);
+         cornerVertices[3*triangle + 0] = vertex0;
+         cornerVertices[3*triangle + 1] = vertexS;
+         cornerVertices[3*triangle + 2] = vertexT;
+         computeNormal(triangle);
+
+         // -----------------------------
+         // baryCoords, negative where the triangle edge is not a face edge
+         // -----------------------------
+         float edgeT0 = (edgeT0inFace ? 1.0f : -1.0f);
+         float edgeS0 = (edge0SinFace ? 1.0f : -1.0f);
+         if (format == Format.COMPACT) {
+            putCompactBaryCoords(triangle, edgeT0, edgeS0);
+         } else {
+            int b0 = c0 + baryCoordsOffset, bS = cS + baryCoordsOffset, bT = cT + baryCoordsOffset;
+   
+            Data.Array out = baryCoordsOut;
+            out.setFloat(b0+0, 1.0f);  out.setFloat(b0+1, 0.0f);    out.setFloat(b0+2, 0.0f);
+            out.setFloat(bS+0, 0.0f);  out.setFloat(bS+1, edgeT0);  out.setFloat(bS+2, 0.0f);
+            out.setFloat(bT+0, 0.0f);  out.setFloat(bT+1, 0.0f);    out.setFloat(bT+2, edgeS0);
+         }
+
+         // -----------------------------
+         if (edgeT0inFace) break;
+
+         // We're moving on to the next triangle...
+         edge = nextEdge;
+         vertexS = vertexT;
+         edge0SinFace = false;
+         triangle++;
+      }
+   }
+
+   // Sets the normal of all three corners of a triangle from its positions,
+   // or to the smooth normals of their vertices.  Quantized positions
+   // differ from model space by a uniform scale and a translation, so
+   // their normal is the same.
+   private void computeNormal(int triangle) {
+      if (smoothNormals != null) {
+         Data.Array vertexNormals = smoothNormals.normals.data;
+         for (int corner = 3 * triangle; corner < 3 * triangle + 3; ++corner) {
+            int v = 3 * cornerVertices[corner];
+            putNormal(corner, vertexNormals.getFloat(v+0), vertexNormals.getFloat(v+1), vertexNormals.getFloat(v+2));
+         }
+         return;
+      }
+      float ax, ay, az, bx, by, bz;
+      if (quantizedPositions == null) {
+         Data.Array in = positionsOut;
+         int p0 = stride * (3 * triangle) + positionsOffset;
+         int pS = p0 + stride;
+         int pT = pS + stride;
+         
+         float x0 = in.getFloat(p0+0), y0 = in.getFloat(p0+1), z0 = in.getFloat(p0+2);
+         ax = in.getFloat(pS+0) - x0;  ay = in.getFloat(pS+1) - y0;  az = in.getFloat(pS+2) - z0;
+         bx = in.getFloat(pT+0) - x0;  by = in.getFloat(pT+1) - y0;  bz = in.getFloat(pT+2) - z0;
+      } else {
+         Data.Array in = quantizedPositionsOut;
+         int p0 = 4 * (3 * triangle);
+         int pS = p0 + 4;
+         int pT = pS + 4;
+         
+         int x0 = in.getShort(p0+0), y0 = in.getShort(p0+1), z0 = in.getShort(p0+2);
+         ax = in.getShort(pS+0) - x0;  ay = in.getShort(pS+1) - y0;  az = in.getShort(pS+2) - z0;
+         bx = in.getShort(pT+0) - x0;  by = in.getShort(pT+1) - y0;  bz = in.getShort(pT+2) - z0;
+      }
+      float nx = ay * bz - az * by;
+      float ny = az * bx - ax * bz;
+      float nz = ax * by - ay * bx;
+      float scale = 1.0f / (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+      nx *= scale;  ny *= scale;  nz *= scale;
+      for (int corner = 3 * triangle; corner < 3 * triangle + 3; ++corner) {
+         putNormal(corner, nx, ny, nz);
+      }
+   }
+   private void putNormal(int corner, float nx, float ny, float nz) {
+      if (format == Format.COMPACT) {
+         packedNormalsOut.setInt(corner, Data.Array.toPacked2_10_10_10(nx, ny, nz, 0.0f));
+      } else {
+         Data.Array out = normalsOut;
+         int n = stride * corner + normalsOffset;
+         out.setFloat(n+0, nx);  out.setFloat(n+1, ny);  out.setFloat(n+2, nz);
+      }
+   }
+   
+   private static final byte ZERO = 0;
+   private static final byte ONE = Data.Array.toNormalizedByte(1.0f);
+   
+   private void putCompactBaryCoords(int triangle, float edgeT0, float edgeS0) {
+      Data.Array out = compactBaryCoordsOut;
+      int b0 = 4 * (3 * triangle), bS = b0 + 4, bT = bS + 4;
+      byte t0 = Data.Array.toNormalizedByte(edgeT0);
+      byte s0 = Data.Array.toNormalizedByte(edgeS0);
+      out.setByte(b0+0, ONE);   out.setByte(b0+1, ZERO);  out.setByte(b0+2, ZERO);  out.setByte(b0+3, ZERO);
+      out.setByte(bS+0, ZERO);  out.setByte(bS+1, t0);    out.setByte(bS+2, ZERO);  out.setByte(bS+3, ZERO);
+      out.setByte(bT+0, ZERO);  out.setByte(bT+1, ZERO);  out.setByte(bT+2, s0);    out.setByte(bT+3, ZERO);
+   }
+
+   // -----------------------------------------------------------------------
+   // TESTING
+   // -----------------------------------------------------------------------
+
+   // A cube whose "positions" are a DIRECT DataLayer flattens (and gets
+   // vertex normals) exactly as one with HEAP positions does
+   public static void testDirectPositions() {
+      Mesh heapMesh = Mesh.newUnitCube();
+      Mesh directMesh = Mesh.newUnitCube();
+      Mesh.DataLayer heapPositions = heapMesh.dataLayer("positions", Mesh.DataLayer.Type.THREE_FLOATS_PER_VERTEX);
+      directMesh.dataLayer("positions", Mesh.DataLayer.Type.THREE_FLOATS_PER_VERTEX).destroy();
+      Mesh.DataLayer directPositions = directMesh.newDataLayer("positions",
+            Mesh.DataLayer.Type.THREE_FLOATS_PER_VERTEX, Data.Array.Storage.DIRECT);
+      directPositions.data.copyRange(heapPositions.data, 0, 0, heapMesh.numVertexIDs());
+
+      MeshFlattener heapFlattener = new MeshFlattener(heapMesh);
+      MeshFlattener directFlattener = new MeshFlattener(directMesh);
+      heapFlattener.flatten();
+      directFlattener.flatten();
+      MeshNormals heapNormals = new MeshNormals(heapMesh, MeshNormals.Weighting.ANGLE);
+      MeshNormals directNormals = new MeshNormals(directMesh, MeshNormals.Weighting.ANGLE);
+      heapNormals.compute();
+      directNormals.compute();
+
+      boolean ok = (directFlattener.numTriangles() == 12)
+                && sameFloats(heapFlattener.positions, directFlattener.positions)
+                && sameFloats(heapFlattener.normals, directFlattener.normals)
+                && sameFloats(heapNormals.normals.data, directNormals.normals.data);
+      System.out.format("MeshFlattener DIRECT positions: %s\n", ok ? "OK" : "PROBLEM");
+   }
+   // Moves a vertex through the positions' setters alone, and checks that
+   // the write was recorded and that "update" then matches a fresh flatten
+   public static void testDirtyUpdate() {
+      Mesh mesh = Mesh.newUnitCube();
+      Mesh.DataLayer meshPositions = mesh.dataLayer("positions", Mesh.DataLayer.Type.THREE_FLOATS_PER_VERTEX);
+      MeshFlattener flattener = new MeshFlattener(mesh);
+      flattener.flatten();
+      
+      meshPositions.data.setFloat(3 * 5, 1.5f * meshPositions.data.getFloat(3 * 5));
+      boolean ok = !meshPositions.isAllDirty()
+                && (meshPositions.dirtyElements().cardinality() == 1)
+                && meshPositions.dirtyElements().get(5);
+      flattener.update();
+      ok &= meshPositions.dirtyElements().isEmpty();
+      
+      MeshFlattener expected = new MeshFlattener(mesh);
+      expected.flatten();
+      ok &= sameFloats(expected.positions, flattener.positions)
+         && sameFloats(expected.normals, flattener.normals);
+      System.out.format("MeshFlattener dirty update: %s\n", ok ? "OK" : "PROBLEM");
+   }
+   // With smooth normals, every corner carries its vertex's normal, and
+   // after a vertex moves, "update" matches a fresh flatten (the normals of
+   // the neighbouring vertices change too)
+   public static void testSmoothNormals() {
+      Mesh mesh = Mesh.newUnitCube();
+      Mesh.DataLayer meshPositions = mesh.dataLayer("positions", Mesh.DataLayer.Type.THREE_FLOATS_PER_VERTEX);
+      MeshFlattener flattener = new MeshFlattener(mesh, Layout.INTERLEAVED);
+      MeshNormals smoothNormals = new MeshNormals(mesh, MeshNormals.Weighting.ANGLE);
+      flattener.setSmoothNormals(smoothNormals);
+      flattener.flatten();
+      
+      boolean ok = true;
+      for (int corner = 0; corner < 3 * flattener.numTriangles(); ++corner) {
+         int vertex = flattener.cornerVertices[corner];
+         for (int k = 0; k < 3; ++k) {
+            ok &= (flattener.corners.getFloat(FLOATS_PER_CORNER * corner + NORMALS_OFFSET + k)
+                   == smoothNormals.normals.data.getFloat(3 * vertex + k));
+         }
+      }
+      meshPositions.data.setFloat(3 * 5, 1.5f * meshPositions.data.getFloat(3 * 5));
+      flattener.update();
+      
+      MeshFlattener expected = new MeshFlattener(mesh, Layout.INTERLEAVED);
+      expected.setSmoothNormals(new MeshNormals(mesh, "expectedNormals", MeshNormals.Weighting.ANGLE));
+      expected.flatten();
+      ok &= sameFloats(expected.corners, flattener.corners);
+      System.out.format("MeshFlattener smooth normals: %s\n", ok ? "OK" : "PROBLEM");
+   }
+   private static boolean sameFloats(Data.Array a, Data.Array b) {
+      if (a.numElements() != b.numElements()) return false;
+      for (int i = 0; i < a.numElements() * a.type.primitivesPerElement; ++i) {
+         if (a.getFloat(i) != b.getFloat(i)) return false;
+      }
+      return true;
+   }
+}
@@ -0,0 +1,288 @@
+package com.generic.base;
+
+import java.util.Arrays;
+
+// ==================================================================
+// A MeshIndexer is the indexed alternative to MeshFlattener.
+// Rather than three corners for every triangle, it produces one vertex
+// for every Mesh vertex, with a smooth normal, plus an indexBuffer of
+// fan-triangulated faces.  A typical mesh has twice as many triangles
+// as vertices, so this stores about a sixth of the vertex data.
+//
+// Where the faces around a vertex meet at a crease sharper than the
+// "creaseAngle", the vertex is split so that each smooth run of faces
+// around it gets its own normal.
+// ==================================================================
+
+public class MeshIndexer {
+
+   public final Mesh mesh;
+   public final Mesh.DataLayer meshPositions;
+   public final float creaseAngle;
+
+   public final Data.Array.Floats positions;
+   public final Data.Array.Floats normals;
+   public final Data.Array.Integers indices;
+
+   // The creaseAngle is in radians, use Math.PI to never split vertices
+   public MeshIndexer(Mesh mesh, float creaseAngle) {
+      this.mesh = mesh;
+      this.meshPositions = mesh.dataLayer("positions", Mesh.DataLayer.Type.THREE_FLOATS_PER_VERTEX);
+      if (meshPositions == null) {
+         throw new RuntimeException("Failed to find position dataLayer");
+      }
+      this.creaseAngle = creaseAngle;
+      faceNormals = new MeshNormals(mesh);
+      positions = (Data.Array.Floats) Data.Array.create(Data.Array.Type.THREE_FLOATS);
+      normals   = (Data.Array.Floats) Data.Array.create(Data.Array.Type.THREE_FLOATS);
+      indices   = (Data.Array.Integers) Data.Array.create(Data.Array.Type.THREE_INTEGERS);
+   }
+
+   // Registers the buffers with a Rendering under the given IDs
+   public void addTo(Rendering rendering, int positionsId, int normalsId, int indicesId) {
+      rendering.vertexBuffers.put(positionsId, positions);
+      rendering.vertexBuffers.put(normalsId,   normals);
+      rendering.indexBuffers.put(indicesId,    indices);
+   }
+
+   // Rebuilds the vertices and indices from the current state of the mesh
+   public void build() {
+      faceNormals.computeFaceNormals();
+
+      // Each corner of each face (identified by the directed edge leaving
+      // the corner) is assigned the output vertex it will use:
+      cornerVertices = new int[2 * mesh.numEdgeIDs()];
+      numVertices = 0;
+      positions.setNumElements(0);
+      normals.setNumElements(0);
+      
+      // Vertices are only split at creases, so most meshes need little
+      // more room than this, and it saves growing the arrays one at a time:
+      positions.ensureCapacity(mesh.numVertices());
+      normals.ensureCapacity(mesh.numVertices());
+
+      for (int vertex = 0; vertex < mesh.numVertexIDs(); ++vertex) {
+         if (mesh.isVertexInMesh(vertex)) addVertex(vertex);
+      }
+
+      // Fan out each face into triangles, as MeshFlattener does:
+      indices.setNumElements(mesh.numTriangles());
+      int i = 0;
+      for (int face = 0; face < mesh.numFaceIDs(); ++face) {
+         int firstEdge = mesh.directedEdgeForFace(face);
+         if (firstEdge < 0) continue;
+
+         int lastEdge = mesh.prevInLoop(firstEdge);
+         for (int edge = mesh.nextInLoop(firstEdge); edge != lastEdge; edge = mesh.nextInLoop(edge)) {
+            indices.setInt(i++, cornerVertices[firstEdge]);
+            indices.setInt(i++, cornerVertices[edge]);
+            indices.setInt(i++, cornerVertices[mesh.nextInLoop(edge)]);
+         }
+      }
+   }
+
+   public int numVertices() {
+      return numVertices;
+   }
+   public int numTriangles() {
+      return indices.numElements();
+   }
+
+   // ------------------------------------------
+   // Private
+   // ------------------------------------------
+
+   // Each face gets the (not normalized) Newell normal, twice its area
+   // long, so larger faces carry more weight in vertex normals
+   private final MeshNormals faceNormals;
+   private final float[] normalA = new float[3], normalB = new float[3];
+   private int[] cornerVertices;
+   private int numVertices;
+
+   // The faces around the vertex being added, in order, with the outgoing
+   // edge of each (-1 for a gap at the boundary), and the output vertex of each
+   private int[] aroundEdges = new int[16];
+   private int[] aroundOutputs = new int[16];
+
+   private void addVertex(int vertex) {
+      Data.Array xyz = meshPositions.data;
+      float minCos = (float) Math.cos(creaseAngle);
+
+      // Collect the outgoing edges in order around the vertex:
+      int numAround = 0;
+      int firstEdge = mesh.outgoingEdgeForVertex(vertex);
+      int edge = firstEdge;
+      do {
+         if (numAround == aroundEdges.length) {
+            aroundEdges = Arrays.copyOf(aroundEdges, 2 * numAround);
+            aroundOutputs = Arrays.copyOf(aroundOutputs, 2 * numAround);
+         }
+         aroundEdges[numAround++] = edge;
+         edge = mesh.nextAroundStart(edge);
+      } while (edge != firstEdge);
+
+      // Walk around the faces, starting a new output vertex at each crease:
+      int firstOutput = numVertices;
+      int previousFace = -1;
+      for (int i = 0; i < numAround; ++i) {
+         int face = mesh.faceOf(aroundEdges[i]);
+         if (face < 0) {
+            // The faces either side of a gap don't meet, so the next face
+            // starts a new run, whatever its normal
+            aroundOutputs[i] = -1;
+            previousFace = -1;
+            continue;
+         }
+         if ((previousFace < 0) || !isSmooth(previousFace, face, minCos)) {
+            newOutputVertex(xyz, vertex);
+         }
+         aroundOutputs[i] = numVertices - 1;
+         previousFace = face;
+      }
+
+      // If the last run of faces joins up smoothly with the first, they're one run:
+      int lastOutput = numVertices - 1;
+      if (lastOutput > firstOutput) {
+         int firstFace = mesh.faceOf(aroundEdges[0]);
+         int lastFace = mesh.faceOf(aroundEdges[numAround-1]);
+         if ((firstFace >= 0) && (lastFace >= 0) && isSmooth(lastFace, firstFace, minCos)) {
+            for (int i = 0; i < numAround; ++i) {
+               if (aroundOutputs[i] == lastOutput) aroundOutputs[i] = firstOutput;
+            }
+            numVertices--;
+         }
+      }
+
+      // Sum the face normals into each output vertex
+      positions.setNumElements(numVertices);
+      normals.setNumElements(numVertices);
+      for (int i = 0; i < numAround; ++i) {
+         int output = aroundOutputs[i];
+         if (output < 0) continue;
+         faceNormals.getFaceNormal(mesh.faceOf(aroundEdges[i]), normalA, 0);
+         for (int k = 0; k < 3; ++k) {
+            normals.setFloat(3*output+k, normals.getFloat(3*output+k) + normalA[k]);
+         }
+         cornerVertices[aroundEdges[i]] = output;
+      }
+      for (int output = firstOutput; output < numVertices; ++output) {
+         float nx = normals.getFloat(3*output+0), ny = normals.getFloat(3*output+1), nz = normals.getFloat(3*output+2);
+         float lengthSquared = nx * nx + ny * ny + nz * nz;
+         if (!(lengthSquared > 0.0f)) {
+            // The normals of the run cancel out (a sheet folded back on
+            // itself) or are all degenerate, so rather than divide by zero,
+            // use the first face of the run that has a normal, else +z
+            nx = 0.0f;  ny = 0.0f;  nz = 1.0f;
+            for (int i = 0; i < numAround; ++i) {
+               if (aroundOutputs[i] != output) continue;
+               faceNormals.getFaceNormal(mesh.faceOf(aroundEdges[i]), normalA, 0);
+               float fx = normalA[0], fy = normalA[1], fz = normalA[2];
+               if (fx * fx + fy * fy + fz * fz > 0.0f) {
+                  nx = fx;  ny = fy;  nz = fz;
+                  break;
+               }
+            }
+            lengthSquared = nx * nx + ny * ny + nz * nz;
+         }
+         float scale = 1.0f / (float) Math.sqrt(lengthSquared);
+         normals.setFloat(3*output+0, nx * scale);
+         normals.setFloat(3*output+1, ny * scale);
+         normals.setFloat(3*output+2, nz * scale);
+      }
+   }
+
+   private void newOutputVertex(Data.Array xyz, int vertex) {
+      int output = numVertices++;
+      positions.setNumElements(numVertices);
+      normals.setNumElements(numVertices);
+      for (int i = 0; i < 3; ++i) {
+         positions.setFloat(3 * output + i, xyz.getFloat(3 * vertex + i));
+         normals.setFloat(3 * output + i, 0.0f);
+      }
+   }
+
+   private boolean isSmooth(int faceA, int faceB, float minCos) {
+      faceNormals.getFaceNormal(faceA, normalA, 0);
+      faceNormals.getFaceNormal(faceB, normalB, 0);
+      float ax = normalA[0], ay = normalA[1], az = normalA[2];
+      float bx = normalB[0], by = normalB[1], bz = normalB[2];
+      float dot = ax * bx + ay * by + az * bz;
+      float lengths = (float) Math.sqrt((ax * ax + ay * ay + az * az) * (bx * bx + by * by + bz * bz));
+      return dot >= minCos * lengths;
+   }
+
+   // -----------------------------------------------------------------------
+   // TESTING
+   // -----------------------------------------------------------------------
+
+   // An open fan of four triangles around a boundary vertex: flat, raised,
+   // raised, flat, with creases between each.  The two flat triangles are
+   // smooth with each other, but they only meet across the boundary gap,
+   // so each of the four needs its own output vertex.  The faces are added
+   // in each rotated order, which moves the gap around the walk.
+   public static void testBoundaryGap() {
+      float[] xyz = {  0.0f, 0.0f, 0.0f,
+                       0.0f,-1.0f, 0.0f,
+                       0.7f,-0.7f, 0.0f,
+                       1.0f, 0.0f, 1.0f,
+                       0.7f, 0.7f, 0.0f,
+                       0.0f, 1.0f, 0.0f };
+      boolean ok = true;
+      for (int rotation = 0; rotation < 4; ++rotation) {
+         Mesh mesh = new Mesh();
+         for (int i = 0; i < 6; ++i) mesh.newVertexID();
+         Mesh.DataLayer positions = mesh.newDataLayer("positions", Mesh.DataLayer.Type.THREE_FLOATS_PER_VERTEX);
+         positions.data.copyFrom(0, xyz, 0, xyz.length);
+         int[] faces = new int[4];
+         for (int i = 0; i < 4; ++i) {
+            int f = (i + rotation) % 4;
+            faces[f] = mesh.addFace(0, f + 1, f + 2);
+         }
+         MeshIndexer indexer = new MeshIndexer(mesh, 0.3f);
+         indexer.build();
+
+         int[] outputs = new int[4];
+         int firstEdge = mesh.outgoingEdgeForVertex(0);
+         int edge = firstEdge;
+         do {
+            for (int f = 0; f < 4; ++f) {
+               if (mesh.faceOf(edge) == faces[f]) outputs[f] = indexer.cornerVertices[edge];
+            }
+            edge = mesh.nextAroundStart(edge);
+         } while (edge != firstEdge);
+         for (int f = 0; f < 4; ++f) {
+            for (int g = f + 1; g < 4; ++g) ok &= (outputs[f] != outputs[g]);
+         }
+      }
+      System.out.format("MeshIndexer boundary gap: %s\n", ok ? "OK" : "PROBLEM");
+   }
+
+   // Two triangles folded flat onto each other, whose normals cancel at
+   // the vertices they share, and a triangle with no area at all.  Every
+   // output normal should still be a unit vector rather than NaN.
+   public static void testZeroNormals() {
+      float[] xyz = { 0.0f, 0.0f, 0.0f,
+                      1.0f, 0.0f, 0.0f,
+                      0.0f, 1.0f, 0.0f,
+                      1.0f, 0.0f, 0.0f,
+                      2.0f, 0.0f, 0.0f,
+                      3.0f, 0.0f, 0.0f,
+                      4.0f, 0.0f, 0.0f };
+      Mesh mesh = new Mesh();
+      for (int i = 0; i < 7; ++i) mesh.newVertexID();
+      Mesh.DataLayer positions = mesh.newDataLayer("positions", Mesh.DataLayer.Type.THREE_FLOATS_PER_VERTEX);
+      positions.data.copyFrom(0, xyz, 0, xyz.length);
+      mesh.addFace(0, 1, 2);
+      mesh.addFace(0, 2, 3);
+      mesh.addFace(4, 5, 6);
+
+      MeshIndexer indexer = new MeshIndexer(mesh, (float) Math.PI);
+      indexer.build();
+      boolean ok = (indexer.numVertices() == 7);
+      for (int output = 0; output < indexer.numVertices(); ++output) {
+         float nx = indexer.normals.getFloat(3*output), ny = indexer.normals.getFloat(3*output+1), nz = indexer.normals.getFloat(3*output+2);
+         ok &= Math.abs(nx * nx + ny * ny + nz * nz - 1.0f) < 1e-5f;
+      }
+      System.out.format("MeshIndexer zero normals: %s\n", ok ? "OK" : "PROBLEM");
+   }
+}
@@ -0,0 +1,290 @@
+package com.generic.base;
+
+import java.util.ArrayList;
+
+// ==================================================================
+// MeshLevels is a chain of levels of detail for one Mesh: level 0 is the
+// Mesh itself, and each level after it is simplified (by MeshSimplifier)
+// to a fraction of the triangles of the one before.  Each level is a Mesh
+// of its own, with its own DataLayers, and knows its geometric "error",
+// roughly how far (in the units of the positions) it strays from level 0.
+//
+// "addTo" flattens every level into vertexBuffers of a Rendering, so a
+// renderer can switch between them from one frame to the next by just
+// choosing which level's commands ("addCommands") to issue.  A Selector
+// makes that choice from the Camera: the coarsest level whose error,
+// projected from the nearest point of the mesh's bounding sphere, is
+// under a threshold in pixels.
+// ==================================================================
+
+public class MeshLevels {
+
+   public static final class Level {
+      public final Mesh mesh;
+      public final float error;
+      public Level(Mesh mesh, float error) {
+         this.mesh = mesh;
+         this.error = error;
+      }
+   }
+
+   public final ArrayList<Level> levels = new ArrayList<Level>();
+
+   // A sphere around the vertices of level 0, in the units of its positions
+   public Algebra.Vector3 center;
+   public float radius;
+
+   // Each level after the first has about "ratio" times the triangles of
+   // the one before.  There are at most "maxLevels" levels, fewer if the
+   // mesh can't be simplified that far.
+   public static MeshLevels build(Mesh mesh, int maxLevels, float ratio) {
+      if (!(ratio > 0.0f) || !(ratio < 1.0f)) {
+         throw new RuntimeException(String.format(
+               "Ratio of triangles between levels must be between 0 and 1, not %f", ratio));
+      }
+      MeshLevels result = new MeshLevels();
+      result.levels.add(new Level(mesh, 0.0f));
+      result.computeBoundingSphere();
+      MeshSimplifier simplifier = new MeshSimplifier(mesh);
+      while (result.levels.size() < maxLevels) {
+         int numTriangles = simplifier.numTriangles();
+         simplifier.simplifyTo((int) (numTriangles * ratio));
+         if (simplifier.numTriangles() == numTriangles) break;
+         result.levels.add(new Level(simplifier.toMesh(), simplifier.error()));
+      }
+      return result;
+   }
+
+   public int numLevels() {
+      return levels.size();
+   }
+   public Level level(int level) {
+      return levels.get(level);
+   }
+
+   // ------------------------------------------
+   // Rendering
+   // ------------------------------------------
+
+   // Each level takes this many vertexBuffer IDs, for its "positions",
+   // "normals" and "baryCoords"
+   public static final int IDS_PER_LEVEL = 3;
+
+   // Flattens every level into SEPARATE vertexBuffers of "rendering",
+   // level i getting the IDs from (firstId + IDS_PER_LEVEL * i)
+   public void addTo(Rendering rendering, int firstId, Data.Array.Storage storage) {
+      this.firstId = firstId;
+      flatteners = new MeshFlattener[levels.size()];
+      for (int i = 0; i < levels.size(); ++i) {
+         int id = firstId + IDS_PER_LEVEL * i;
+         flatteners[i] = new MeshFlattener(levels.get(i).mesh, MeshFlattener.Layout.SEPARATE, storage);
+         flatteners[i].addTo(rendering, id, id + 1, id + 2);
+         flatteners[i].flatten();
+      }
+   }
+   public MeshFlattener flattener(int level) {
+      return flatteners[level];
+   }
+
+   // Adds the commands drawing one level with "shader" (after whatever
+   // binds MODEL_TO_VIEW and VIEW_TO_CLIP) to the end of the commands
+   public void addCommands(Rendering rendering, int level, int shader) {
+      int id = firstId + IDS_PER_LEVEL * level;
+      rendering.commands.add(new Rendering.Shader.Variable.VertexBuffer.Binding(
+         Rendering.Shader.POSITIONS, id));
+      rendering.commands.add(new Rendering.Shader.Variable.VertexBuffer.Binding(
+         Rendering.Shader.NORMALS, id + 1));
+      rendering.commands.add(new Rendering.Shader.Variable.VertexBuffer.Binding(
+         Rendering.Shader.BARYCOORDS, id + 2));
+      rendering.commands.add(new Rendering.Shader.Command.Execute(
+         shader, flatteners[level].numTriangles()));
+   }
+
+   // ------------------------------------------
+   // Choosing a level
+   // ------------------------------------------
+
+   public Selector newSelector(float pixelThreshold, float hysteresis) {
+      return new Selector(pixelThreshold, hysteresis);
+   }
+
+   // A Selector remembers the level it chose last, and only moves to a
+   // coarser one once that is under the threshold by a margin, so a camera
+   // moving back and forth around one distance doesn't make it flip
+   // between two levels every frame.
+   public final class Selector {
+      public float pixelThreshold;
+      public float hysteresis;
+
+      private Selector(float pixelThreshold, float hysteresis) {
+         this.pixelThreshold = pixelThreshold;
+         this.hysteresis = hysteresis;
+         this.level = 0;
+      }
+
+      public int level() {
+         return level;
+      }
+
+      // "modelToView" takes the mesh into the CAMERA-SPACE of "camera",
+      // it's just "camera.worldToCameraSpace" for a mesh placed in the world
+      // as it is
+      public int select(Camera camera, Algebra.Matrix4x4 modelToView) {
+         int coarsest = levels.size() - 1;
+
+         Algebra.Vector4 c = Algebra.Matrix4x4.product(modelToView,
+               Algebra.Vector4.fromVector3f(center, 1.0f));
+         Algebra.Vector3 viewCenter = new Algebra.Vector3(c.x, c.y, c.z);
+         float scale = maxScale(modelToView);
+         float viewRadius = radius * scale;
+
+         if (camera.isOffScreen(viewCenter, viewRadius)) {
+            level = coarsest;
+            return level;
+         }
+         float depth = -viewCenter.z - viewRadius;
+         if (!(depth > 0.0f)) {
+            // The camera is inside the sphere, and might be right up
+            // against the mesh
+            level = 0;
+            return level;
+         }
+         float pixelsPerUnit = camera.pixelsPerUnit(depth) * scale;
+         while ((level > 0) && (levels.get(level).error * pixelsPerUnit > pixelThreshold)) {
+            --level;
+         }
+         while ((level < coarsest) &&
+                (levels.get(level+1).error * pixelsPerUnit <= pixelThreshold / (1.0f + hysteresis))) {
+            ++level;
+         }
+         return level;
+      }
+
+      private int level;
+   }
+
+   // ------------------------------------------
+   // Private
+   // ------------------------------------------
+
+   private int firstId;
+   private MeshFlattener[] flatteners;
+
+   private void computeBoundingSphere() {
+      Mesh mesh = levels.get(0).mesh;
+      Data.Array xyz = mesh.dataLayer("positions", Mesh.DataLayer.Type.THREE_FLOATS_PER_VERTEX).data;
+
+      float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+      float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+      for (int vertex = 0; vertex < mesh.numVertexIDs(); ++vertex) {
+         if (!mesh.isVertexInMesh(vertex)) continue;
+         float x = xyz.getFloat(3*vertex+0), y = xyz.getFloat(3*vertex+1), z = xyz.getFloat(3*vertex+2);
+         minX = Math.min(minX, x);  maxX = Math.max(maxX, x);
+         minY = Math.min(minY, y);  maxY = Math.max(maxY, y);
+         minZ = Math.min(minZ, z);  maxZ = Math.max(maxZ, z);
+      }
+      if (minX > maxX) {
+         center = Algebra.Vector3.ORIGIN;
+         radius = 0.0f;
+         return;
+      }
+      center = new Algebra.Vector3(0.5f * (minX + maxX), 0.5f * (minY + maxY), 0.5f * (minZ + maxZ));
+      float radiusSq = 0.0f;
+      for (int vertex = 0; vertex < mesh.numVertexIDs(); ++vertex) {
+         if (!mesh.isVertexInMesh(vertex)) continue;
+         float dx = xyz.getFloat(3*vertex+0) - center.x;
+         float dy = xyz.getFloat(3*vertex+1) - center.y;
+         float dz = xyz.getFloat(3*vertex+2) - center.z;
+         radiusSq = Math.max(radiusSq, dx*dx + dy*dy + dz*dz);
+      }
+      radius = (float) Math.sqrt(radiusSq);
+   }
+
+   // The most "m" stretches any length, for a similarity transform it's
+   // just its scale
+   private static float maxScale(Algebra.Matrix4x4 m) {
+      float x = m.xx * m.xx + m.yx * m.yx + m.zx * m.zx;
+      float y = m.xy * m.xy + m.yy * m.yy + m.zy * m.zy;
+      float z = m.xz * m.xz + m.yz * m.yz + m.zz * m.zz;
+      return (float) Math.sqrt(Math.max(x, Math.max(y, z)));
+   }
+
+   // -----------------------------------------------------------------------
+   // TESTING
+   // -----------------------------------------------------------------------
+
+   // Moves a camera straight away from a cube with five levels of made-up
+   // errors, then straight back, a percent at a time.  At every step the
+   // Selector's level must be fine enough for the threshold, and the next
+   // one must not be under it by the hysteresis margin.  Levels may only
+   // get coarser going out and finer coming back, each switch back must
+   // happen at least "1 + hysteresis" times closer to the bounding sphere
+   // than the switch out, and jittering the camera just past a switch
+   // must not undo it.
+   public static void testSelector() {
+      MeshLevels result = new MeshLevels();
+      Mesh cube = Mesh.newUnitCube();
+      for (int i = 0; i < 5; ++i) {
+         result.levels.add(new Level(cube, (i == 0) ? 0.0f : 0.002f * (1 << i)));
+      }
+      result.computeBoundingSphere();
+      int coarsest = result.numLevels() - 1;
+      float threshold = 1.0f, hysteresis = 0.25f;
+      Selector selector = result.newSelector(threshold, hysteresis);
+      Image.Size size = new Image.Size(800, 600);
+
+      boolean ok = true;
+      float[] switchOut = new float[coarsest];
+      float[] switchIn = new float[coarsest];
+      int previous = 0;
+      for (int pass = 0; pass < 2; ++pass) {
+         boolean out = (pass == 0);
+         for (int step = 0; step <= 800; ++step) {
+            float distance = 5.0f * (float) Math.pow(1.01, out ? step : 800 - step);
+            Camera camera = lookingAt(size, distance);
+            int level = selector.select(camera, camera.worldToCameraSpace);
+
+            float pixelsPerUnit = camera.pixelsPerUnit((distance - result.radius) / distance) / distance;
+            float error = result.level(level).error * pixelsPerUnit;
+            ok &= (level == 0) || (error <= threshold * 1.0001f);
+            ok &= (level == coarsest) || (result.level(level + 1).error * pixelsPerUnit
+                                          > threshold / (1.0f + hysteresis) * 0.9999f);
+            ok &= out ? (level >= previous) : (level <= previous);
+
+            if (level != previous) {
+               if (out) {
+                  switchOut[previous] = distance;
+               } else {
+                  switchIn[level] = distance;
+               }
+               // Nudging the camera back and forth over the switch keeps it
+               for (int jitter = 0; jitter < 10; ++jitter) {
+                  float nudged = distance * (((jitter & 1) == 0) ? (out ? 0.92f : 1.08f) : 1.0f);
+                  Camera nudgedCamera = lookingAt(size, nudged);
+                  ok &= (selector.select(nudgedCamera, nudgedCamera.worldToCameraSpace) == level);
+               }
+            }
+            previous = level;
+         }
+         ok &= (previous == (out ? coarsest : 0));
+      }
+      for (int i = 0; i < coarsest; ++i) {
+         // The projected error goes with one over the depth to the sphere
+         ok &= (switchIn[i] > 0.0f) && ((switchOut[i] - result.radius) / (switchIn[i] - result.radius)
+                                        >= (1.0f + hysteresis) / 1.02f);
+      }
+
+      // Inside the bounding sphere it's the finest, looking away the coarsest
+      Camera inside = lookingAt(size, 2.0f);
+      ok &= (selector.select(inside, inside.worldToCameraSpace) == 0);
+      Camera away = new Camera(size, new Algebra.Vector3(0.0f, 0.0f, 20.0f),
+            new Algebra.Vector3(0.0f, 0.0f, 10.0f), new Algebra.Vector3(0.0f, 1.0f, 0.0f), 45.0f);
+      ok &= (selector.select(away, away.worldToCameraSpace) == coarsest);
+      System.out.println("MeshLevels selector: " + (ok ? "OK" : "PROBLEM"));
+   }
+
+   private static Camera lookingAt(Image.Size size, float distance) {
+      return new Camera(size, Algebra.Vector3.ORIGIN, new Algebra.Vector3(0.0f, 0.0f, distance),
+            new Algebra.Vector3(0.0f, 1.0f, 0.0f), 45.0f);
+   }
+}
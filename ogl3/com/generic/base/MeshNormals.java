@@ -0,0 +1,331 @@
+package com.generic.base;
+
+import java.util.BitSet;
+import java.util.concurrent.RecursiveAction;
+
+// ==================================================================
+// MeshNormals computes a smooth normal for every vertex of a Mesh, into
+// a THREE_FLOATS_PER_VERTEX DataLayer ("normals" unless told otherwise),
+// for smooth shading or anything else that wants per-vertex normals.
+//
+// Each vertex normal is a weighted sum of the normals of the faces
+// around it, then normalized.  With AREA weighting a face counts in
+// proportion to its area, with ANGLE weighting in proportion to the angle
+// of its corner at the vertex, which doesn't depend on how the faces
+// around the vertex happen to be split up.
+//
+// Both passes run in parallel, over ranges of IDs on the common
+// fork/join pool, and neither ever writes to the same element from two
+// threads: first every face normal (Newell's method, so polygons that
+// aren't quite planar work too), then every vertex gathers from the faces
+// of its outgoing edges.
+//
+// After vertices move, "update" recomputes only the faces around the
+// vertices marked dirty in the mesh "positions", and the vertices of
+// those faces, and marks those vertices dirty in the normals layer.  It
+// leaves the "positions" dirty set alone, that belongs to whoever uploads
+// the positions (a MeshFlattener, say), so call it before them.
+//
+// MeshIndexer uses just the face normals, from a MeshNormals made
+// without a normals layer, and a MeshFlattener given a MeshNormals
+// ("setSmoothNormals") shades with the vertex normals.
+// ==================================================================
+
+public class MeshNormals {
+
+   public enum Weighting { AREA, ANGLE };
+
+   public final Mesh mesh;
+   public final Mesh.DataLayer meshPositions;
+   public final Mesh.DataLayer normals;
+   public final Weighting weighting;
+
+   public MeshNormals(Mesh mesh, Weighting weighting) {
+      this(mesh, "normals", weighting);
+   }
+   // Uses the layer called "name" if the mesh has one, otherwise adds it
+   public MeshNormals(Mesh mesh, String name, Weighting weighting) {
+      this.mesh = mesh;
+      this.meshPositions = mesh.dataLayer("positions", Mesh.DataLayer.Type.THREE_FLOATS_PER_VERTEX);
+      if (meshPositions == null) {
+         throw new RuntimeException("Failed to find position dataLayer");
+      }
+      Mesh.DataLayer existing = mesh.dataLayer(name, Mesh.DataLayer.Type.THREE_FLOATS_PER_VERTEX);
+      this.normals = (existing != null) ? existing
+                   : mesh.newDataLayer(name, Mesh.DataLayer.Type.THREE_FLOATS_PER_VERTEX);
+      this.weighting = weighting;
+   }
+   // Just the face normals ("computeFaceNormals"), with no normals layer
+   public MeshNormals(Mesh mesh) {
+      this.mesh = mesh;
+      this.meshPositions = mesh.dataLayer("positions", Mesh.DataLayer.Type.THREE_FLOATS_PER_VERTEX);
+      if (meshPositions == null) {
+         throw new RuntimeException("Failed to find position dataLayer");
+      }
+      this.normals = null;
+      this.weighting = Weighting.AREA;
+   }
+
+   // Recomputes every normal
+   public void compute() {
+      if (normals == null) {
+         throw new RuntimeException("MeshNormals has only face normals");
+      }
+      bindArrays();
+      // The tasks write to the normals in parallel, so they need every
+      // chunk of their own first, in case something snapshotted them, and
+      // mustn't record the elements they change one at a time
+      vertexNormals.unshare();
+      normals.markAllDirty();
+      new Task(Pass.FACES, 0, mesh.numFaceIDs()).invoke();
+      new Task(Pass.VERTICES, 0, mesh.numVertexIDs()).invoke();
+      computedFaceIDs = mesh.numFaceIDs();
+   }
+
+   // Recomputes every face normal, but no vertex normals
+   public void computeFaceNormals() {
+      bindArrays();
+      new Task(Pass.FACES, 0, mesh.numFaceIDs()).invoke();
+   }
+
+   // Recomputes the normals affected by the vertices marked dirty in the
+   // mesh "positions".  This assumes the faces haven't changed since
+   // "compute" was called.
+   public void update() {
+      if (meshPositions.isAllDirty() || (computedFaceIDs != mesh.numFaceIDs())) {
+         compute();
+         return;
+      }
+      BitSet dirtyVertices = meshPositions.dirtyElements();
+      if (dirtyVertices.isEmpty()) return;
+
+      // Moving a lot of the mesh, it's quicker to just do everything
+      // (in parallel) than to work out what's affected
+      if (dirtyVertices.cardinality() > mesh.numVertices() / 8) {
+         compute();
+         return;
+      }
+      bindArrays();
+
+      // The faces around each moved vertex change their normals, and
+      // every vertex of those faces has to be gathered again
+      dirtyFaces.clear();
+      affectedVertices.clear();
+      for (int vertex = dirtyVertices.nextSetBit(0); vertex >= 0;
+           vertex = dirtyVertices.nextSetBit(vertex + 1)) {
+
+         int first = mesh.outgoingEdgeForVertex(vertex);
+         if (first < 0) continue;
+         int edge = first;
+         do {
+            int face = mesh.faceOf(edge);
+            if ((face >= 0) && !dirtyFaces.get(face)) {
+               dirtyFaces.set(face);
+               computeFaceNormal(face);
+               int faceFirst = mesh.directedEdgeForFace(face);
+               int faceEdge = faceFirst;
+               do {
+                  affectedVertices.set(mesh.startOf(faceEdge));
+                  faceEdge = mesh.nextInLoop(faceEdge);
+               } while (faceEdge != faceFirst);
+            }
+            edge = mesh.nextAroundStart(edge);
+         } while (edge != first);
+      }
+      for (int vertex = affectedVertices.nextSetBit(0); vertex >= 0;
+           vertex = affectedVertices.nextSetBit(vertex + 1)) {
+         computeVertexNormal(vertex);
+      }
+   }
+
+   // The normal (not normalized) of "face" from the last compute or
+   // update, twice its area long
+   public void getFaceNormal(int face, float[] xyz, int offset) {
+      xyz[offset+0] = faceNormals[3*face+0];
+      xyz[offset+1] = faceNormals[3*face+1];
+      xyz[offset+2] = faceNormals[3*face+2];
+   }
+
+   // ------------------------------------------
+   // Private
+   // ------------------------------------------
+
+   // Ranges of fewer IDs than this are done without splitting further
+   private static final int IDS_PER_TASK = 4096;
+   private int idsPerTask = IDS_PER_TASK;
+
+   private Data.Array positions;
+   private Data.Array vertexNormals;
+   private float[] faceNormals = new float[0];
+   private int computedFaceIDs = -1;
+
+   private final BitSet dirtyFaces = new BitSet();
+   private final BitSet affectedVertices = new BitSet();
+
+   // Either layer may be HEAP or DIRECT
+   private void bindArrays() {
+      positions = meshPositions.data;
+      vertexNormals = (normals != null) ? normals.data : null;
+      if (faceNormals.length < 3 * mesh.numFaceIDs()) {
+         faceNormals = new float[3 * mesh.numFaceIDs()];
+      }
+   }
+
+   private enum Pass { FACES, VERTICES };
+
+   private class Task extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+
+      private final Pass pass;
+      private final int first, last;
+
+      Task(Pass pass, int first, int last) {
+         this.pass = pass;
+         this.first = first;
+         this.last = last;
+      }
+      protected void compute() {
+         if (last - first > idsPerTask) {
+            int middle = (first + last) >>> 1;
+            invokeAll(new Task(pass, first, middle),
+                      new Task(pass, middle, last));
+            return;
+         }
+         switch (pass) {
+            case FACES:
+               for (int face = first; face < last; ++face) {
+                  if (mesh.isFaceInMesh(face)) computeFaceNormal(face);
+               }
+               break;
+            case VERTICES:
+               for (int vertex = first; vertex < last; ++vertex) {
+                  if (mesh.isVertexInMesh(vertex)) computeVertexNormal(vertex);
+               }
+               break;
+         }
+      }
+   }
+
+   // Newell's method: the sum over the face's edges of the cross products
+   // of their endpoints, which for a planar face is twice its area
+   private void computeFaceNormal(int face) {
+      float nx = 0.0f, ny = 0.0f, nz = 0.0f;
+      int first = mesh.directedEdgeForFace(face);
+      int edge = first;
+      do {
+         int a = 3 * mesh.startOf(edge);
+         int b = 3 * mesh.endOf(edge);
+         nx += (positions.getFloat(a+1) - positions.getFloat(b+1)) * (positions.getFloat(a+2) + positions.getFloat(b+2));
+         ny += (positions.getFloat(a+2) - positions.getFloat(b+2)) * (positions.getFloat(a+0) + positions.getFloat(b+0));
+         nz += (positions.getFloat(a+0) - positions.getFloat(b+0)) * (positions.getFloat(a+1) + positions.getFloat(b+1));
+         edge = mesh.nextInLoop(edge);
+      } while (edge != first);
+      faceNormals[3*face+0] = nx;
+      faceNormals[3*face+1] = ny;
+      faceNormals[3*face+2] = nz;
+   }
+
+   // Gathers from the faces around "vertex", each outgoing edge standing
+   // for the corner between it and the edge coming into the vertex
+   // before it in the same face
+   private void computeVertexNormal(int vertex) {
+      float nx = 0.0f, ny = 0.0f, nz = 0.0f;
+      int first = mesh.outgoingEdgeForVertex(vertex);
+      if (first >= 0) {
+         int v = 3 * vertex;
+         int edge = first;
+         do {
+            int face = mesh.faceOf(edge);
+            if (face >= 0) {
+               float fx = faceNormals[3*face+0], fy = faceNormals[3*face+1], fz = faceNormals[3*face+2];
+               if (weighting == Weighting.AREA) {
+                  nx += fx;  ny += fy;  nz += fz;
+               } else {
+                  float length = (float) Math.sqrt(fx * fx + fy * fy + fz * fz);
+                  if (length > 0.0f) {
+                     int a = 3 * mesh.endOf(edge);
+                     int b = 3 * mesh.startOf(mesh.prevInLoop(edge));
+                     float weight = cornerAngle(v, a, b) / length;
+                     nx += fx * weight;  ny += fy * weight;  nz += fz * weight;
+                  }
+               }
+            }
+            edge = mesh.nextAroundStart(edge);
+         } while (edge != first);
+      }
+      float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+      float scale = (length > 0.0f) ? (1.0f / length) : 0.0f;
+      vertexNormals.setFloat(3*vertex+0, nx * scale);
+      vertexNormals.setFloat(3*vertex+1, ny * scale);
+      vertexNormals.setFloat(3*vertex+2, nz * scale);
+   }
+
+   // The angle at the position "v" between the directions to "a" and "b"
+   private float cornerAngle(int v, int a, int b) {
+      float ax = positions.getFloat(a+0) - positions.getFloat(v+0), ay = positions.getFloat(a+1) - positions.getFloat(v+1), az = positions.getFloat(a+2) - positions.getFloat(v+2);
+      float bx = positions.getFloat(b+0) - positions.getFloat(v+0), by = positions.getFloat(b+1) - positions.getFloat(v+1), bz = positions.getFloat(b+2) - positions.getFloat(v+2);
+      float cx = ay * bz - az * by, cy = az * bx - ax * bz, cz = ax * by - ay * bx;
+      float sin = (float) Math.sqrt(cx * cx + cy * cy + cz * cz);
+      float cos = ax * bx + ay * by + az * bz;
+      return angle(sin, cos);
+   }
+
+   // atan2(sin, cos) for sin >= 0, to within about 1e-5 radians, which is
+   // plenty for a weight and several times quicker than Math.atan2
+   private static float angle(float sin, float cos) {
+      float absCos = Math.abs(cos);
+      if (!(Math.max(sin, absCos) > 0.0f)) return 0.0f;
+      boolean steep = (sin > absCos);
+      float t = steep ? (absCos / sin) : (sin / absCos);
+      float t2 = t * t;
+      float a = t * (0.9998660f + t2 * (-0.3302995f + t2 * (0.1801410f + t2 * (-0.0851330f + t2 * 0.0208351f))));
+      if (steep) a = HALF_PI - a;
+      return (cos < 0.0f) ? (PI - a) : a;
+   }
+   private static final float PI = (float) Math.PI;
+   private static final float HALF_PI = (float) (Math.PI / 2.0);
+
+   // -----------------------------------------------------------------------
+   // TESTING
+   // -----------------------------------------------------------------------
+
+   // A wavy grid big enough to be split over several tasks gets exactly
+   // the same normals computed in parallel as in one task, with either
+   // weighting, and so do its face normals
+   public static void testParallel() {
+      int n = 80;
+      Mesh mesh = new Mesh();
+      for (int i = 0; i < n * n; ++i) mesh.newVertexID();
+      Mesh.DataLayer positions = mesh.newDataLayer("positions", Mesh.DataLayer.Type.THREE_FLOATS_PER_VERTEX);
+      for (int y = 0; y < n; ++y) {
+         for (int x = 0; x < n; ++x) {
+            int v = 3 * (y * n + x);
+            positions.data.setFloat(v+0, x);
+            positions.data.setFloat(v+1, y);
+            positions.data.setFloat(v+2, (float) (Math.sin(0.3 * x) * Math.cos(0.2 * y)));
+         }
+      }
+      for (int y = 0; y + 1 < n; ++y) {
+         for (int x = 0; x + 1 < n; ++x) {
+            int v = y * n + x;
+            mesh.addFace(v, v + 1, v + n + 1, v + n);
+         }
+      }
+
+      boolean ok = (mesh.numFaceIDs() > IDS_PER_TASK);
+      for (Weighting weighting : Weighting.values()) {
+         MeshNormals parallel = new MeshNormals(mesh, "parallel" + weighting, weighting);
+         MeshNormals serial = new MeshNormals(mesh, "serial" + weighting, weighting);
+         serial.idsPerTask = Integer.MAX_VALUE;
+         parallel.compute();
+         serial.compute();
+         for (int i = 0; i < 3 * mesh.numVertexIDs(); ++i) {
+            ok &= (parallel.normals.data.getFloat(i) == serial.normals.data.getFloat(i));
+         }
+         for (int i = 0; i < 3 * mesh.numFaceIDs(); ++i) {
+            ok &= (parallel.faceNormals[i] == serial.faceNormals[i]);
+         }
+      }
+      System.out.format("MeshNormals parallel: %s\n", ok ? "OK" : "PROBLEM");
+   }
+}
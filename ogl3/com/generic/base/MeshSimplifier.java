@@ -0,0 +1,746 @@
+package com.generic.base;
+
+import java.util.Arrays;
+
+// ==================================================================
+// A MeshSimplifier reduces a Mesh by collapsing edges, cheapest first,
+// using Garland and Heckbert's quadric error metric.
+//
+// Every vertex starts with a "quadric" summing the squared distances to
+// the planes of the faces around it (plus, along the boundary, planes at
+// right angles to the boundary faces, so that the outline is kept).  An
+// edge collapse merges its two vertices into one, placed where the sum
+// of their quadrics is smallest, and that sum is the cost of the collapse.
+// The edges wait in a binary heap ordered by cost, so simplifying a mesh
+// of n edges takes O(n log n).
+//
+// The collapses are done on a working copy of the source Mesh, by
+// removing the faces around one vertex and adding them back around the
+// other.  A collapse is skipped if it would leave the mesh non-manifold
+// (the "link condition": the two vertices may only share the neighbors
+// at the far corners of the triangles on either side of the edge), pinch
+// two boundaries together, or turn a face over.
+//
+// "toMesh" copies out the current state as a new Mesh, with its own
+// copies of the source's per-vertex and per-face DataLayers (the
+// "positions" being the simplified ones).  Per-edge DataLayers aren't
+// carried over.  Call "simplifyTo" and "toMesh" repeatedly for a chain
+// of ever coarser meshes, as MeshLevels does.
+// ==================================================================
+
+public class MeshSimplifier {
+
+   public final Mesh source;
+   public final Mesh.DataLayer sourcePositions;
+
+   public MeshSimplifier(Mesh source) {
+      this.source = source;
+      Mesh.DataLayer positionsLayer = null;
+      for (Mesh.DataLayer layer : source.dataLayers()) {
+         if (layer.name.equals("positions") && layer.type.equals(Mesh.DataLayer.Type.THREE_FLOATS_PER_VERTEX)) {
+            positionsLayer = layer;
+         }
+      }
+      if (positionsLayer == null) {
+         throw new RuntimeException("Failed to find position dataLayer");
+      }
+      this.sourcePositions = positionsLayer;
+
+      // The working copy keeps the vertex-IDs of the source:
+      int numVertexIDs = source.numVertexIDs();
+      work = new Mesh();
+      work.ensureCapacity(numVertexIDs, source.numFaceIDs(), source.numEdgeIDs());
+      for (int vertex = 0; vertex < numVertexIDs; ++vertex) {
+         work.newVertexID();
+      }
+      int numSourceFaces = source.numFaces();
+      int[] sourceFaces = new int[numSourceFaces];
+      int[] faceSizes = new int[numSourceFaces];
+      int[] faceVertices = new int[2 * source.numEdges()];
+      int numFaces = 0, numCorners = 0;
+      for (int face = 0; face < source.numFaceIDs(); ++face) {
+         if (!source.isFaceInMesh(face)) continue;
+         int firstEdge = source.directedEdgeForFace(face);
+         int edge = firstEdge;
+         int size = 0;
+         do {
+            faceVertices[numCorners + size++] = source.startOf(edge);
+            edge = source.nextInLoop(edge);
+         } while (edge != firstEdge);
+         numCorners += size;
+         faceSizes[numFaces] = size;
+         sourceFaces[numFaces++] = face;
+      }
+      int[] workFaces = work.addFaces(Arrays.copyOf(faceVertices, numCorners), faceSizes);
+      faceOrigins = new int[work.numFaceIDs()];
+      for (int i = 0; i < numFaces; ++i) {
+         faceOrigins[workFaces[i]] = sourceFaces[i];
+      }
+
+      positions = new float[3 * numVertexIDs];
+      int numSourcePrimitives = Math.min(positions.length, 3 * sourcePositions.data.numElements());
+      for (int i = 0; i < numSourcePrimitives; ++i) {
+         positions[i] = sourcePositions.data.getFloat(i);
+      }
+      quadrics = new double[10 * numVertexIDs];
+      planeWeights = new double[numVertexIDs];
+      marks = new int[numVertexIDs];
+      addFaceQuadrics();
+      addBoundaryQuadrics();
+
+      // Every edge starts out in the heap:
+      int numEdgeIDs = work.numEdgeIDs();
+      heap = new int[numEdgeIDs];
+      heapIndex = new int[numEdgeIDs];
+      heapCosts = new float[numEdgeIDs];
+      Arrays.fill(heapIndex, -1);
+      for (int edge = 0; edge < numEdgeIDs; ++edge) {
+         if (work.isEdgeInMesh(edge)) updateCost(edge);
+      }
+   }
+
+   public int numTriangles() {
+      return work.numTriangles();
+   }
+
+   // An estimate of how far the simplified surface strays from the
+   // source, in the units of the positions: the largest, over the
+   // collapses so far, of the root-mean-square distance from the merged
+   // vertex to the planes its quadric sums.
+   public float error() {
+      return (float) Math.sqrt(maxError);
+   }
+
+   // Collapses edges until the mesh has no more than "targetTriangles"
+   // triangles.  Returns false if it ran out of edges it could collapse first.
+   public boolean simplifyTo(int targetTriangles) {
+      float[] target = new float[3];
+      while (work.numTriangles() > targetTriangles) {
+         if (heapSize == 0) return false;
+         int edge = heap[0];
+         removeFromHeap(edge);
+         if (!work.isEdgeInMesh(edge)) continue;
+
+         int directedEdge = work.forwardDirectedEdge(edge);
+         int u = work.startOf(directedEdge), v = work.endOf(directedEdge);
+         double cost = optimalPosition(u, v, target);
+
+         // An edge that can't be collapsed now stays out of the heap
+         // until a collapse next to it gives it a new cost
+         if (!canCollapse(directedEdge, target)) continue;
+         collapse(directedEdge, target);
+         maxError = Math.max(maxError, cost / planeWeights[v]);
+      }
+      return true;
+   }
+
+   // A new Mesh of the current state, with its vertices and faces numbered
+   // from 0 and copies of the source's per-vertex and per-face DataLayers
+   public Mesh toMesh() {
+      Mesh mesh = new Mesh();
+      mesh.ensureCapacity(work.numVertices(), work.numFaces(), work.numEdges());
+      int numVertexIDs = work.numVertexIDs();
+      int[] newVertices = new int[numVertexIDs];
+      int[] oldVertices = new int[work.numVertices()];
+      for (int vertex = 0; vertex < numVertexIDs; ++vertex) {
+         if (work.isVertexInMesh(vertex)) {
+            newVertices[vertex] = mesh.newVertexID();
+            oldVertices[newVertices[vertex]] = vertex;
+         }
+      }
+      int[] oldFaces = new int[work.numFaces()];
+      int[] faceSizes = new int[work.numFaces()];
+      int[] faceVertices = new int[3 * work.numTriangles()];
+      int numFaces = 0, numCorners = 0;
+      for (int face = 0; face < work.numFaceIDs(); ++face) {
+         if (!work.isFaceInMesh(face)) continue;
+         int firstEdge = work.directedEdgeForFace(face);
+         int edge = firstEdge;
+         int size = 0;
+         do {
+            faceVertices[numCorners + size++] = newVertices[work.startOf(edge)];
+            edge = work.nextInLoop(edge);
+         } while (edge != firstEdge);
+         numCorners += size;
+         faceSizes[numFaces] = size;
+         oldFaces[numFaces++] = face;
+      }
+      int[] newFaces = mesh.addFaces(Arrays.copyOf(faceVertices, numCorners), faceSizes);
+
+      for (Mesh.DataLayer layer : source.dataLayers()) {
+         if (layer.type.elements == Mesh.DataLayer.Elements.PER_EDGE) continue;
+         Data.Array.Storage storage = (layer.data instanceof Data.Array.Direct) ? Data.Array.Storage.DIRECT
+                                                                                : Data.Array.Storage.HEAP;
+         Mesh.DataLayer newLayer = mesh.newDataLayer(layer.name, layer.type, storage);
+         if (layer == sourcePositions) {
+            for (int vertex = 0; vertex < oldVertices.length; ++vertex) {
+               for (int i = 0; i < 3; ++i) {
+                  newLayer.data.setFloat(3 * vertex + i, positions[3 * oldVertices[vertex] + i]);
+               }
+            }
+         } else if (layer.type.elements == Mesh.DataLayer.Elements.PER_VERTEX) {
+            for (int vertex = 0; vertex < oldVertices.length; ++vertex) {
+               newLayer.data.copyRange(layer.data, oldVertices[vertex], vertex, 1);
+            }
+         } else {
+            for (int i = 0; i < numFaces; ++i) {
+               newLayer.data.copyRange(layer.data, faceOrigins[oldFaces[i]], newFaces[i], 1);
+            }
+         }
+      }
+      mesh.trimToSize();
+      return mesh;
+   }
+
+   // ------------------------------------------
+   // Private
+   // ------------------------------------------
+
+   // Along the boundary, how much the planes keeping the outline count
+   // for, compared to the planes of the faces
+   private static final double BOUNDARY_WEIGHT = 10.0;
+
+   // How far a face normal may turn in a collapse, as the smallest cosine
+   // of the angle between before and after
+   private static final double MIN_NORMAL_COSINE = 0.1;
+
+   // Where the quadric of two vertices is this close to singular (the
+   // faces around them are close to flat), the merged vertex goes to the
+   // best of the two ends and the middle of the edge
+   private static final double SINGULAR_DETERMINANT = 1e-9;
+
+   private final Mesh work;
+   private final float[] positions;
+
+   // The face of the source each face of the working Mesh came from
+   private int[] faceOrigins;
+
+   // Ten doubles a vertex, the upper triangle of the symmetric 4x4
+   // sum of p*p' over its planes p = (a,b,c,d):
+   //   aa ab ac ad  bb bc bd  cc cd  dd
+   private final double[] quadrics;
+   // ... and the summed weights of those planes
+   private final double[] planeWeights;
+   private double maxError;
+
+   // ------------------------------------------
+   // Quadrics
+   // ------------------------------------------
+
+   private void addFaceQuadrics() {
+      double[] plane = new double[4];
+      for (int face = 0; face < work.numFaceIDs(); ++face) {
+         if (!work.isFaceInMesh(face)) continue;
+         if (!facePlane(face, plane)) continue;
+         int firstEdge = work.directedEdgeForFace(face);
+         int edge = firstEdge;
+         do {
+            addPlane(work.startOf(edge), plane, 1.0);
+            edge = work.nextInLoop(edge);
+         } while (edge != firstEdge);
+      }
+   }
+   private void addBoundaryQuadrics() {
+      double[] plane = new double[4];
+      for (int directedEdge = 0; directedEdge < 2 * work.numEdgeIDs(); ++directedEdge) {
+         if (!work.isDirectedEdgeInMesh(directedEdge) || !work.isBoundary(directedEdge)) continue;
+         int face = work.faceOf(work.opposite(directedEdge));
+         if ((face < 0) || !facePlane(face, plane)) continue;
+
+         // The plane through the edge, at right angles to the face
+         int start = work.startOf(directedEdge), end = work.endOf(directedEdge);
+         double tx = positions[3*end+0] - positions[3*start+0];
+         double ty = positions[3*end+1] - positions[3*start+1];
+         double tz = positions[3*end+2] - positions[3*start+2];
+         double nx = ty * plane[2] - tz * plane[1];
+         double ny = tz * plane[0] - tx * plane[2];
+         double nz = tx * plane[1] - ty * plane[0];
+         double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+         if (length == 0.0) continue;
+         plane[0] = nx / length;
+         plane[1] = ny / length;
+         plane[2] = nz / length;
+         plane[3] = -(plane[0] * positions[3*start+0] + plane[1] * positions[3*start+1] + plane[2] * positions[3*start+2]);
+         addPlane(start, plane, BOUNDARY_WEIGHT);
+         addPlane(end, plane, BOUNDARY_WEIGHT);
+      }
+   }
+   // The unit normal (Newell's, so any polygon will do) and offset of
+   // the plane of a face, or false if the face has no area
+   private boolean facePlane(int face, double[] plane) {
+      double nx = 0.0, ny = 0.0, nz = 0.0;
+      double cx = 0.0, cy = 0.0, cz = 0.0;
+      int numCorners = 0;
+      int firstEdge = work.directedEdgeForFace(face);
+      int edge = firstEdge;
+      do {
+         int a = 3 * work.startOf(edge), b = 3 * work.endOf(edge);
+         float[] p = positions;
+         nx += (p[a+1] - p[b+1]) * (p[a+2] + p[b+2]);
+         ny += (p[a+2] - p[b+2]) * (p[a+0] + p[b+0]);
+         nz += (p[a+0] - p[b+0]) * (p[a+1] + p[b+1]);
+         cx += p[a+0];  cy += p[a+1];  cz += p[a+2];
+         numCorners++;
+         edge = work.nextInLoop(edge);
+      } while (edge != firstEdge);
+      double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+      if (length == 0.0) return false;
+      plane[0] = nx / length;
+      plane[1] = ny / length;
+      plane[2] = nz / length;
+      plane[3] = -(plane[0] * cx + plane[1] * cy + plane[2] * cz) / numCorners;
+      return true;
+   }
+   private void addPlane(int vertex, double[] plane, double weight) {
+      double a = plane[0], b = plane[1], c = plane[2], d = plane[3];
+      double[] q = quadrics;
+      int i = 10 * vertex;
+      q[i+0] += weight * a * a;  q[i+1] += weight * a * b;  q[i+2] += weight * a * c;  q[i+3] += weight * a * d;
+      q[i+4] += weight * b * b;  q[i+5] += weight * b * c;  q[i+6] += weight * b * d;
+      q[i+7] += weight * c * c;  q[i+8] += weight * c * d;
+      q[i+9] += weight * d * d;
+      planeWeights[vertex] += weight;
+   }
+
+   // Puts the position minimizing the summed quadrics of vertices a and b
+   // in "target", and returns the cost there
+   private double optimalPosition(int a, int b, float[] target) {
+      double[] q = quadrics;
+      int i = 10 * a, j = 10 * b;
+      double axx = q[i+0] + q[j+0], axy = q[i+1] + q[j+1], axz = q[i+2] + q[j+2], bx = q[i+3] + q[j+3];
+      double ayy = q[i+4] + q[j+4], ayz = q[i+5] + q[j+5], by = q[i+6] + q[j+6];
+      double azz = q[i+7] + q[j+7], bz = q[i+8] + q[j+8];
+      double c   = q[i+9] + q[j+9];
+
+      float[] p = positions;
+      double mx = 0.5 * (p[3*a+0] + p[3*b+0]);
+      double my = 0.5 * (p[3*a+1] + p[3*b+1]);
+      double mz = 0.5 * (p[3*a+2] + p[3*b+2]);
+      double ex = p[3*b+0] - p[3*a+0], ey = p[3*b+1] - p[3*a+1], ez = p[3*b+2] - p[3*a+2];
+      double edgeLengthSquared = ex * ex + ey * ey + ez * ez;
+
+      // Solve A x = -b by the cofactors of the symmetric A
+      double cxx = ayy * azz - ayz * ayz;
+      double cxy = axz * ayz - axy * azz;
+      double cxz = axy * ayz - axz * ayy;
+      double det = axx * cxx + axy * cxy + axz * cxz;
+      double scale = Math.max(axx, Math.max(ayy, azz));
+      if (Math.abs(det) > SINGULAR_DETERMINANT * scale * scale * scale) {
+         double cyy = axx * azz - axz * axz;
+         double cyz = axy * axz - axx * ayz;
+         double czz = axx * ayy - axy * axy;
+         double x = -(cxx * bx + cxy * by + cxz * bz) / det;
+         double y = -(cxy * bx + cyy * by + cyz * bz) / det;
+         double z = -(cxz * bx + cyz * by + czz * bz) / det;
+
+         // Near-singular quadrics can put the minimum far off, so it's
+         // only used if it's within an edge length of the middle
+         double dx = x - mx, dy = y - my, dz = z - mz;
+         if (dx * dx + dy * dy + dz * dz <= edgeLengthSquared) {
+            target[0] = (float) x;  target[1] = (float) y;  target[2] = (float) z;
+            return Math.max(0.0, quadricError(axx, axy, axz, bx, ayy, ayz, by, azz, bz, c, x, y, z));
+         }
+      }
+      double best = Double.POSITIVE_INFINITY;
+      for (int k = 0; k < 3; ++k) {
+         double x = (k == 0) ? p[3*a+0] : (k == 1) ? p[3*b+0] : mx;
+         double y = (k == 0) ? p[3*a+1] : (k == 1) ? p[3*b+1] : my;
+         double z = (k == 0) ? p[3*a+2] : (k == 1) ? p[3*b+2] : mz;
+         double error = quadricError(axx, axy, axz, bx, ayy, ayz, by, azz, bz, c, x, y, z);
+         if (error < best) {
+            best = error;
+            target[0] = (float) x;  target[1] = (float) y;  target[2] = (float) z;
+         }
+      }
+      return Math.max(0.0, best);
+   }
+   private static double quadricError(double axx, double axy, double axz, double bx,
+                                      double ayy, double ayz, double by,
+                                      double azz, double bz, double c,
+                                      double x, double y, double z) {
+      return x * (axx * x + 2.0 * (axy * y + axz * z + bx))
+           + y * (ayy * y + 2.0 * (ayz * z + by))
+           + z * (azz * z + 2.0 * bz)
+           + c;
+   }
+
+   // ------------------------------------------
+   // Collapses
+   // ------------------------------------------
+
+   private int[] marks;
+   private int stamp;
+
+   // Checks that collapsing the start of "uv" into its end, moved to
+   // "target", leaves a valid mesh
+   private boolean canCollapse(int uv, float[] target) {
+      Mesh m = work;
+      int vu = m.opposite(uv);
+      int u = m.startOf(uv), v = m.endOf(uv);
+
+      // Mark the neighbors of u, counting its edges and boundary gaps
+      stamp++;
+      int uDegree = 0, uGaps = 0;
+      int edge = uv;
+      do {
+         marks[m.endOf(edge)] = stamp;
+         if (m.isBoundary(edge)) uGaps++;
+         uDegree++;
+         edge = m.nextAroundStart(edge);
+      } while (edge != uv);
+
+      // The only neighbors u and v may share are the far corners of the
+      // triangles on either side of the edge, which are merged away
+      int leftCorner = farCorner(uv), rightCorner = farCorner(vu);
+      if ((leftCorner >= 0) && (leftCorner == rightCorner)) return false;
+      int vDegree = 0, vGaps = 0, numShared = 0;
+      edge = vu;
+      do {
+         int neighbor = m.endOf(edge);
+         if (marks[neighbor] == stamp) {
+            if ((neighbor != leftCorner) && (neighbor != rightCorner)) return false;
+            numShared++;
+         }
+         if (m.isBoundary(edge)) vGaps++;
+         vDegree++;
+         edge = m.nextAroundStart(edge);
+      } while (edge != vu);
+
+      // Two boundaries can't be pinched together, and vertices where
+      // more than one boundary meets are left alone
+      if ((uGaps > 1) || (vGaps > 1)) return false;
+      boolean onBoundary = m.isBoundary(uv) || m.isBoundary(vu);
+      if ((uGaps == 1) && (vGaps == 1) && !onBoundary) return false;
+
+      // Don't shrink a closed surface to less than a tetrahedron, or an
+      // open one to less than a triangle
+      int newDegree = (uDegree - 1) + (vDegree - 1) - numShared;
+      if (newDegree < (((uGaps + vGaps) > 0) ? 2 : 3)) return false;
+
+      // A face around u holding v anywhere but next to u would end up
+      // with v twice, and no face may turn over
+      int leftFace = m.faceOf(uv), rightFace = m.faceOf(vu);
+      edge = uv;
+      do {
+         int face = m.faceOf(edge);
+         if (face >= 0) {
+            boolean onEdge = (face == leftFace) || (face == rightFace);
+            if (!onEdge && faceHas(face, v)) return false;
+            if (!(onEdge && (m.numEdgesForFace(face) == 3)) && turnsOver(face, u, v, target)) return false;
+         }
+         edge = m.nextAroundStart(edge);
+      } while (edge != uv);
+      edge = vu;
+      do {
+         int face = m.faceOf(edge);
+         if ((face >= 0) && (face != leftFace) && (face != rightFace) && turnsOver(face, u, v, target)) return false;
+         edge = m.nextAroundStart(edge);
+      } while (edge != vu);
+      return true;
+   }
+   // The third vertex of the triangle on "directedEdge", or -1 if that's
+   // the boundary or a bigger face
+   private int farCorner(int directedEdge) {
+      if (work.isBoundary(directedEdge)) return -1;
+      int next = work.nextInLoop(directedEdge);
+      if (work.nextInLoop(work.nextInLoop(next)) != directedEdge) return -1;
+      return work.endOf(next);
+   }
+   private boolean faceHas(int face, int vertex) {
+      int firstEdge = work.directedEdgeForFace(face);
+      int edge = firstEdge;
+      do {
+         if (work.startOf(edge) == vertex) return true;
+         edge = work.nextInLoop(edge);
+      } while (edge != firstEdge);
+      return false;
+   }
+   // Whether the normal of "face" turns too far when u and v move to "target"
+   private boolean turnsOver(int face, int u, int v, float[] target) {
+      double ox = 0.0, oy = 0.0, oz = 0.0;
+      double nx = 0.0, ny = 0.0, nz = 0.0;
+      int firstEdge = work.directedEdgeForFace(face);
+      int edge = firstEdge;
+      do {
+         int a = work.startOf(edge), b = work.endOf(edge);
+         float[] p = positions;
+         double ax = p[3*a+0], ay = p[3*a+1], az = p[3*a+2];
+         double bx = p[3*b+0], by = p[3*b+1], bz = p[3*b+2];
+         ox += (ay - by) * (az + bz);
+         oy += (az - bz) * (ax + bx);
+         oz += (ax - bx) * (ay + by);
+         if ((a == u) || (a == v)) { ax = target[0];  ay = target[1];  az = target[2]; }
+         if ((b == u) || (b == v)) { bx = target[0];  by = target[1];  bz = target[2]; }
+         nx += (ay - by) * (az + bz);
+         ny += (az - bz) * (ax + bx);
+         nz += (ax - bx) * (ay + by);
+         edge = work.nextInLoop(edge);
+      } while (edge != firstEdge);
+      double oldLengthSquared = ox * ox + oy * oy + oz * oz;
+      if (oldLengthSquared == 0.0) return false;
+      double dot = ox * nx + oy * ny + oz * nz;
+      return dot <= MIN_NORMAL_COSINE * Math.sqrt(oldLengthSquared * (nx * nx + ny * ny + nz * nz));
+   }
+
+   // The faces around u, in order, as they'll be added back around v
+   private int[] oldFaces = new int[16];
+   private int[] oldFaceOrigins = new int[16];
+   private int[] newFaceStarts = new int[17];
+   private int[] newFaceVertices = new int[64];
+
+   private void collapse(int uv, float[] target) {
+      Mesh m = work;
+      int vu = m.opposite(uv);
+      int u = m.startOf(uv), v = m.endOf(uv);
+      int leftFace = m.faceOf(uv), rightFace = m.faceOf(vu);
+
+      // The edges of u and v all go, or get new costs
+      int edge = uv;
+      do {
+         removeFromHeap(m.edgeOf(edge));
+         edge = m.nextAroundStart(edge);
+      } while (edge != uv);
+      edge = vu;
+      do {
+         removeFromHeap(m.edgeOf(edge));
+         edge = m.nextAroundStart(edge);
+      } while (edge != vu);
+
+      // List the faces around u, in order starting from the edge to v,
+      // with v in place of u.  The faces on either side of the edge just
+      // lose u, which for a triangle leaves nothing.
+      int numFaces = 0, numCorners = 0, gap = -1;
+      edge = uv;
+      do {
+         int face = m.faceOf(edge);
+         if (face < 0) {
+            gap = numFaces;
+         } else {
+            boolean onEdge = (face == leftFace) || (face == rightFace);
+            if (numFaces + 1 >= oldFaces.length) {
+               oldFaces = Arrays.copyOf(oldFaces, 2 * oldFaces.length);
+               oldFaceOrigins = Arrays.copyOf(oldFaceOrigins, 2 * oldFaceOrigins.length);
+               newFaceStarts = Arrays.copyOf(newFaceStarts, 2 * newFaceStarts.length);
+            }
+            oldFaces[numFaces] = face;
+            oldFaceOrigins[numFaces] = faceOrigins[face];
+            newFaceStarts[numFaces] = numCorners;
+            int faceEdge = edge;
+            do {
+               // Edges on the boundary are removed with the face, and may
+               // come back under another ID
+               if (m.isBoundary(m.opposite(faceEdge))) {
+                  removeFromHeap(m.edgeOf(faceEdge));
+               }
+               int vertex = m.startOf(faceEdge);
+               if ((vertex != u) || !onEdge) {
+                  if (numCorners >= newFaceVertices.length) {
+                     newFaceVertices = Arrays.copyOf(newFaceVertices, 2 * newFaceVertices.length);
+                  }
+                  newFaceVertices[numCorners++] = (vertex == u) ? v : vertex;
+               }
+               faceEdge = m.nextInLoop(faceEdge);
+            } while (faceEdge != edge);
+            numFaces++;
+         }
+         edge = m.nextAroundStart(edge);
+      } while (edge != uv);
+      newFaceStarts[numFaces] = numCorners;
+
+      int q = 10 * u, r = 10 * v;
+      for (int i = 0; i < 10; ++i) {
+         quadrics[r + i] += quadrics[q + i];
+      }
+      planeWeights[v] += planeWeights[u];
+      positions[3*v+0] = target[0];
+      positions[3*v+1] = target[1];
+      positions[3*v+2] = target[2];
+
+      for (int i = 0; i < numFaces; ++i) {
+         m.removeFace(oldFaces[i]);
+      }
+      // Each face added back has to share an edge with the faces already
+      // around v.  Going round from the edge to v does that, until a
+      // boundary gap of u, so the faces after the gap go in backwards.
+      if (gap < 0) gap = numFaces;
+      for (int i = 0; i < gap; ++i) {
+         addBack(i, v);
+      }
+      for (int i = numFaces - 1; i >= gap; --i) {
+         addBack(i, v);
+      }
+
+      edge = m.outgoingEdgeForVertex(v);
+      int firstEdge = edge;
+      do {
+         updateCost(m.edgeOf(edge));
+         edge = m.nextAroundStart(edge);
+      } while (edge != firstEdge);
+   }
+   private void addBack(int i, int v) {
+      int start = newFaceStarts[i];
+      int numVertices = newFaceStarts[i + 1] - start;
+      if (numVertices < 3) return;
+      int face = work.addFace(newFaceVertices, start, numVertices);
+      if (face >= faceOrigins.length) {
+         faceOrigins = Arrays.copyOf(faceOrigins, Math.max(face + 1, 2 * faceOrigins.length));
+      }
+      faceOrigins[face] = oldFaceOrigins[i];
+
+      // Boundary edges away from v are back in the mesh, and need to be
+      // back in the heap (the edges of v are done once they're all added)
+      int firstEdge = work.directedEdgeForFace(face);
+      int edge = firstEdge;
+      do {
+         int e = work.edgeOf(edge);
+         if ((work.startOf(edge) != v) && (work.endOf(edge) != v)
+               && ((e >= heapIndex.length) || (heapIndex[e] < 0))) {
+            updateCost(e);
+         }
+         edge = work.nextInLoop(edge);
+      } while (edge != firstEdge);
+   }
+
+   // ------------------------------------------
+   // Heap of edges by cost
+   // ------------------------------------------
+
+   // The costs are kept beside the edges in the heap, rather than looked
+   // up by edge, to save a cache miss at each step of sifting
+   private int[] heap;
+   private float[] heapCosts;
+   private int[] heapIndex;
+   private int heapSize;
+   private final float[] scratchTarget = new float[3];
+
+   private void updateCost(int edge) {
+      if (edge >= heapIndex.length) {
+         int newLength = Math.max(edge + 1, 2 * heapIndex.length);
+         heap = Arrays.copyOf(heap, newLength);
+         heapCosts = Arrays.copyOf(heapCosts, newLength);
+         int oldLength = heapIndex.length;
+         heapIndex = Arrays.copyOf(heapIndex, newLength);
+         Arrays.fill(heapIndex, oldLength, newLength, -1);
+      }
+      removeFromHeap(edge);
+      int directedEdge = work.forwardDirectedEdge(edge);
+      float cost = (float) optimalPosition(work.startOf(directedEdge), work.endOf(directedEdge), scratchTarget);
+      siftUp(heapSize++, edge, cost);
+   }
+   private void removeFromHeap(int edge) {
+      if (edge >= heapIndex.length) return;
+      int i = heapIndex[edge];
+      if (i < 0) return;
+      heapIndex[edge] = -1;
+      heapSize--;
+      if (i == heapSize) return;
+      int last = heap[heapSize];
+      float lastCost = heapCosts[heapSize];
+      if ((i > 0) && (heapCosts[(i - 1) >>> 1] > lastCost)) {
+         siftUp(i, last, lastCost);
+      } else {
+         siftDown(i, last, lastCost);
+      }
+   }
+   // Moves the hole at "i" up until "edge" fits there
+   private void siftUp(int i, int edge, float cost) {
+      while (i > 0) {
+         int parent = (i - 1) >>> 1;
+         if (heapCosts[parent] <= cost) break;
+         heap[i] = heap[parent];
+         heapCosts[i] = heapCosts[parent];
+         heapIndex[heap[i]] = i;
+         i = parent;
+      }
+      heap[i] = edge;
+      heapCosts[i] = cost;
+      heapIndex[edge] = i;
+   }
+   // Moves the hole at "i" down until "edge" fits there
+   private void siftDown(int i, int edge, float cost) {
+      while (true) {
+         int child = 2 * i + 1;
+         if (child >= heapSize) break;
+         if ((child + 1 < heapSize) && (heapCosts[child + 1] < heapCosts[child])) child++;
+         if (heapCosts[child] >= cost) break;
+         heap[i] = heap[child];
+         heapCosts[i] = heapCosts[child];
+         heapIndex[heap[i]] = i;
+         i = child;
+      }
+      heap[i] = edge;
+      heapCosts[i] = cost;
+      heapIndex[edge] = i;
+   }
+
+   // -----------------------------------------------------------------------
+   // TESTING
+   // -----------------------------------------------------------------------
+
+   // Simplifies a closed UV sphere down a chain of targets, checking at
+   // each that the face count reached the target, and that the result is
+   // still a closed manifold: every edge has a face on both sides, no
+   // vertex has two edges to the same neighbor or a broken fan, and the
+   // Euler characteristic is still 2.
+   public static void testManifold() {
+      int rings = 24, segments = 32;
+      Mesh mesh = new Mesh();
+      Mesh.DataLayer positions = mesh.newDataLayer("positions", Mesh.DataLayer.Type.THREE_FLOATS_PER_VERTEX);
+      int north = mesh.newVertexID();
+      for (int i = 0; i < (rings - 1) * segments + 1; ++i) mesh.newVertexID();
+      int south = mesh.numVertexIDs() - 1;
+      for (int vertex = 0; vertex < mesh.numVertexIDs(); ++vertex) {
+         int ring = (vertex == north) ? 0 : (vertex == south) ? rings : 1 + (vertex - 1) / segments;
+         double theta = Math.PI * ring / rings;
+         double phi = 2.0 * Math.PI * ((vertex - 1) % segments) / segments;
+         positions.data.setFloat(3 * vertex + 0, (float) (Math.sin(theta) * Math.cos(phi)));
+         positions.data.setFloat(3 * vertex + 1, (float) (Math.sin(theta) * Math.sin(phi)));
+         positions.data.setFloat(3 * vertex + 2, (float) Math.cos(theta));
+      }
+      for (int j = 0; j < segments; ++j) {
+         int k = (j + 1) % segments;
+         mesh.addFace(north, 1 + j, 1 + k);
+         for (int ring = 1; ring < rings - 1; ++ring) {
+            int a = 1 + (ring - 1) * segments + j, d = 1 + (ring - 1) * segments + k;
+            int b = a + segments, c = d + segments;
+            mesh.addFace(a, b, c);
+            mesh.addFace(a, c, d);
+         }
+         int last = 1 + (rings - 2) * segments;
+         mesh.addFace(south, last + k, last + j);
+      }
+
+      boolean ok = isClosedManifold(mesh);
+      MeshSimplifier simplifier = new MeshSimplifier(mesh);
+      for (int target : new int[] { 1000, 300, 100, 40 }) {
+         ok &= simplifier.simplifyTo(target)
+            && (simplifier.numTriangles() <= target) && (simplifier.numTriangles() >= target - 2);
+         Mesh simplified = simplifier.toMesh();
+         ok &= (simplified.numTriangles() == simplifier.numTriangles()) && isClosedManifold(simplified);
+      }
+      System.out.format("MeshSimplifier manifold: %s\n", ok ? "OK" : "PROBLEM");
+   }
+   private static boolean isClosedManifold(Mesh mesh) {
+      for (int edge = 0; edge < mesh.numEdgeIDs(); ++edge) {
+         if (!mesh.isEdgeInMesh(edge)) continue;
+         if ((mesh.faceOf(2 * edge) < 0) || (mesh.faceOf(2 * edge + 1) < 0)) return false;
+      }
+      int[] marks = new int[mesh.numVertexIDs()];
+      Arrays.fill(marks, -1);
+      for (int vertex = 0; vertex < mesh.numVertexIDs(); ++vertex) {
+         if (!mesh.isVertexInMesh(vertex)) continue;
+         int firstEdge = mesh.outgoingEdgeForVertex(vertex);
+         int edge = firstEdge;
+         int numAround = 0;
+         do {
+            int neighbor = mesh.endOf(edge);
+            if ((neighbor == vertex) || (marks[neighbor] == vertex)) return false;
+            marks[neighbor] = vertex;
+            numAround++;
+            edge = mesh.nextAroundStart(edge);
+         } while ((edge != firstEdge) && (numAround <= mesh.numEdges()));
+         if ((edge != firstEdge) || (numAround < 3)) return false;
+      }
+      return (mesh.numVertices() - mesh.numEdges() + mesh.numFaces() == 2);
+   }
+}
@@ -0,0 +1,163 @@
+package com.generic.base;
+
+// ==================================================================
+// QuantizedPositions keeps the positions of a Mesh's vertices as three
+// 16-bit SHORTS per vertex, in a THREE_SHORTS_PER_VERTEX DataLayer,
+// rather than as three floats.  For a big mesh that halves the memory
+// of its largest DataLayer, and the upload of the flattened positions.
+//
+// Each axis is quantized relative to a bounding cube around the mesh:
+//
+//    position = center + step * q,      -32767 <= q <= 32767
+//
+// The one "step" is shared by all three axes, so dequantizing is a
+// uniform scale plus a translation.  A backend folds that into the
+// MODEL_TO_VIEW matrix when it draws (see the "dequantization" of a
+// Rendering VertexBuffer.Binding), and because the scale is uniform,
+// normals transformed by the same matrix still point the right way.
+// The price is that a long thin mesh gets the resolution of its longest
+// side on all three axes.
+//
+// The CPU accessors give back floats within about step/2 of what was set,
+// which is accurate enough for picking or for computing normals.
+//
+// The layer can be HEAP or DIRECT, and callers changing positions mark
+// the vertices dirty in "layer".
+// The center and step aren't part of the Mesh, so they aren't saved
+// with it by Mesh.saveBinary.
+// ==================================================================
+
+public class QuantizedPositions {
+
+   public static final int MAX_QUANTIZED = 32767;
+
+   public final Mesh.DataLayer layer;
+   public final Algebra.Vector3 center;
+   public final float step;
+
+   // Makes an empty quantized positions layer on "mesh", for positions
+   // within the box from "min" to "max"
+   public static QuantizedPositions create(Mesh mesh, String name, Algebra.Vector3 min, Algebra.Vector3 max) {
+      float halfExtent = 0.5f * Math.max(max.x - min.x, Math.max(max.y - min.y, max.z - min.z));
+      Algebra.Vector3 center = new Algebra.Vector3(0.5f * (min.x + max.x),
+                                                   0.5f * (min.y + max.y),
+                                                   0.5f * (min.z + max.z));
+
+      // A little slack, so the corners of the box still round inside it
+      // after the float error in (position - center)
+      float step = (halfExtent > 0.0f) ? (halfExtent * 1.0001f / MAX_QUANTIZED) : 1.0f;
+      return new QuantizedPositions(mesh.newDataLayer(name, Mesh.DataLayer.Type.THREE_SHORTS_PER_VERTEX), center, step);
+   }
+
+   // Makes a quantized copy of a THREE_FLOATS_PER_VERTEX positions layer,
+   // bounded by the vertices in its mesh.  The float layer is left alone,
+   // "positions.destroy()" to get back its memory.
+   public static QuantizedPositions fromPositions(Mesh.DataLayer positions, String name) {
+      if (!positions.type.equals(Mesh.DataLayer.Type.THREE_FLOATS_PER_VERTEX)) {
+         throw new RuntimeException(String.format(
+               "Can't quantize DataLayer \"%s\", not THREE_FLOATS_PER_VERTEX", positions.name));
+      }
+      Mesh mesh = positions.mesh;
+      Data.Array xyz = positions.data;
+
+      float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+      float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+      for (int vertex = 0; vertex < mesh.numVertexIDs(); ++vertex) {
+         if (!mesh.isVertexInMesh(vertex)) continue;
+         float x = xyz.getFloat(3*vertex+0), y = xyz.getFloat(3*vertex+1), z = xyz.getFloat(3*vertex+2);
+         minX = Math.min(minX, x);  maxX = Math.max(maxX, x);
+         minY = Math.min(minY, y);  maxY = Math.max(maxY, y);
+         minZ = Math.min(minZ, z);  maxZ = Math.max(maxZ, z);
+      }
+      if (minX > maxX) {
+         minX = minY = minZ = maxX = maxY = maxZ = 0.0f;
+      }
+      QuantizedPositions quantized = create(mesh, name, new Algebra.Vector3(minX, minY, minZ),
+                                                        new Algebra.Vector3(maxX, maxY, maxZ));
+      for (int vertex = 0; vertex < mesh.numVertexIDs(); ++vertex) {
+         if (!mesh.isVertexInMesh(vertex)) continue;
+         quantized.setPosition(vertex, xyz.getFloat(3*vertex+0), xyz.getFloat(3*vertex+1), xyz.getFloat(3*vertex+2));
+      }
+      return quantized;
+   }
+
+   private QuantizedPositions(Mesh.DataLayer layer, Algebra.Vector3 center, float step) {
+      this.layer = layer;
+      this.center = center;
+      this.step = step;
+   }
+
+   // ------------------------------------------
+   // CPU access
+   // ------------------------------------------
+
+   public void getPosition(int vertex, float[] xyz, int offset) {
+      Data.Array q = layer.data;
+      xyz[offset+0] = center.x + step * q.getShort(3*vertex+0);
+      xyz[offset+1] = center.y + step * q.getShort(3*vertex+1);
+      xyz[offset+2] = center.z + step * q.getShort(3*vertex+2);
+   }
+   public Algebra.Vector3 position(int vertex) {
+      Data.Array q = layer.data;
+      return new Algebra.Vector3(center.x + step * q.getShort(3*vertex+0),
+                                 center.y + step * q.getShort(3*vertex+1),
+                                 center.z + step * q.getShort(3*vertex+2));
+   }
+   public void setPosition(int vertex, float x, float y, float z) {
+      Data.Array q = layer.data;
+      q.setShort(3*vertex+0, quantize(x, center.x));
+      q.setShort(3*vertex+1, quantize(y, center.y));
+      q.setShort(3*vertex+2, quantize(z, center.z));
+   }
+   public void setPosition(int vertex, Algebra.Vector3 position) {
+      setPosition(vertex, position.x, position.y, position.z);
+   }
+
+   // About the most a position read back differs from the one that was set,
+   // on each axis
+   public float maxError() {
+      return 0.5f * step;
+   }
+
+   // All the positions as floats, three per vertex ID, for algorithms
+   // (like Mesh.reorderByPosition) that want the whole array at once
+   public float[] toFloats() {
+      int numVertexIDs = layer.mesh.numVertexIDs();
+      Data.Array q = layer.data;
+      float[] xyz = new float[3 * numVertexIDs];
+      for (int i = 0; i < 3 * numVertexIDs; i += 3) {
+         xyz[i+0] = center.x + step * q.getShort(i+0);
+         xyz[i+1] = center.y + step * q.getShort(i+1);
+         xyz[i+2] = center.z + step * q.getShort(i+2);
+      }
+      return xyz;
+   }
+
+   // ------------------------------------------
+   // GPU access
+   // ------------------------------------------
+
+   // Takes the quantized values, as floats, to model space.  Bind it with
+   // the POSITIONS of a vertexBuffer holding the quantized values, and the
+   // backend multiplies it into MODEL_TO_VIEW.
+   public Algebra.Matrix4x4 dequantization() {
+      return new Algebra.Matrix4x4(step, 0.0f, 0.0f, center.x,
+                                   0.0f, step, 0.0f, center.y,
+                                   0.0f, 0.0f, step, center.z,
+                                   0.0f, 0.0f, 0.0f, 1.0f);
+   }
+
+   // ------------------------------------------
+   // Private
+   // ------------------------------------------
+
+   private short quantize(float value, float center) {
+      float q = (value - center) / step;
+      if (!(Math.abs(q) <= MAX_QUANTIZED + 0.5f)) {
+         throw new RuntimeException(String.format(
+               "Position %f is outside the quantized range %f to %f of DataLayer \"%s\"",
+               value, center - MAX_QUANTIZED * step, center + MAX_QUANTIZED * step, layer.name));
+      }
+      return (short) Math.max(-MAX_QUANTIZED, Math.min(MAX_QUANTIZED, Math.round(q)));
+   }
+}
@@ -10,6 +10,7 @@ public class Rendering {
    // How about this then?
    // ------------------------------------------
    public final HashMap<Integer, Data.Array> vertexBuffers = new HashMap<Integer, Data.Array>();
+   public final HashMap<Integer, Data.Array> indexBuffers = new HashMap<Integer, Data.Array>();
    public final HashMap<Integer, Image> samplers = new HashMap<Integer, Image>();
    public final HashMap<Integer, Shader> shaders = new HashMap<Integer, Shader>();
    public final ArrayList<Shader.Command> commands = new ArrayList<Shader.Command>();
@@ -74,6 +75,15 @@ public class Rendering {
       public static Variable.VertexBuffer NORMALS    = new Variable.VertexBuffer("normals", Data.Array.Type.THREE_FLOATS);
       public static Variable.VertexBuffer BARYCOORDS = new Variable.VertexBuffer("baryCoords", Data.Array.Type.THREE_FLOATS);
       
+      // The MODEL_TO_VIEW a backend loads for a draw using these POSITIONS:
+      // quantized positions are taken to model space by the same matrix
+      // multiply that takes model space to view space.
+      public static Algebra.Matrix4x4 modelToView(Algebra.Matrix4x4 modelToView,
+                                                  Variable.VertexBuffer.Binding positions) {
+         if ((positions == null) || (positions.dequantization == null)) return modelToView;
+         return Algebra.Matrix4x4.product(modelToView, positions.dequantization);
+      }
+      
       // -------------------------------------------------------------------
       // Execution
       // -------------------------------------------------------------------      
@@ -86,6 +96,21 @@ public class Rendering {
                this.numTriangles = numTriangles;
             }
          }
+         // Draws triangles whose corners are looked up in an indexBuffer
+         // (a THREE_INTEGERS Data.Array, one element per triangle), so the
+         // vertexBuffers can hold each shared vertex just once
+         public static final class ExecuteIndexed implements Shader.Command {
+            public final int shader;
+            public final int indexBuffer;
+            public final int firstTriangle;
+            public final int numTriangles;
+            public ExecuteIndexed (int shader, int indexBuffer, int firstTriangle, int numTriangles) {
+               this.shader = shader;
+               this.indexBuffer = indexBuffer;
+               this.firstTriangle = firstTriangle;
+               this.numTriangles = numTriangles;
+            }
+         }
       }
       
       // -------------------------------------------------------------------
@@ -159,13 +184,60 @@ public class Rendering {
                this.type = type;
             }
             
+            // The variable reads one element of its "type" for each vertex.
+            // The element for vertex i starts at (offset + i * stride), counted
+            // in primitives, in the vertexBuffer.  The default (offset 0, stride
+            // 0) is a buffer holding just this variable, tightly packed: one
+            // element of the BUFFER's own type per vertex, which for a
+            // THREE_FLOATS buffer of POSITIONS (a FOUR_FLOATS variable) is 3
+            // floats, not 4.  Several Bindings can share one INTERLEAVED
+            // buffer, each with its own offset and the common stride.
+            //
+            // A vertexBuffer may instead hold a compact primitive (such as
+            // PACKED_2_10_10_10 normals) that the backend converts to the
+            // variable's floats.  It then holds just this variable, one
+            // element per vertex, and the default Binding is the one to use.
+            //
+            // POSITIONS may also be quantized (as QuantizedPositions SHORTS,
+            // say), with a "dequantization" matrix taking the values read to
+            // model space.  The backend folds it into MODEL_TO_VIEW for the
+            // draw (see Shader.modelToView), so it has to be a uniform scale
+            // and translation to leave the normals alone.
             public static final class Binding implements Variable.Binding {
                public final Shader.Variable.VertexBuffer variable;
                public final int vertexBuffer;
+               public final int offset;
+               public final int stride;
+               public final Algebra.Matrix4x4 dequantization;
                public Binding (Shader.Variable.VertexBuffer variable, int vertexBuffer) {
+                  this(variable, vertexBuffer, 0, TIGHTLY_PACKED);
+               }
+               public Binding (Shader.Variable.VertexBuffer variable, int vertexBuffer, int offset, int stride) {
+                  this(variable, vertexBuffer, offset, stride, null);
+               }
+               public Binding (Shader.Variable.VertexBuffer variable, int vertexBuffer, Algebra.Matrix4x4 dequantization) {
+                  this(variable, vertexBuffer, 0, TIGHTLY_PACKED, dequantization);
+               }
+               public Binding (Shader.Variable.VertexBuffer variable, int vertexBuffer, int offset, int stride,
+                               Algebra.Matrix4x4 dequantization) {
+                  if ((stride == TIGHTLY_PACKED) ? (offset != 0)
+                        : ((offset < 0) || (offset + variable.type.primitivesPerElement > stride))) {
+                     throw new RuntimeException(String.format(
+                        "Variable \"%s\" doesn't fit at offset %d of stride %d", variable.name, offset, stride));
+                  }
+                  if ((dequantization != null) && (variable != Shader.POSITIONS)) {
+                     throw new RuntimeException(String.format(
+                        "Variable \"%s\" can't be quantized, only \"%s\" can", variable.name, Shader.POSITIONS.name));
+                  }
                   this.variable = variable;
                   this.vertexBuffer = vertexBuffer;
+                  this.offset = offset;
+                  this.stride = stride;
+                  this.dequantization = dequantization;
                }
+               // The stride of a buffer holding just this variable, whose
+               // element size comes from the buffer, not the variable
+               public static final int TIGHTLY_PACKED = 0;
             }            
          }
          // - - - - - - - 
@@ -208,6 +280,11 @@ public class Rendering {
       public void vertexBufferAdded   (int vertexBuffer);
       public void vertexBufferRemoved (int vertexBuffer);
       public void vertexBufferChanged (int vertexBuffer);
+      public void vertexBufferChanged (int vertexBuffer, int firstByte, int numBytes);
+      // Changes to indexBuffers
+      public void indexBufferAdded   (int indexBuffer);
+      public void indexBufferRemoved (int indexBuffer);
+      public void indexBufferChanged (int indexBuffer);
       // Changes to samplers
       public void samplerAdded   (int sampler);
       public void samplerRemoved (int sampler);
@@ -228,6 +305,19 @@ public class Rendering {
    public void vertexBufferChanged (int vertexBuffer) {
       for (Listener listener : listeners) listener.vertexBufferChanged(vertexBuffer);
    }
+   // Only the bytes from firstByte to (firstByte + numBytes) have changed
+   public void vertexBufferChanged (int vertexBuffer, int firstByte, int numBytes) {
+      for (Listener listener : listeners) listener.vertexBufferChanged(vertexBuffer, firstByte, numBytes);
+   }
+   public void indexBufferAdded (int indexBuffer) {
+      for (Listener listener : listeners) listener.indexBufferAdded(indexBuffer);
+   }
+   public void indexBufferRemoved (int indexBuffer) {
+      for (Listener listener : listeners) listener.indexBufferRemoved(indexBuffer);
+   }
+   public void indexBufferChanged (int indexBuffer) {
+      for (Listener listener : listeners) listener.indexBufferChanged(indexBuffer);
+   }
    public void samplerAdded (int sampler) {
       for (Listener listener : listeners) listener.samplerAdded(sampler);
    }
@@ -278,6 +368,10 @@ public class Rendering {
       public final HashSet<Integer> vertexBuffersRemoved = new HashSet<Integer>();
       public final HashSet<Integer> vertexBuffersChanged = new HashSet<Integer>();
 
+      public final HashSet<Integer> indexBuffersAdded   = new HashSet<Integer>();
+      public final HashSet<Integer> indexBuffersRemoved = new HashSet<Integer>();
+      public final HashSet<Integer> indexBuffersChanged = new HashSet<Integer>();
+
       public final HashSet<Integer> shadersAdded   = new HashSet<Integer>();
       public final HashSet<Integer> shadersRemoved = new HashSet<Integer>();
       public final HashSet<Integer> shadersChanged = new HashSet<Integer>();
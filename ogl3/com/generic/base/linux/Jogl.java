@@ -32,7 +32,7 @@ import java.io.InputStreamReader;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -306,6 +306,9 @@ public class Jogl {
                for (GLVertexBuffer buffer : vertexBuffers.values()) {
                   buffer.needsDestruction = true;
                }
+               for (GLIndexBuffer buffer : indexBuffers.values()) {
+                  buffer.needsDestruction = true;
+               }
             }
             
             this.graphics3D = graphics3D;
@@ -316,6 +319,9 @@ public class Jogl {
                for (Integer vertexBufferId : graphics3D.vertexBuffers.keySet()) {
                   vertexBufferAdded(vertexBufferId); 
                }
+               for (Integer indexBufferId : graphics3D.indexBuffers.keySet()) {
+                  indexBufferAdded(indexBufferId); 
+               }
                for (Integer samplerId : graphics3D.samplers.keySet()) {
                   samplerAdded(samplerId); 
                }
@@ -346,6 +352,12 @@ public class Jogl {
             buffer.needsUpdate = true;
          }
       }
+      public void vertexBufferChanged(int vertexBufferId, int firstByte, int numBytes) {
+         GLVertexBuffer buffer = vertexBuffers.get(vertexBufferId);
+         if (buffer != null) {
+            buffer.changedRanges.add(new int[] { firstByte, numBytes });
+         }
+      }
       public void vertexBufferRemoved(int vertexBufferId) {
          GLVertexBuffer buffer = vertexBuffers.get(vertexBufferId);
          if (buffer != null) {
@@ -353,6 +365,28 @@ public class Jogl {
          }
       }
       
+      public void indexBufferAdded(int indexBufferId) {
+         GLIndexBuffer buffer = indexBuffers.get(indexBufferId);
+         if (buffer == null) {
+            buffer = new GLIndexBuffer(indexBufferId);
+            indexBuffers.put(indexBufferId, buffer);
+         }
+         buffer.needsUpdate      = true;
+         buffer.needsDestruction = false;
+      }
+      public void indexBufferChanged(int indexBufferId) {
+         GLIndexBuffer buffer = indexBuffers.get(indexBufferId);
+         if (buffer != null) {
+            buffer.needsUpdate = true;
+         }
+      }
+      public void indexBufferRemoved(int indexBufferId) {
+         GLIndexBuffer buffer = indexBuffers.get(indexBufferId);
+         if (buffer != null) {
+            buffer.needsDestruction = true;
+         }
+      }
+      
       public void samplerAdded(int samplerId) {
          GLSampler sampler = samplers.get(samplerId);
          if (sampler == null) {
@@ -411,7 +445,11 @@ public class Jogl {
          public boolean needsUpdate;
          public boolean needsDestruction;
          
-         public Buffer nativeBuffer;
+         // {firstByte, numBytes} ranges changed since the last update,
+         // which can be uploaded on their own if nothing else changed
+         public final ArrayList<int[]> changedRanges = new ArrayList<int[]>();
+         
+         public ByteBuffer nativeBuffer;
          public Integer glBufferID;
          public int glBufferLength;
 
@@ -427,46 +465,51 @@ public class Jogl {
                if (nativeBuffer != null) {
                   nativeBuffer = null;
                }
+               changedRanges.clear();
+               return;
                
-            } else if (needsUpdate) {
+            } else if (!needsUpdate && !changedRanges.isEmpty()) {
+               if (canUpdateChangedRanges()) {
+                  updateChangedRanges(gl);
+               } else {
+                  needsUpdate = true;
+               }
+               changedRanges.clear();
+            }
+            
+            if (needsUpdate) {
                needsUpdate = false;
+               changedRanges.clear();
 
                int glBufferLengthNeeded = 0;
-               final int bytesPerFloat = 4;
                
                System.out.format("Buffer [%d] changed, updating GL", key);
                
-               // The "Data.Array" in Graphics3D has to be FIRST converted
-               // into a native Buffer, either IntBuffer or FloatBuffer
+               // The "Data.Array" in Graphics3D has to be FIRST copied
+               // into a native Buffer, unless it's DIRECT and so already native,
+               // in which case its chunks are uploaded one by one below
                Data.Array array = graphics3D.vertexBuffers.get(key);
-               if (array instanceof Data.Array.Floats) {
-                  // We want "nativeBuffer" to be a FloatBuffer.
-                  // How many floats do we want in our floatBuffer?
-                  float[] floats = ((Data.Array.Floats) array).array();
-                  int numFloatsNeeded = array.numElements() * array.type.primitivesPerElement;
-                  int numBytesNeeded = numFloatsNeeded * bytesPerFloat;
+               Buffer uploadBuffer = null;
+               if (array instanceof Data.Array.Direct) {
+                  glBufferLengthNeeded = numBytes(array);
+                  nativeBuffer = null;
+                  
+               } else {
+                  // We want "nativeBuffer" to hold all the primitives of the
+                  // array, whatever their type.  How many bytes is that?
+                  int numBytesNeeded = numBytes(array);
                   glBufferLengthNeeded = numBytesNeeded;
                   
-                  // Is "nativeBuffer" already a FloatBuffer with the required number
-                  // of elements?  If not, make it so:
-                  if (!(nativeBuffer instanceof FloatBuffer) || (nativeBuffer.capacity() != numBytesNeeded)) {
-                     ByteBuffer byteBuffer = ByteBuffer.allocateDirect(numBytesNeeded);
-                     byteBuffer.order(ByteOrder.nativeOrder());
-                     nativeBuffer = byteBuffer.asFloatBuffer();
-                     System.out.format("Needed vertex buffer of %d floats -- umm, for %d elements at %d primitivesPerElement,"
-                           + " got buffer of %d floats.   But my array len is %d\n",
-                           numFloatsNeeded, array.numElements(), array.type.primitivesPerElement, nativeBuffer.capacity(),
-                           floats.length);
+                  // Is "nativeBuffer" already the required size?  If not, make it so:
+                  if ((nativeBuffer == null) || (nativeBuffer.capacity() != numBytesNeeded)) {
+                     nativeBuffer = ByteBuffer.allocateDirect(numBytesNeeded);
+                     nativeBuffer.order(ByteOrder.nativeOrder());
+                     System.out.format("Needed vertex buffer of %d bytes -- for %d elements at %d primitivesPerElement\n",
+                           numBytesNeeded, array.numElements(), array.type.primitivesPerElement);
                   }
                   // Copy the array contents into the native buffer
-                  FloatBuffer floatBuffer = (FloatBuffer) nativeBuffer;
-                  floatBuffer.position(0);
-                  floatBuffer.put(floats, 0, numFloatsNeeded);
-                  floatBuffer.position(0);
- 
-               } else if (array instanceof Data.Array.Integers) {
-                  // TODO: Do we need integer vertexbuffers for "faceColor"?
-                  // 
+                  copyToNativeBuffer(array, 0, array.numElements() * array.type.primitivesPerElement);
+                  uploadBuffer = nativeBuffer;
                }
                
                // Now that we've updated (or created) the NativeBuffer,
@@ -481,22 +524,80 @@ public class Jogl {
                   // Bind and reallocate new storage
                   gl.glBindBuffer(GL.GL_ARRAY_BUFFER, glBufferID);
                   gl.glBufferData(GL.GL_ARRAY_BUFFER,
-                        glBufferLengthNeeded, nativeBuffer, GL.GL_STATIC_DRAW);                  
+                        glBufferLengthNeeded, uploadBuffer, GL.GL_STATIC_DRAW);                  
                   gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
                   
                   glBufferLength = glBufferLengthNeeded;
                   
-               } else {
+               } else if (uploadBuffer != null) {
                   
                   // Apparently the buffer-id already exists and has the correct size
                   gl.glBindBuffer(GL.GL_ARRAY_BUFFER, glBufferID);
                   gl.glBufferSubData(GL.GL_ARRAY_BUFFER, 0, 
-                        glBufferLengthNeeded, nativeBuffer);
+                        glBufferLengthNeeded, uploadBuffer);
+                  gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+               }
+               if (array instanceof Data.Array.Direct) {
+                  gl.glBindBuffer(GL.GL_ARRAY_BUFFER, glBufferID);
+                  uploadChunks(gl, GL.GL_ARRAY_BUFFER, (Data.Array.Direct) array, 0, glBufferLengthNeeded);
                   gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
                }
             }
          }
 
+         // The changed ranges can be uploaded on their own only if the GL buffer
+         // exists, and its size (and so the size of the Data.Array) hasn't changed:
+         private boolean canUpdateChangedRanges() {
+            Data.Array array = graphics3D.vertexBuffers.get(key);
+            boolean direct = (array instanceof Data.Array.Direct);
+            if ((glBufferID == null) || (!direct && (nativeBuffer == null))) {
+               return false;
+            }
+            if (numBytes(array) != glBufferLength) {
+               return false;
+            }
+            int bytesPerPrimitive = array.type.primitive.bytes;
+            for (int[] range : changedRanges) {
+               if ((range[0] < 0) || (range[0] + range[1] > glBufferLength)) return false;
+               if ((range[0] % bytesPerPrimitive != 0) || (range[1] % bytesPerPrimitive != 0)) return false;
+            }
+            return true;
+         }
+         private void updateChangedRanges(GL3 gl) {
+            Data.Array array = graphics3D.vertexBuffers.get(key);
+            int bytesPerPrimitive = array.type.primitive.bytes;
+            
+            gl.glBindBuffer(GL.GL_ARRAY_BUFFER, glBufferID);
+            for (int[] range : changedRanges) {
+               // A DIRECT array is uploaded straight from its storage, anything
+               // else has just this range copied into the native buffer first:
+               if (array instanceof Data.Array.Direct) {
+                  uploadChunks(gl, GL.GL_ARRAY_BUFFER, (Data.Array.Direct) array, range[0], range[0] + range[1]);
+               } else {
+                  copyToNativeBuffer(array, range[0] / bytesPerPrimitive, range[1] / bytesPerPrimitive);
+                  gl.glBufferSubData(GL.GL_ARRAY_BUFFER, range[0], range[1], bytesOf(nativeBuffer, range[0], range[1]));
+               }
+            }
+            gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+         }
+
+         private int numBytes(Data.Array array) {
+            return array.numElements() * array.type.primitivesPerElement * array.type.primitive.bytes;
+         }
+         private void copyToNativeBuffer(Data.Array array, int firstPrimitive, int numPrimitives) {
+            ByteBuffer target = nativeBuffer.duplicate();
+            target.order(ByteOrder.nativeOrder());
+            target.position(firstPrimitive * array.type.primitive.bytes);
+            array.copyTo(firstPrimitive, target, numPrimitives);
+         }
+         // A view of some of the bytes in a buffer, from which GL can read
+         private ByteBuffer bytesOf(ByteBuffer buffer, int firstByte, int numBytes) {
+            ByteBuffer bytes = buffer.duplicate();
+            bytes.limit(firstByte + numBytes);
+            bytes.position(firstByte);
+            return bytes;
+         }
+
          private void deleteBufferId(GL3 gl, int id) {
             int[] idArray = new int[1];
             idArray[0] = id;
@@ -509,10 +610,109 @@ public class Jogl {
          }
       }
 
+      // Uploads the bytes from "firstByte" to "endByte" of a DIRECT array
+      // into the bound buffer, a chunk at a time, straight from its storage
+      private void uploadChunks(GL3 gl, int target, Data.Array.Direct array, int firstByte, int endByte) {
+         for (int b = firstByte; b < endByte; ) {
+            ByteBuffer bytes = array.chunkBytes(b, endByte);
+            gl.glBufferSubData(target, b, bytes.remaining(), bytes);
+            b += bytes.remaining();
+         }
+      }
+
       private void updateBuffers(GL3 gl) {
          for (GLVertexBuffer buffer : vertexBuffers.values()) {
             buffer.update(gl);            
          }
+         for (GLIndexBuffer buffer : indexBuffers.values()) {
+            buffer.update(gl);            
+         }
+      }
+      
+      // ------------------------------------------------------------
+      // IndexBuffer objects
+      // ------------------------------------------------------------      
+      private final HashMap<Integer, GLIndexBuffer> indexBuffers = new HashMap<Integer, GLIndexBuffer>();
+
+      private class GLIndexBuffer {
+         public final int key;
+         public GLIndexBuffer(int key) { 
+            this.key = key;
+            needsUpdate = true;
+            needsDestruction = false;
+            
+            glBufferID = null;
+            glIndexType = GL.GL_UNSIGNED_INT;
+         }
+         public boolean needsUpdate;
+         public boolean needsDestruction;
+         
+         public Integer glBufferID;
+         public int glIndexType;      // GL_UNSIGNED_SHORT or GL_UNSIGNED_INT
+         public int bytesPerIndex;
+
+         public void update(GL3 gl) {
+            if (needsDestruction) {
+               needsDestruction = false;
+               
+               if (glBufferID != null) {
+                  int[] idArray = { glBufferID };
+                  gl.glDeleteBuffers(1, idArray, 0);
+                  glBufferID = null;
+               }
+               
+            } else if (needsUpdate) {
+               needsUpdate = false;
+               
+               Data.Array array = graphics3D.indexBuffers.get(key);
+               int numIndices = array.numElements() * array.type.primitivesPerElement;
+               
+               // Indices are held as ints, but when they all fit in 16 bits
+               // we upload them as shorts, using half the memory on the GPU:
+               int maxIndex = 0;
+               for (int i = 0; i < numIndices; ++i) {
+                  maxIndex = Math.max(maxIndex, array.getInt(i));
+               }
+               Buffer nativeBuffer;
+               if (maxIndex <= 0xffff) {
+                  glIndexType = GL.GL_UNSIGNED_SHORT;
+                  bytesPerIndex = 2;
+                  ByteBuffer byteBuffer = ByteBuffer.allocateDirect(numIndices * bytesPerIndex);
+                  byteBuffer.order(ByteOrder.nativeOrder());
+                  ShortBuffer shortBuffer = byteBuffer.asShortBuffer();
+                  for (int i = 0; i < numIndices; ++i) {
+                     shortBuffer.put(i, (short) array.getInt(i));
+                  }
+                  nativeBuffer = shortBuffer;
+               } else if (array instanceof Data.Array.Direct) {
+                  // DIRECT ints are uploaded as they are, a chunk at a time below
+                  glIndexType = GL.GL_UNSIGNED_INT;
+                  bytesPerIndex = 4;
+                  nativeBuffer = null;
+               } else {
+                  glIndexType = GL.GL_UNSIGNED_INT;
+                  bytesPerIndex = 4;
+                  ByteBuffer byteBuffer = ByteBuffer.allocateDirect(numIndices * bytesPerIndex);
+                  byteBuffer.order(ByteOrder.nativeOrder());
+                  array.copyTo(0, byteBuffer, numIndices);
+                  byteBuffer.rewind();
+                  nativeBuffer = byteBuffer;
+               }
+               
+               if (glBufferID == null) {
+                  int[] idArray = new int[1];
+                  gl.glGenBuffers(1, idArray, 0);
+                  glBufferID = idArray[0];
+               }
+               gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, glBufferID);
+               gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER,
+                     numIndices * bytesPerIndex, nativeBuffer, GL.GL_STATIC_DRAW);
+               if (nativeBuffer == null) {
+                  uploadChunks(gl, GL.GL_ELEMENT_ARRAY_BUFFER, (Data.Array.Direct) array, 0, numIndices * bytesPerIndex);
+               }
+               gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+            }
+         }
       }
       
       // ------------------------------------------------------------
@@ -708,9 +908,9 @@ public class Jogl {
          
          Matrix4x4 modelToView = null;
          Matrix4x4 viewToClip = null;
-         int positionsBufferId = -1;
-         int normalsBufferId = -1;
-         int baryBufferId = -1;
+         Rendering.Shader.Variable.VertexBuffer.Binding positionsBinding = null;
+         Rendering.Shader.Variable.VertexBuffer.Binding normalsBinding = null;
+         Rendering.Shader.Variable.VertexBuffer.Binding baryBinding = null;
                   
          for (Rendering.Shader.Command command : graphics3D.commands) {
             
@@ -727,13 +927,13 @@ public class Jogl {
                if (command instanceof Rendering.Shader.Variable.VertexBuffer.Binding) {
                   Rendering.Shader.Variable.VertexBuffer.Binding b = (Rendering.Shader.Variable.VertexBuffer.Binding) command;
                   if (b.variable == Rendering.Shader.POSITIONS) {
-                     positionsBufferId = b.vertexBuffer;
+                     positionsBinding = b;
                   }
                   if (b.variable == Rendering.Shader.NORMALS) {
-                     normalsBufferId = b.vertexBuffer;
+                     normalsBinding = b;
                   }
                   if (b.variable == Rendering.Shader.BARYCOORDS) {
-                     baryBufferId = b.vertexBuffer;
+                     baryBinding = b;
                   }
                }
             }
@@ -743,61 +943,115 @@ public class Jogl {
                
                int numTriangles = b.numTriangles;
                GLShader shader = shaders.get(b.shader);               
-               GLVertexBuffer positionsBuffer = vertexBuffers.get(positionsBufferId);
-               GLVertexBuffer normalsBuffer = vertexBuffers.get(normalsBufferId);
-               GLVertexBuffer baryBuffer = vertexBuffers.get(baryBufferId);
                
-               // System.out.format("Ready to try to invoke shader: %d,%d,%d buffers .. %d shader .. %d triangles\n",
-               //       positionsBuffer.glBufferID,
-               //       normalsBuffer.glBufferID,
-               //       baryBuffer.glBufferID,
+               // System.out.format("Ready to try to invoke shader: %d shader .. %d triangles\n",
                //       shader.programID,
                //       numTriangles);
                
-               // Tell GL to use the shader program for this instance...
-               gl.glUseProgram(shader.programID);  
+               bindShaderInputs(gl, shader, modelToView, viewToClip,
+                                positionsBinding, normalsBinding, baryBinding);
                
-               // Bind modelToView
-               { float arr[] = new float[16];
-                 modelToView.copyToFloatArray(arr);
-                 gl.glUniformMatrix4fv(shader.modelToView_ProgramLocation, 1, false, arr, 0);     
-               }
-               // Bind viewToClip
-               { float arr[] = new float[16];
-                 viewToClip.copyToFloatArray(arr);
-                 gl.glUniformMatrix4fv(shader.viewToClip_ProgramLocation, 1, false, arr, 0);     
-               }
+               gl.glDrawArrays(GL.GL_TRIANGLES, 0, 3 * numTriangles);
+            }
+            
+            if (command instanceof Rendering.Shader.Command.ExecuteIndexed) {
+               Rendering.Shader.Command.ExecuteIndexed b = (Rendering.Shader.Command.ExecuteIndexed) command;
                
-               // Bind positions vertex-buffer
-               { gl.glBindBuffer(GL.GL_ARRAY_BUFFER, positionsBuffer.glBufferID);               
-                 gl.glEnableVertexAttribArray(shader.positions_ProgramLocation);
-                 gl.glVertexAttribPointer(shader.positions_ProgramLocation, 
-                     3,           // num elements per vertex, eg, per-vertex vec3's or per-vertex vec4's
-                     GL.GL_FLOAT, // apparently GL.GL_UNSIGNED_INT doesn't work??
-                     false, 0, 0);
-               }               
-               // Bind normals vertex-buffer
-               { gl.glBindBuffer(GL.GL_ARRAY_BUFFER, normalsBuffer.glBufferID);               
-                 gl.glEnableVertexAttribArray(shader.normals_ProgramLocation);
-                 gl.glVertexAttribPointer(shader.normals_ProgramLocation, 
-                     3,           // num elements per vertex, eg, per-vertex vec3's or per-vertex vec4's
-                     GL.GL_FLOAT, // apparently GL.GL_UNSIGNED_INT doesn't work??
-                     false, 0, 0);
-               }
-               // Bind bary vertex-buffer
-               { gl.glBindBuffer(GL.GL_ARRAY_BUFFER, baryBuffer.glBufferID);               
-                 gl.glEnableVertexAttribArray(shader.baryCoords_ProgramLocation);
-                 gl.glVertexAttribPointer(shader.baryCoords_ProgramLocation, 
-                     3,           // num elements per vertex, eg, per-vertex vec3's or per-vertex vec4's
-                     GL.GL_FLOAT, // apparently GL.GL_UNSIGNED_INT doesn't work??
-                     false, 0, 0);
-               }
+               GLShader shader = shaders.get(b.shader);               
+               GLIndexBuffer indexBuffer = indexBuffers.get(b.indexBuffer);
                
-               gl.glDrawArrays(GL.GL_TRIANGLES, 0, 3 * numTriangles);
+               bindShaderInputs(gl, shader, modelToView, viewToClip,
+                                positionsBinding, normalsBinding, baryBinding);
+               
+               gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, indexBuffer.glBufferID);
+               gl.glDrawElements(GL.GL_TRIANGLES, 3 * b.numTriangles, indexBuffer.glIndexType,
+                                 3L * b.firstTriangle * indexBuffer.bytesPerIndex);
+               gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
             }
          }
       }
       
+      private void bindShaderInputs (GL3 gl, GLShader shader, 
+            Matrix4x4 modelToView, Matrix4x4 viewToClip,
+            Rendering.Shader.Variable.VertexBuffer.Binding positionsBinding,
+            Rendering.Shader.Variable.VertexBuffer.Binding normalsBinding,
+            Rendering.Shader.Variable.VertexBuffer.Binding baryBinding) {
+
+         // Tell GL to use the shader program for this instance...
+         gl.glUseProgram(shader.programID);  
+         
+         // Bind modelToView, with any dequantization of the positions folded in
+         { float arr[] = new float[16];
+           Rendering.Shader.modelToView(modelToView, positionsBinding).copyToFloatArray(arr);
+           gl.glUniformMatrix4fv(shader.modelToView_ProgramLocation, 1, false, arr, 0);     
+         }
+         // Bind viewToClip
+         { float arr[] = new float[16];
+           viewToClip.copyToFloatArray(arr);
+           gl.glUniformMatrix4fv(shader.viewToClip_ProgramLocation, 1, false, arr, 0);     
+         }
+         
+         // Bind positions, normals and bary vertex-buffers.  When these are
+         // all INTERLEAVED in one buffer, it's only bound once.
+         boundArrayBuffer = -1;
+         bindVertexAttribute(gl, shader.positions_ProgramLocation, positionsBinding);
+         bindVertexAttribute(gl, shader.normals_ProgramLocation, normalsBinding);
+         if (baryBinding != null) {
+           bindVertexAttribute(gl, shader.baryCoords_ProgramLocation, baryBinding);
+         } else {
+           // Without baryCoords (as with shared, indexed vertices) every
+           // vertex gets the same baryCoords, far from any border:
+           gl.glDisableVertexAttribArray(shader.baryCoords_ProgramLocation);
+           gl.glVertexAttrib3f(shader.baryCoords_ProgramLocation, 1.0f, 1.0f, 1.0f);
+         }
+      }
+      
+      private int boundArrayBuffer = -1;
+      
+      private void bindVertexAttribute (GL3 gl, int location, 
+            Rendering.Shader.Variable.VertexBuffer.Binding binding) {
+         
+         GLVertexBuffer buffer = vertexBuffers.get(binding.vertexBuffer);
+         if (buffer.glBufferID != boundArrayBuffer) {
+            gl.glBindBuffer(GL.GL_ARRAY_BUFFER, buffer.glBufferID);
+            boundArrayBuffer = buffer.glBufferID;
+         }
+         
+         // The binding's stride and offset count FLOATS, a TIGHTLY_PACKED
+         // stride being the buffer's own element.  A vertexBuffer of a
+         // compact primitive holds one vec3 per element (padded to four
+         // values, or PACKED into one int) that GL converts to floats.
+         Data.Array.Type type = graphics3D.vertexBuffers.get(binding.vertexBuffer).type;
+         int stride, offset;
+         if ((type.primitive == Data.Array.Primitive.FLOATS)
+               && (binding.stride != Rendering.Shader.Variable.VertexBuffer.Binding.TIGHTLY_PACKED)) {
+            stride = 4 * binding.stride;
+            offset = 4 * binding.offset;
+         } else {
+            stride = type.primitivesPerElement * type.primitive.bytes;
+            offset = 0;
+         }
+         gl.glEnableVertexAttribArray(location);
+         gl.glVertexAttribPointer(location, 
+             (type.primitive == Data.Array.Primitive.PACKED_2_10_10_10) ? 4 : 3,  // num values per vertex
+             glTypeOf(type.primitive),
+             type.primitive.normalized,
+             stride,      // stride and offset in bytes
+             offset);
+      }
+      private int glTypeOf(Data.Array.Primitive primitive) {
+         switch (primitive) {
+            case INTEGERS:                  return GL3.GL_INT;
+            case SHORTS:                    return GL.GL_SHORT;
+            case HALF_FLOATS:               return GL.GL_HALF_FLOAT;
+            case BYTES:                     
+            case NORMALIZED_UNSIGNED_BYTES: return GL.GL_UNSIGNED_BYTE;
+            case NORMALIZED_BYTES:          return GL.GL_BYTE;
+            case PACKED_2_10_10_10:         return GL3.GL_INT_2_10_10_10_REV;
+            default:                        return GL.GL_FLOAT;
+         }
+      }
+      
       
       // ========================================================
       // Implementing Platform.Widget
@@ -4,7 +4,11 @@ import com.generic.base.Camera;
 import com.generic.base.Data;
 import com.generic.base.Image;
 import com.generic.base.Mesh;
+import com.generic.base.MeshFlattener;
+import com.generic.base.MeshIndexer;
+import com.generic.base.MeshLevels;
 import com.generic.base.Platform;
+import com.generic.base.QuantizedPositions;
 import com.generic.base.Rendering;
 import com.generic.base.Algebra.Vector3;
 import com.generic.base.Image.Position;
@@ -124,9 +128,6 @@ public class Demo {
    //
    // Ideas for the future:
    //   Graphics3D should be called Rendering
-   //   Graphics3D positions/normals/barycoords should be grouped
-   //              into a single vertexbuffer of 27 floats per triangle
-   //              rather than 3 vertexbuffers of 9 floats per triangle each.
    //   Graphics3D should support multiple command lists (supposedly to make it 
    //      easier for multiple consumers to share vertexbuffers and samplers?)
    //   Graphics3D vertexbuffer and sampler keys should be strings, not ints
@@ -137,6 +138,31 @@ public class Demo {
    private int positionsId;
    private int normalsId;
    private int baryCoordsId;
+   private int cornersId;
+   private int indicesId;
+   private MeshFlattener flattener;
+   private MeshIndexer indexer;
+   
+   // Set this to draw the mesh smooth-shaded from shared vertices and an
+   // indexBuffer, instead of flat-shaded from a soup of triangle corners
+   private final boolean indexed = false;
+   
+   // Set this to flatten into three SEPARATE vertexBuffers in the COMPACT
+   // format (20 bytes a corner), instead of one INTERLEAVED buffer of floats
+   // (36 bytes a corner)
+   private final boolean compact = false;
+   
+   // Set this as well to keep the mesh positions as QuantizedPositions,
+   // three SHORTS a vertex, and flatten those into 8 bytes a corner
+   private final boolean quantized = false;
+   
+   // Set this instead to simplify the mesh into levels of detail, and draw
+   // the coarsest one whose error would cover fewer than "lodPixelThreshold"
+   // pixels from where the camera is
+   private final boolean lod = false;
+   private final float lodPixelThreshold = 1.0f;
+   private MeshLevels levels;
+   private MeshLevels.Selector lodSelector;
    
    
    private void initRendering () {
@@ -149,111 +175,67 @@ public class Demo {
       // ------------------------------------
       // one shader ("FlatBordered")
       // ------------------------------------
-      Rendering.Shader shader = new Rendering.Shader.FlatBordered(0.1f);
+      Rendering.Shader shader = (indexed && !lod) ? new Rendering.Shader.Smooth()
+                                        : new Rendering.Shader.FlatBordered(0.1f);
       shaderId = ids++;
       rendering.shaders.put(shaderId, shader);
       
-      // ------------------------------------
-      // three vertexBuffers for "positions", "normals", "baryCoords"
-      // ------------------------------------
-      Data.Array positions  = Data.Array.create(Data.Array.Type.THREE_FLOATS);
-      Data.Array normals    = Data.Array.create(Data.Array.Type.THREE_FLOATS);
-      Data.Array baryCoords = Data.Array.create(Data.Array.Type.THREE_FLOATS);
+      if (indexed) {
+         // ------------------------------------
+         // two vertexBuffers for "positions", "normals", with one vertex for
+         // each mesh vertex (split where faces meet at a sharp crease),
+         // and an indexBuffer listing the corners of each triangle
+         // ------------------------------------
+         positionsId = ids++;
+         normalsId = ids++;
+         indicesId = ids++;
+         indexer = new MeshIndexer(mesh, (float) Math.toRadians(30.0));
+         indexer.addTo(rendering, positionsId, normalsId, indicesId);
+         indexer.build();
+         return;
+      }
       
-      int numTriangles = mesh.numTriangles();
-      positions.setNumElements(3 * numTriangles);
-      normals.setNumElements(3 * numTriangles);
-      baryCoords.setNumElements(3 * numTriangles);
+      if (lod) {
+         // ------------------------------------
+         // three SEPARATE vertexBuffers for each level of detail
+         // ------------------------------------
+         levels = MeshLevels.build(mesh, 8, 0.5f);
+         levels.addTo(rendering, ids, Data.Array.Storage.DIRECT);
+         ids += MeshLevels.IDS_PER_LEVEL * levels.numLevels();
+         lodSelector = levels.newSelector(lodPixelThreshold, 0.25f);
+         return;
+      }
       
-      { float[] positionsArray  = ((Data.Array.Floats)positions).array();
-        float[] normalsArray    = ((Data.Array.Floats)normals).array();
-        float[] baryCoordsArray = ((Data.Array.Floats)baryCoords).array();
-
-        int p = 0, n = 0, b = 0;
-        
-        // For each triangle in the mesh, we're going to want to access
-        // the mesh "positions per vertex" info.
-        // We've been thinking this might turn into a "CURSOR" object.. 
-        Mesh.DataLayer meshPositions = mesh.dataLayer(
-           "positions", Mesh.DataLayer.Type.THREE_FLOATS_PER_VERTEX);
-        if (meshPositions == null) {
-           throw new RuntimeException("Failed to find position dataLayer");
-        }
-        float[] meshPositionsArray = ((Data.Array.Floats)(meshPositions.data)).array();
-         
-        // Now then, we iterate over the mesh faces:
-        for (Integer faceID : mesh.faces()) {
-           int firstEdge = mesh.directedEdgeForFace(faceID);
-           int lastEdge = mesh.prevInLoop(firstEdge);
-           int vertex0 = mesh.startOf(firstEdge);
-            
-           int edge = mesh.nextInLoop(firstEdge);
-           int vertexS = mesh.startOf(edge);
-           boolean edge0SinFace = true;
-            
-           while (true) {
-              int nextEdge = mesh.nextInLoop(edge);
-              int vertexT = mesh.startOf(nextEdge);
-              boolean edgeT0inFace = (nextEdge == lastEdge);
-             
-              // -----------------------------
-              // Now we've got a triangle:
-              //   vertex0 -- 
-              //     edge0SinFace -- describes edge from vertex0 to vertexS
-              //   vertexS -- 
-              //     the edge vertexS to vertexT is always in the face
-              //   vertexT -- 
-              //     edgeT0inFace -- describes edge from vertexT to vertex0
-              //   vertex0
-              // -----------------------------
-              Vector3 vertex0Pos = Vector3.fromFloatArray(meshPositionsArray, 3 * vertex0);
-              Vector3 vertexSPos = Vector3.fromFloatArray(meshPositionsArray, 3 * vertexS);
-              Vector3 vertexTPos = Vector3.fromFloatArray(meshPositionsArray, 3 * vertexT);
-
-              // copy 3 vector3's into positionsArray
-              vertex0Pos.copyToFloatArray(positionsArray, 3*p++);
-              vertexSPos.copyToFloatArray(positionsArray, 3*p++);
-              vertexTPos.copyToFloatArray(positionsArray, 3*p++);
-               
-              // -----------------------------
-              // normal
-              // -----------------------------               
-              Vector3 normal = Vector3.crossProduct(
-                    vertexSPos.minus(vertex0Pos),
-                    vertexTPos.minus(vertex0Pos)).normalized();
-               
-              // copy the same normal 3 times into normalArray
-              normal.copyToFloatArray(normalsArray, 3*n++);
-              normal.copyToFloatArray(normalsArray, 3*n++);
-              normal.copyToFloatArray(normalsArray, 3*n++);
-               
-              // -----------------------------
-              // baryCoords
-              // -----------------------------               
-              float edgeT0 = (edgeT0inFace ? 1.0f : -1.0f);
-              float edgeS0 = (edge0SinFace ? 1.0f : -1.0f);
-              
-              (Vector3.of(1.0f,   0.0f,   0.0f)).copyToFloatArray(baryCoordsArray, 3*b++);
-              (Vector3.of(0.0f, edgeT0,   0.0f)).copyToFloatArray(baryCoordsArray, 3*b++);
-              (Vector3.of(0.0f,   0.0f, edgeS0)).copyToFloatArray(baryCoordsArray, 3*b++);
-               
-              // -----------------------------               
-              if (edgeT0inFace) break;
-               
-              // We're moving on to the next triangle...
-              edge = nextEdge;
-              vertexS = vertexT;
-              edge0SinFace = false;
-           }
-        }
+      if (compact) {
+         positionsId = ids++;
+         normalsId = ids++;
+         baryCoordsId = ids++;
+         if (quantized) {
+            QuantizedPositions quantizedPositions = QuantizedPositions.fromPositions(
+                  mesh.dataLayer("positions", Mesh.DataLayer.Type.THREE_FLOATS_PER_VERTEX), "quantizedPositions");
+            flattener = new MeshFlattener(quantizedPositions, 
+                  MeshFlattener.Format.COMPACT, Data.Array.Storage.DIRECT);
+         } else {
+            flattener = new MeshFlattener(mesh, MeshFlattener.Layout.SEPARATE, 
+                  MeshFlattener.Format.COMPACT, Data.Array.Storage.DIRECT);
+         }
+         flattener.addTo(rendering, positionsId, normalsId, baryCoordsId);
+         flattener.flatten();
+         return;
       }
       
-      positionsId = ids++;
-      normalsId = ids++;
-      baryCoordsId = ids++;
-      rendering.vertexBuffers.put(positionsId,  positions);
-      rendering.vertexBuffers.put(normalsId,    normals);
-      rendering.vertexBuffers.put(baryCoordsId, baryCoords);
+      // ------------------------------------
+      // one vertexBuffer with "positions", "normals", "baryCoords" INTERLEAVED
+      // ------------------------------------
+      // The MeshFlattener fans out each face of the mesh into triangles
+      // and fills in the nine floats of every triangle corner.
+      // Later, "flattener.update()" will redo just the triangles around any
+      // vertices marked dirty in the mesh positions, and tell the rendering.
+      // The corners are kept in DIRECT storage the renderer uploads from:
+      cornersId = ids++;
+      flattener = new MeshFlattener(mesh, MeshFlattener.Layout.INTERLEAVED, Data.Array.Storage.DIRECT);
+      flattener.addTo(rendering, cornersId);
+      flattener.flatten();
    }
    
    private void rebuildCommands (Camera camera) {
@@ -266,14 +248,38 @@ public class Demo {
          Rendering.Shader.VIEW_TO_CLIP, camera.cameraToClipSpace));
       rendering.commands.add(new Rendering.Shader.Variable.Matrix4x4.Binding(
          Rendering.Shader.MODEL_TO_VIEW, camera.worldToCameraSpace));
-      rendering.commands.add(new Rendering.Shader.Variable.VertexBuffer.Binding(
-         Rendering.Shader.POSITIONS, positionsId));
-      rendering.commands.add(new Rendering.Shader.Variable.VertexBuffer.Binding(
-         Rendering.Shader.NORMALS, normalsId));
-      rendering.commands.add(new Rendering.Shader.Variable.VertexBuffer.Binding(
-         Rendering.Shader.BARYCOORDS, baryCoordsId));
-      rendering.commands.add(new Rendering.Shader.Command.Execute(
-         shaderId, mesh.numTriangles()));
+      if (lod) {
+         int level = lodSelector.select(camera, camera.worldToCameraSpace);
+         levels.addCommands(rendering, level, shaderId);
+      } else if (indexed) {
+         rendering.commands.add(new Rendering.Shader.Variable.VertexBuffer.Binding(
+            Rendering.Shader.POSITIONS, positionsId));
+         rendering.commands.add(new Rendering.Shader.Variable.VertexBuffer.Binding(
+            Rendering.Shader.NORMALS, normalsId));
+         rendering.commands.add(new Rendering.Shader.Command.ExecuteIndexed(
+            shaderId, indicesId, 0, indexer.numTriangles()));
+      } else if (compact) {
+         rendering.commands.add(new Rendering.Shader.Variable.VertexBuffer.Binding(
+            Rendering.Shader.POSITIONS, positionsId, flattener.positionsDequantization()));
+         rendering.commands.add(new Rendering.Shader.Variable.VertexBuffer.Binding(
+            Rendering.Shader.NORMALS, normalsId));
+         rendering.commands.add(new Rendering.Shader.Variable.VertexBuffer.Binding(
+            Rendering.Shader.BARYCOORDS, baryCoordsId));
+         rendering.commands.add(new Rendering.Shader.Command.Execute(
+            shaderId, flattener.numTriangles()));
+      } else {
+         rendering.commands.add(new Rendering.Shader.Variable.VertexBuffer.Binding(
+            Rendering.Shader.POSITIONS, cornersId,
+            MeshFlattener.POSITIONS_OFFSET, MeshFlattener.FLOATS_PER_CORNER));
+         rendering.commands.add(new Rendering.Shader.Variable.VertexBuffer.Binding(
+            Rendering.Shader.NORMALS, cornersId,
+            MeshFlattener.NORMALS_OFFSET, MeshFlattener.FLOATS_PER_CORNER));
+         rendering.commands.add(new Rendering.Shader.Variable.VertexBuffer.Binding(
+            Rendering.Shader.BARYCOORDS, cornersId,
+            MeshFlattener.BARYCOORDS_OFFSET, MeshFlattener.FLOATS_PER_CORNER));
+         rendering.commands.add(new Rendering.Shader.Command.Execute(
+            shaderId, flattener.numTriangles()));
+      }
       rendering.commandsChanged();
    }
 }